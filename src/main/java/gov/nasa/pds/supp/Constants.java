@@ -8,4 +8,5 @@ package gov.nasa.pds.supp;
 public interface Constants
 {
     public static final String DOI_FIELD = "ops:Identifiers/ops:doi";
+    public static final String HARVEST_TIME_FIELD = "ops:Harvest_Info/ops:harvest_date_time";
 }
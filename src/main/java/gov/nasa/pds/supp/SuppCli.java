@@ -15,6 +15,7 @@ import org.apache.logging.log4j.Logger;
 
 import gov.nasa.pds.supp.cmd.CliCommand;
 import gov.nasa.pds.supp.cmd.doi.AddDoiCmd;
+import gov.nasa.pds.supp.cmd.ids.SnapshotIdsCmd;
 import gov.nasa.pds.supp.cmd.supp.AddSupplementalFieldsCmd;
 import gov.nasa.pds.registry.common.util.ManifestUtils;
 import gov.nasa.pds.supp.util.ExceptionUtils;
@@ -112,6 +113,7 @@ public class SuppCli
         System.out.println("Commands:");
         System.out.println("  add-supplemental-fields   Add supplemental fields to already registered products.");
         System.out.println("  add-doi                   Add DOIs to already registered products.");
+        System.out.println("  snapshot-ids              Export registered product IDs to a local snapshot file.");
         System.out.println("  -V, --version             Print Supplementer version");
         
         System.out.println();
@@ -203,6 +205,7 @@ public class SuppCli
         commands = new HashMap<>();
         commands.put("add-supplemental-fields", new AddSupplementalFieldsCmd());
         commands.put("add-doi", new AddDoiCmd());
+        commands.put("snapshot-ids", new SnapshotIdsCmd());
     }
     
     
@@ -239,6 +242,101 @@ public class SuppCli
         bld = Option.builder("index").hasArg().argName("name");
         options.addOption(bld.build());
 
+        bld = Option.builder("compress");
+        options.addOption(bld.build());
+
+        bld = Option.builder("compress-level").hasArg().argName("n");
+        options.addOption(bld.build());
+
+        // Supplemental data loader
+        bld = Option.builder("threads").hasArg().argName("n");
+        options.addOption(bld.build());
+
+        bld = Option.builder("max-inflight").hasArg().argName("n");
+        options.addOption(bld.build());
+
+        bld = Option.builder("optimistic");
+        options.addOption(bld.build());
+
+        bld = Option.builder("lookup-batch").hasArg().argName("n");
+        options.addOption(bld.build());
+
+        bld = Option.builder("msearch-batches").hasArg().argName("n");
+        options.addOption(bld.build());
+
+        bld = Option.builder("bulk-size").hasArg().argName("MB");
+        options.addOption(bld.build());
+
+        bld = Option.builder("bulk-items").hasArg().argName("n");
+        options.addOption(bld.build());
+
+        bld = Option.builder("bulk-latency").hasArg().argName("ms");
+        options.addOption(bld.build());
+
+        bld = Option.builder("max-request-size").hasArg().argName("MB");
+        options.addOption(bld.build());
+
+        bld = Option.builder("max-retries").hasArg().argName("n");
+        options.addOption(bld.build());
+
+        bld = Option.builder("retry-delay").hasArg().argName("ms");
+        options.addOption(bld.build());
+
+        bld = Option.builder("checkpoint-dir").hasArg().argName("dir");
+        options.addOption(bld.build());
+
+        bld = Option.builder("resume");
+        options.addOption(bld.build());
+
+        bld = Option.builder("label-threads").hasArg().argName("n");
+        options.addOption(bld.build());
+
+        bld = Option.builder("coalesce");
+        options.addOption(bld.build());
+
+        bld = Option.builder("flush-interval").hasArg().argName("ms");
+        options.addOption(bld.build());
+
+        bld = Option.builder("parse-threads").hasArg().argName("n");
+        options.addOption(bld.build());
+
+        bld = Option.builder("dedup").hasArg().argName("n|table");
+        options.addOption(bld.build());
+
+        bld = Option.builder("dedup-policy").hasArg().argName("policy");
+        options.addOption(bld.build());
+
+        bld = Option.builder("fanout-versions").hasArg().argName("n");
+        options.addOption(bld.build());
+
+        bld = Option.builder("fanout-tasks").hasArg().argName("n");
+        options.addOption(bld.build());
+
+        bld = Option.builder("fanout-rps").hasArg().argName("n");
+        options.addOption(bld.build());
+
+        bld = Option.builder("diff");
+        options.addOption(bld.build());
+
+        bld = Option.builder("id-snapshot").hasArg().argName("file");
+        options.addOption(bld.build());
+
+        bld = Option.builder("merge-join");
+        options.addOption(bld.build());
+
+        bld = Option.builder("temp-dir").hasArg().argName("dir");
+        options.addOption(bld.build());
+
+        bld = Option.builder("sort-memory").hasArg().argName("MB");
+        options.addOption(bld.build());
+
+        // ID snapshot
+        bld = Option.builder("slices").hasArg().argName("n");
+        options.addOption(bld.build());
+
+        bld = Option.builder("force");
+        options.addOption(bld.build());
+
     }
 
 }
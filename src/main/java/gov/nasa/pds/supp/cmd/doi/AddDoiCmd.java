@@ -18,6 +18,8 @@ import gov.nasa.pds.registry.common.util.Tuple;
 import gov.nasa.pds.supp.Constants;
 import gov.nasa.pds.supp.cmd.CliCommand;
 import gov.nasa.pds.supp.dao.DaoManager;
+import gov.nasa.pds.supp.dao.RequestCompressor;
+import gov.nasa.pds.supp.util.CmdLineUtils;
 
 /**
  * CLI command to update products already stored in Elasticsearch registry index  
@@ -60,18 +62,28 @@ public class AddDoiCmd implements CliCommand
         File file = new File(pFile);
         if(!file.exists()) throw new Exception("File doesn't exist: " + pFile);
 
+        // Request compression
+        RequestCompressor compressor = null;
+        if(cmdLine.hasOption("compress"))
+        {
+            compressor = new RequestCompressor(CmdLineUtils.getIntOption(cmdLine, "compress-level", 6));
+        }
+
         // Init Elasticsearch client and DAOs
         RestClient client = null;
         try
         {
             client = EsClientFactory.createRestClient(esUrl, authPath);
             DaoManager.init(client, indexName);
+            DaoManager.getInstance().setCompressor(compressor);
             
             // Update Elasticsearch schema if needed
             updateSchema(client, indexName);
             
             // Process Sqlite database file
             processFile(file);
+            
+            if(compressor != null) compressor.logStats();
         }
         catch(ResponseException ex)
         {
@@ -122,6 +134,9 @@ public class AddDoiCmd implements CliCommand
         System.out.println();        
         System.out.println("Optional parameters:");
         System.out.println("  -auth <file>     Registry authentication configuration file");
+        System.out.println("  -compress        Compress (gzip) registry requests");
+        System.out.println("  -compress-level <n>");
+        System.out.println("                   Compression level from 1 (fastest) to 9 (smallest). Default is 6");
         System.out.println("  -es <url>        Registry (OpenSearch) URL. Default is http://localhost:9200");
         System.out.println("  -index <name>    Registry index name. Default is 'registry'");
         System.out.println();
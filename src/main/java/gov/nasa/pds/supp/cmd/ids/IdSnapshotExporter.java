@@ -0,0 +1,226 @@
+package gov.nasa.pds.supp.cmd.ids;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import gov.nasa.pds.registry.common.util.CloseUtils;
+import gov.nasa.pds.supp.dao.RegistryStamp;
+import gov.nasa.pds.supp.dao.SnapshotDao;
+import gov.nasa.pds.supp.ids.IdSnapshotWriter;
+
+
+/**
+ * Exports all product IDs (lidvids) from the registry index to an ID snapshot file.
+ *
+ * <p>A point in time of the registry index is split into slices exported in 
+ * parallel. Each slice is sorted by lidvid and saved in a temporary file.
+ * Then slice files are merged into the snapshot file.
+ */
+public class IdSnapshotExporter
+{
+    private static final String KEEP_ALIVE = "5m";
+
+    private Logger log;
+    private SnapshotDao dao;
+    private int slices;
+
+
+    /**
+     * Lidvids of one slice file
+     */
+    private static class SliceReader
+    {
+        public BufferedReader rd;
+        public byte[] key;
+
+        public boolean next() throws Exception
+        {
+            String line = rd.readLine();
+            key = (line == null) ? null : line.getBytes(StandardCharsets.UTF_8);
+            return key != null;
+        }
+    }
+
+
+    /**
+     * Constructor
+     * @param dao snapshot DAO
+     * @param slices number of slices exported in parallel
+     */
+    public IdSnapshotExporter(SnapshotDao dao, int slices)
+    {
+        log = LogManager.getLogger(this.getClass());
+        this.dao = dao;
+        this.slices = slices;
+    }
+
+
+    /**
+     * Export all lidvids to an ID snapshot file. The existing file is replaced
+     * only after the new snapshot is complete.
+     * @param file snapshot file
+     * @throws Exception an exception
+     */
+    public void export(File file) throws Exception
+    {
+        // Taken before the point in time, so changes made during the export
+        // make the snapshot out of date.
+        RegistryStamp stamp = dao.getRegistryStamp();
+        log.info("Exporting product IDs. Registry " + stamp);
+
+        File dir = file.getAbsoluteFile().getParentFile();
+        List<File> sliceFiles = new ArrayList<>(slices);
+
+        String pitId = dao.openPit(KEEP_ALIVE);
+
+        AtomicInteger threadNum = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(slices,
+                r -> new Thread(r, "id-exporter-" + threadNum.getAndIncrement()));
+
+        try
+        {
+            List<Future<?>> futures = new ArrayList<>(slices);
+            for(int i = 0; i < slices; i++)
+            {
+                int slice = i;
+                File sliceFile = File.createTempFile("ids-slice-", ".tmp", dir);
+                sliceFiles.add(sliceFile);
+
+                futures.add(executor.submit(() -> 
+                {
+                    exportSlice(pitId, slice, sliceFile);
+                    return null;
+                }));
+            }
+
+            for(Future<?> future: futures)
+            {
+                getResult(future);
+            }
+
+            File tmpFile = new File(dir, file.getName() + ".tmp");
+            long count = merge(sliceFiles, tmpFile, stamp);
+            Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, 
+                    StandardCopyOption.ATOMIC_MOVE);
+
+            log.info("Exported " + count + " product ID(s) to " + file.getAbsolutePath());
+            if(count != stamp.docCount)
+            {
+                log.warn("Registry has been changed during the export. The snapshot is out of date.");
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+            dao.closePit(pitId);
+
+            for(File sliceFile: sliceFiles)
+            {
+                sliceFile.delete();
+            }
+        }
+    }
+
+
+    private void exportSlice(String pitId, int slice, File sliceFile) throws Exception
+    {
+        try(Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(sliceFile), StandardCharsets.UTF_8), 1 << 16))
+        {
+            dao.exportLidVids(pitId, KEEP_ALIVE, slice, slices, (id) ->
+            {
+                writer.write(id);
+                writer.write('\n');
+            });
+        }
+    }
+
+
+    /**
+     * Merge sorted slice files into a snapshot file.
+     * @return number of lidvids
+     */
+    private long merge(List<File> sliceFiles, File file, RegistryStamp stamp) throws Exception
+    {
+        PriorityQueue<SliceReader> queue = new PriorityQueue<>(sliceFiles.size(),
+                (a, b) -> Arrays.compareUnsigned(a.key, b.key));
+
+        List<SliceReader> readers = new ArrayList<>(sliceFiles.size());
+        IdSnapshotWriter writer = null;
+
+        try
+        {
+            for(File sliceFile: sliceFiles)
+            {
+                SliceReader rd = new SliceReader();
+                rd.rd = new BufferedReader(new InputStreamReader(
+                        new FileInputStream(sliceFile), StandardCharsets.UTF_8), 1 << 16);
+                readers.add(rd);
+                if(rd.next()) queue.add(rd);
+            }
+
+            writer = new IdSnapshotWriter(file);
+
+            while(!queue.isEmpty())
+            {
+                SliceReader rd = queue.poll();
+                writer.add(rd.key);
+                if(rd.next()) queue.add(rd);
+            }
+
+            writer.finish(stamp);
+            return writer.getCount();
+        }
+        catch(Exception ex)
+        {
+            CloseUtils.close(writer);
+            writer = null;
+            file.delete();
+            throw ex;
+        }
+        finally
+        {
+            CloseUtils.close(writer);
+            for(SliceReader rd: readers)
+            {
+                CloseUtils.close(rd.rd);
+            }
+        }
+    }
+
+
+    private static void getResult(Future<?> future) throws Exception
+    {
+        try
+        {
+            future.get();
+        }
+        catch(ExecutionException ex)
+        {
+            Throwable cause = ex.getCause();
+            if(cause instanceof Exception) throw (Exception)cause;
+            throw ex;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package gov.nasa.pds.supp.cmd.ids;
+
+import java.io.File;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.client.RestClient;
+
+import gov.nasa.pds.registry.common.es.client.EsClientFactory;
+import gov.nasa.pds.registry.common.es.client.EsUtils;
+import gov.nasa.pds.registry.common.util.CloseUtils;
+import gov.nasa.pds.supp.cmd.CliCommand;
+import gov.nasa.pds.supp.dao.DaoManager;
+import gov.nasa.pds.supp.dao.RegistryStamp;
+import gov.nasa.pds.supp.dao.RequestCompressor;
+import gov.nasa.pds.supp.dao.SnapshotDao;
+import gov.nasa.pds.supp.ids.IdSnapshot;
+import gov.nasa.pds.supp.util.CmdLineUtils;
+
+/**
+ * CLI command to export all product IDs (lidvids) from the registry index to
+ * a local ID snapshot file. The snapshot is used by "add-supplemental-fields" 
+ * command to find registered products without registry queries.
+ */
+public class SnapshotIdsCmd implements CliCommand
+{
+    private Logger log;
+
+
+    /**
+     * Constructor
+     */
+    public SnapshotIdsCmd()
+    {
+        log = LogManager.getLogger(this.getClass());
+    }
+
+
+    @Override
+    public void run(CommandLine cmdLine) throws Exception
+    {
+        if(cmdLine.hasOption("help"))
+        {
+            printHelp();
+            return;
+        }
+
+        // Read Elasticsearch parameters
+        String esUrl = cmdLine.getOptionValue("es", "http://localhost:9200");
+        String indexName = cmdLine.getOptionValue("index", "registry");
+        String authPath = cmdLine.getOptionValue("auth");
+
+        // Read "-file" parameter
+        String pFile = cmdLine.getOptionValue("file");
+        if(pFile == null) throw new Exception("Missing required parameter '-file'");
+        File file = new File(pFile);
+
+        int slices = CmdLineUtils.getIntOption(cmdLine, "slices", 4);
+        boolean force = cmdLine.hasOption("force");
+
+        // Request compression
+        RequestCompressor compressor = null;
+        if(cmdLine.hasOption("compress"))
+        {
+            compressor = new RequestCompressor(CmdLineUtils.getIntOption(cmdLine, "compress-level", 6));
+        }
+
+        // Init Elasticsearch client and DAOs
+        RestClient client = null;
+        try
+        {
+            client = EsClientFactory.createRestClient(esUrl, authPath);
+            DaoManager daoMgr = new DaoManager(client, indexName);
+            daoMgr.setCompressor(compressor);
+            SnapshotDao dao = daoMgr.getSnapshotDao();
+
+            if(!force && file.exists() && isUpToDate(file, dao.getRegistryStamp()))
+            {
+                log.info("ID snapshot is up to date: " + file.getAbsolutePath());
+                return;
+            }
+
+            IdSnapshotExporter exporter = new IdSnapshotExporter(dao, slices);
+            exporter.export(file);
+
+            if(compressor != null) compressor.logStats();
+        }
+        catch(ResponseException ex)
+        {
+            throw new Exception(EsUtils.extractErrorMessage(ex));
+        }
+        finally
+        {
+            CloseUtils.close(client);
+        }
+    }
+
+
+    private boolean isUpToDate(File file, RegistryStamp current)
+    {
+        try(IdSnapshot snapshot = IdSnapshot.open(file))
+        {
+            return snapshot.getStamp().isSameAs(current);
+        }
+        catch(Exception ex)
+        {
+            log.warn("Could not read ID snapshot " + file + ": " + ex.getMessage());
+            return false;
+        }
+    }
+
+
+    /**
+     * Print help screen.
+     */
+    public void printHelp()
+    {
+        System.out.println("Usage: supplementer snapshot-ids <options>");
+
+        System.out.println();
+        System.out.println("Export all product IDs (LIDVIDs) from the registry to a local ID snapshot file.");
+        System.out.println("Pass the snapshot to 'add-supplemental-fields' command ('-id-snapshot' parameter)");
+        System.out.println("to find registered products without registry queries.");
+
+        System.out.println();
+        System.out.println("Required parameters:");
+        System.out.println("  -file <path>     ID snapshot file");
+
+        System.out.println();        
+        System.out.println("Optional parameters:");
+        System.out.println("  -auth <file>     Registry authentication configuration file");
+        System.out.println("  -compress        Compress (gzip) registry requests");
+        System.out.println("  -compress-level <n>");
+        System.out.println("                   Compression level from 1 (fastest) to 9 (smallest). Default is 6");
+        System.out.println("  -es <url>        Registry (OpenSearch) URL. Default is http://localhost:9200");
+        System.out.println("  -index <name>    Registry index name. Default is 'registry'");
+        System.out.println("  -slices <n>      Number of parts of the registry index exported in parallel.");
+        System.out.println("                   Default is 4");
+        System.out.println("  -force           Export product IDs even if the snapshot is up to date");
+        System.out.println();
+    }
+}
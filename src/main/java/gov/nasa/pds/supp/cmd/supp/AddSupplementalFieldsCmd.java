@@ -1,10 +1,14 @@
 package gov.nasa.pds.supp.cmd.supp;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.apache.commons.cli.CommandLine;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.elasticsearch.client.ResponseException;
 import org.elasticsearch.client.RestClient;
 
@@ -13,6 +17,11 @@ import gov.nasa.pds.registry.common.es.client.EsUtils;
 import gov.nasa.pds.registry.common.util.CloseUtils;
 import gov.nasa.pds.supp.cmd.CliCommand;
 import gov.nasa.pds.supp.dao.DaoManager;
+import gov.nasa.pds.supp.dao.RegistryStamp;
+import gov.nasa.pds.supp.dao.RequestCompressor;
+import gov.nasa.pds.supp.ids.IdSnapshot;
+import gov.nasa.pds.supp.util.CmdLineUtils;
+import gov.nasa.pds.supp.util.Tuple;
 
 /**
  * CLI command to update products already stored in Elasticsearch registry index  
@@ -22,7 +31,10 @@ import gov.nasa.pds.supp.dao.DaoManager;
  */
 public class AddSupplementalFieldsCmd implements CliCommand
 {
-    private SupplementalLabelProcessor proc;
+    private Logger log;
+    private LoaderConfig cfg;
+    private DaoManager daoMgr;
+    private int labelThreads;
     
     
     /**
@@ -30,6 +42,7 @@ public class AddSupplementalFieldsCmd implements CliCommand
      */
     public AddSupplementalFieldsCmd()
     {
+        log = LogManager.getLogger(this.getClass());
     }
 
     
@@ -60,18 +73,97 @@ public class AddSupplementalFieldsCmd implements CliCommand
             throw new Exception("Unknown file type. Only '.xml' or '.txt' files are allowed: " + pFile);            
         }
 
-        // Init label processor
-        proc = new SupplementalLabelProcessor();
+        // Loader parameters
+        cfg = new LoaderConfig();
+        cfg.threads = CmdLineUtils.getIntOption(cmdLine, "threads", 1);
+        cfg.maxInflight = CmdLineUtils.getIntOption(cmdLine, "max-inflight", cfg.threads * 2);
+        cfg.optimistic = cmdLine.hasOption("optimistic");
+        cfg.lookupBatch = CmdLineUtils.getIntOption(cmdLine, "lookup-batch", cfg.lookupBatch);
+        cfg.msearchBatches = CmdLineUtils.getIntOption(cmdLine, "msearch-batches", cfg.msearchBatches);
+        cfg.bulkBytes = CmdLineUtils.getIntOption(cmdLine, "bulk-size", 5) * 1024L * 1024L;
+        cfg.bulkItems = CmdLineUtils.getIntOption(cmdLine, "bulk-items", cfg.bulkItems);
+        cfg.maxRequestBytes = CmdLineUtils.getIntOption(cmdLine, "max-request-size", 100) * 1024L * 1024L;
+        cfg.bulkLatencyMs = CmdLineUtils.getIntOption(cmdLine, "bulk-latency", (int)cfg.bulkLatencyMs);
+        cfg.maxRetries = CmdLineUtils.getIntOption(cmdLine, "max-retries", cfg.maxRetries, 0);
+        cfg.retryDelayMs = CmdLineUtils.getIntOption(cmdLine, "retry-delay", (int)cfg.retryDelayMs);
+        cfg.checkpointDir = new File(cmdLine.getOptionValue("checkpoint-dir", getDefaultCheckpointDir()));
+        cfg.resume = cmdLine.hasOption("resume");
+        labelThreads = CmdLineUtils.getIntOption(cmdLine, "label-threads", 1);
+        cfg.coalesce = cmdLine.hasOption("coalesce");
+        cfg.flushIntervalMs = CmdLineUtils.getIntOption(cmdLine, "flush-interval", (int)cfg.flushIntervalMs);
+        cfg.parseThreads = CmdLineUtils.getIntOption(cmdLine, "parse-threads", cfg.parseThreads);
+
+        cfg.fanoutVersions = CmdLineUtils.getIntOption(cmdLine, "fanout-versions", 0, 0);
+        cfg.fanoutTasks = CmdLineUtils.getIntOption(cmdLine, "fanout-tasks", cfg.fanoutTasks);
+        cfg.fanoutRequestsPerSecond = CmdLineUtils.getIntOption(cmdLine, "fanout-rps", 0, 0);
+
+        cfg.diff = cmdLine.hasOption("diff");
+        if(cfg.diff && cfg.fanoutVersions > 0)
+        {
+            log.info("Update by query is not used in diff mode. Each version is compared and updated.");
+        }
+
+        cfg.mergeJoin = cmdLine.hasOption("merge-join");
+        if(cfg.diff && cfg.mergeJoin)
+        {
+            log.info("Diff mode is not supported in merge-join mode. All records will be updated.");
+        }
+
+        cfg.tempDir = new File(cmdLine.getOptionValue("temp-dir", System.getProperty("java.io.tmpdir")));
+        cfg.sortMemoryBytes = CmdLineUtils.getIntOption(cmdLine, "sort-memory", 256) * 1024L * 1024L;
+
+        // Duplicate IDs
+        String pDedup = cmdLine.getOptionValue("dedup");
+        if("table".equals(pDedup))
+        {
+            cfg.dedupRows = LoaderConfig.DEDUP_TABLE;
+        }
+        else if(pDedup != null)
+        {
+            cfg.dedupRows = CmdLineUtils.getIntOption(cmdLine, "dedup", 0);
+        }
+        cfg.dedupPolicy = DuplicateCollapser.parsePolicy(cmdLine.getOptionValue("dedup-policy"));
+
+        if((cfg.mergeJoin || cfg.dedupRows == LoaderConfig.DEDUP_TABLE) && !cfg.tempDir.isDirectory())
+        {
+            throw new Exception("Directory doesn't exist: " + cfg.tempDir);
+        }
+
+        String pSnapshot = cmdLine.getOptionValue("id-snapshot");
+        if(pSnapshot != null)
+        {
+            cfg.idSnapshot = new File(pSnapshot);
+            if(!cfg.idSnapshot.exists()) throw new Exception("File doesn't exist: " + pSnapshot);
+        }
+
+        // Request compression
+        RequestCompressor compressor = null;
+        if(cmdLine.hasOption("compress"))
+        {
+            compressor = new RequestCompressor(CmdLineUtils.getIntOption(cmdLine, "compress-level", 6));
+        }
 
         // Init Elasticsearch client and DAOs
         RestClient client = null;
+        IdSnapshot snapshot = null;
         try
         {
             client = EsClientFactory.createRestClient(esUrl, authPath);
-            DaoManager.init(client, indexName);
+            daoMgr = new DaoManager(client, indexName);
+            daoMgr.setCompressor(compressor);
+
+            // Look up products in the local ID snapshot
+            if(cfg.idSnapshot != null)
+            {
+                snapshot = openIdSnapshot(cfg.idSnapshot);
+                daoMgr.setIdLookup(snapshot);
+            }
             
             // Process supplemental (list) file
             processFile(pFile);
+            
+            daoMgr.getRegistryDao().getLookupMetrics().logStats();
+            if(compressor != null) compressor.logStats();
         }
         catch(ResponseException ex)
         {
@@ -79,10 +171,35 @@ public class AddSupplementalFieldsCmd implements CliCommand
         }
         finally
         {
+            CloseUtils.close(snapshot);
             CloseUtils.close(client);
         }
     }
 
+
+    /**
+     * Open ID snapshot file.
+     * @return ID snapshot or null if the snapshot is out of date
+     */
+    private IdSnapshot openIdSnapshot(File file) throws Exception
+    {
+        IdSnapshot snapshot = IdSnapshot.open(file);
+        RegistryStamp current = daoMgr.getSnapshotDao().getRegistryStamp();
+
+        if(!snapshot.getStamp().isSameAs(current))
+        {
+            log.warn("ID snapshot is out of date. Products will be looked up in the registry. "
+                    + "Run 'snapshot-ids' command to update the snapshot.");
+            log.info("Snapshot: " + snapshot.getStamp());
+            log.info("Registry: " + current);
+            snapshot.close();
+            return null;
+        }
+
+        log.info("Using ID snapshot with " + snapshot.size() + " product ID(s): " + file.getAbsolutePath());
+        return snapshot;
+    }
+
     
     /**
      * Print help screen.
@@ -98,18 +215,98 @@ public class AddSupplementalFieldsCmd implements CliCommand
         System.out.println("Required parameters:");
         System.out.println("  -file <path>     Either Product_Metadata_Supplemental label file (.xml) or a");
         System.out.println("                   text manifest file (.txt) with the list of supplemental label paths"); 
-        System.out.println("                   (one file path per line).");
+        System.out.println("                   (one file path per line). A line could also be a directory or");
+        System.out.println("                   a glob pattern, such as /data/**/supp_*.xml");
         
         System.out.println();        
         System.out.println("Optional parameters:");
         System.out.println("  -auth <file>     Registry authentication configuration file");
+        System.out.println("  -compress        Compress (gzip) registry requests");
+        System.out.println("  -compress-level <n>");
+        System.out.println("                   Compression level from 1 (fastest) to 9 (smallest). Default is 6");
         System.out.println("  -es <url>        Registry (OpenSearch) URL. Default is http://localhost:9200");
         System.out.println("  -index <name>    Registry index name. Default is 'registry'");
+        System.out.println("  -threads <n>     Number of concurrent bulk update threads. Default is 1");
+        System.out.println("  -max-inflight <n>");
+        System.out.println("                   Max number of bulk update requests queued or running at once.");
+        System.out.println("                   Default is 2 x threads");
+        System.out.println("  -optimistic      Update products in LIDVID tables without checking if they");
+        System.out.println("                   exist. Unregistered products are reported by registry and skipped");
+        System.out.println("  -lookup-batch <n>");
+        System.out.println("                   Number of LIDs / LIDVIDs in one registry lookup query. Default is 1000");
+        System.out.println("  -msearch-batches <n>");
+        System.out.println("                   Max number of lookup batches sent in one registry request");
+        System.out.println("                   (multi search). Default is 4");
+        System.out.println("  -bulk-size <MB>  Initial target size of a bulk update request. It is tuned at");
+        System.out.println("                   runtime from measured latency. Default is 5 MB");
+        System.out.println("  -bulk-items <n>  Max number of documents in a bulk update request. Default is 10000");
+        System.out.println("  -bulk-latency <ms>");
+        System.out.println("                   Target bulk update request latency. Default is 1000 ms");
+        System.out.println("  -max-request-size <MB>");
+        System.out.println("                   Max size of a request. Should not exceed registry (OpenSearch)");
+        System.out.println("                   'http.max_content_length' setting. Default is 100 MB");
+        System.out.println("  -max-retries <n> Max number of retries of a failed bulk update request or document.");
+        System.out.println("                   Only transient errors, such as '429 Too Many Requests', are retried.");
+        System.out.println("                   Default is 5");
+        System.out.println("  -retry-delay <ms>");
+        System.out.println("                   Delay before the first retry. Doubled on each next retry.");
+        System.out.println("                   Default is 500 ms");
+        System.out.println("  -checkpoint-dir <dir>");
+        System.out.println("                   Directory to save load checkpoints to. A checkpoint is saved after");
+        System.out.println("                   each bulk update and deleted after the whole table is loaded.");
+        System.out.println("                   Default is <java.io.tmpdir>/supplementer/checkpoints");
+        System.out.println("  -resume          Continue loading from the last checkpoint of each label");
+        System.out.println("  -label-threads <n>");
+        System.out.println("                   Number of labels from a manifest file processed concurrently.");
+        System.out.println("                   Labels with the largest data files are processed first.");
+        System.out.println("                   Default is 1 (labels are processed in manifest order)");
+        System.out.println("  -coalesce        Load all labels of a manifest file in one session. Records of");
+        System.out.println("                   consecutive labels share lookup and bulk update requests.");
+        System.out.println("                   Use for manifests with many small tables");
+        System.out.println("  -flush-interval <ms>");
+        System.out.println("                   Coalescing mode: max time a record waits in a batch before");
+        System.out.println("                   the batch is sent. Default is 5000 ms");
+        System.out.println("  -parse-threads <n>");
+        System.out.println("                   Number of threads parsing one table. The data file is split into");
+        System.out.println("                   ranges of records parsed in parallel. Default is 1");
+        System.out.println("  -id-snapshot <file>");
+        System.out.println("                   Find registered products in a local ID snapshot file created by");
+        System.out.println("                   'snapshot-ids' command instead of registry queries. The snapshot");
+        System.out.println("                   is not used if the registry has been changed since it was created");
+        System.out.println("  -fanout-versions <n>");
+        System.out.println("                   LID tables: update LIDs with at least <n> versions by one server-side");
+        System.out.println("                   update by query request instead of one bulk update per version");
+        System.out.println("  -fanout-tasks <n>");
+        System.out.println("                   Max number of update by query tasks running at once. Default is 2");
+        System.out.println("  -fanout-rps <n>  Throttle of each update by query task (documents per second).");
+        System.out.println("                   Default is no throttling");
+        System.out.println("  -diff            Compare table records with current supplemental values of products");
+        System.out.println("                   and only update changed products. Use to reload edited tables");
+        System.out.println("  -merge-join      Sort table records by LID / LIDVID and merge them with registered");
+        System.out.println("                   products read from the registry in sorted order. Use for very large");
+        System.out.println("                   tables instead of lookup queries. Checkpoints are not supported");
+        System.out.println("  -temp-dir <dir>  Merge-join mode: directory for sort files. Default is <java.io.tmpdir>");
+        System.out.println("  -sort-memory <MB>");
+        System.out.println("                   Merge-join mode: max size of table records sorted in memory.");
+        System.out.println("                   Default is 256 MB");
+        System.out.println("  -dedup <n|table> Collapse rows with the same LID / LIDVID into one update. Duplicates");
+        System.out.println("                   are collapsed within windows of <n> rows or in the whole table");
+        System.out.println("                   ('table'). The whole table is sorted by ID in <temp-dir> with");
+        System.out.println("                   <sort-memory> and checkpointed after it is loaded");
+        System.out.println("  -dedup-policy <last|merge>");
+        System.out.println("                   How duplicate rows are collapsed: the last row wins or rows are");
+        System.out.println("                   merged (non-null values of later rows win). Default is 'last'");
 
         System.out.println();
     }
 
     
+    private static String getDefaultCheckpointDir()
+    {
+        return new File(System.getProperty("java.io.tmpdir"), "supplementer/checkpoints").getPath();
+    }
+
+
     private void processFile(String filePath) throws Exception
     {
         String lowerCaseName = filePath.toLowerCase();
@@ -126,36 +323,98 @@ public class AddSupplementalFieldsCmd implements CliCommand
 
     private void processSupplementalLabel(String filePath) throws Exception
     {
+        SupplementalLabelProcessor proc = new SupplementalLabelProcessor(cfg, daoMgr);
         proc.process(new File(filePath));
     }
 
     
     private void processLabelListFile(String filePath) throws Exception
     {
-        BufferedReader rd = null;
-        
-        try
+        SupplementalLabelFinder finder = new SupplementalLabelFinder(Math.max(labelThreads, 4));
+        List<File> labels = finder.findLabels(filePath);
+
+        if(cfg.coalesce && cfg.mergeJoin)
         {
-            rd = new BufferedReader(new FileReader(filePath));
-            
-            String line;
-            while((line = rd.readLine()) != null)
+            log.info("Merge-join mode is not supported in coalescing mode.");
+        }
+
+        if(cfg.coalesce && cfg.dedupRows != 0)
+        {
+            log.info("Duplicate IDs are not collapsed in coalescing mode.");
+        }
+
+        // Add new fields of all labels with one schema update
+        if(labels.size() > 1) updateSchema(labels);
+
+        if(cfg.coalesce)
+        {
+            if(labelThreads > 1) log.info("Coalescing mode processes labels in one thread.");
+            processLabelsCoalesced(labels);
+        }
+        else if(labelThreads == 1)
+        {
+            SupplementalLabelProcessor proc = new SupplementalLabelProcessor(cfg, daoMgr);
+            for(File label: labels)
             {
-                line = line.trim();
-                
-                if(line.length() > 0)
-                {
-                    // Skip comments
-                    if(line.startsWith("#")) continue;
+                proc.process(label);
+            }
+        }
+        else
+        {
+            LabelProcessorPool pool = new LabelProcessorPool(cfg, daoMgr, labelThreads);
+            pool.process(labels);
+        }
+    }
+
 
-                    processSupplementalLabel(line);
+    /**
+     * Add supplemental fields of all labels to the registry schema with one update.
+     * Labels which could not be read are reported when they are processed.
+     */
+    private void updateSchema(List<File> labels) throws Exception
+    {
+        SupplementalLabelProcessor proc = new SupplementalLabelProcessor(cfg, daoMgr);
+        Map<String, Tuple> fields = new LinkedHashMap<>();
+
+        for(File label: labels)
+        {
+            try
+            {
+                for(Tuple field: proc.getSchemaFields(label))
+                {
+                    fields.putIfAbsent(field.item1, field);
                 }
             }
+            catch(Exception ex)
+            {
+                log.debug("Could not read fields of " + label + ": " + ex.getMessage());
+            }
         }
-        finally
+
+        daoMgr.getSchemaCache().addFields(new ArrayList<>(fields.values()));
+    }
+
+
+    private void processLabelsCoalesced(List<File> labels) throws Exception
+    {
+        CoalescingLoader coalescer = new CoalescingLoader(cfg, daoMgr);
+        coalescer.start();
+
+        try
         {
-            CloseUtils.close(rd);
+            SupplementalLabelProcessor proc = new SupplementalLabelProcessor(cfg, daoMgr, coalescer);
+            for(File label: labels)
+            {
+                if(coalescer.isStopRequested()) break;
+                proc.process(label);
+            }
         }
+        catch(Exception ex)
+        {
+            coalescer.fail(ex);
+        }
+
+        coalescer.finish();
     }
 
 }
@@ -0,0 +1,190 @@
+package gov.nasa.pds.supp.cmd.supp;
+
+import java.util.Arrays;
+
+import gov.nasa.pds.supp.dao.NdJsonEntity;
+import gov.nasa.pds.supp.dao.NdJsonEntityPool;
+
+
+/**
+ * A batch of documents to be updated by one Elasticsearch bulk API call.
+ * Bulk records are written directly into a pooled request buffer (HTTP entity).
+ */
+public class BulkBatch
+{
+    private NdJsonEntityPool pool;
+    private NdJsonEntity entity;
+    private int count;
+
+    // Start position of each record in the buffer
+    private int[] recordStarts;
+    // Document ID (LIDVID) of each record
+    private String[] ids;
+    // Table segment (for checkpoints) of each record
+    private CheckpointTracker.Segment[] segments;
+
+
+    /**
+     * Constructor
+     * @param pool request buffer pool
+     */
+    public BulkBatch(NdJsonEntityPool pool)
+    {
+        this.pool = pool;
+        entity = (pool == null) ? new NdJsonEntity(0) : pool.get();
+        recordStarts = new int[64];
+        ids = new String[64];
+        segments = new CheckpointTracker.Segment[64];
+    }
+
+
+    private void startRecord(String id, CheckpointTracker.Segment segment)
+    {
+        if(count == recordStarts.length)
+        {
+            recordStarts = Arrays.copyOf(recordStarts, count * 2);
+            ids = Arrays.copyOf(ids, count * 2);
+            segments = Arrays.copyOf(segments, count * 2);
+        }
+
+        recordStarts[count] = entity.length();
+        ids[count] = id;
+        segments[count] = segment;
+    }
+
+
+    /**
+     * Add a document to this batch.
+     * @param id document primary key (LIDVID)
+     * @param dataJson UTF-8 encoded update data JSON (line 2 of NJSON record)
+     * @param segment table segment the record was read from (could be null)
+     */
+    public void add(String id, byte[] dataJson, CheckpointTracker.Segment segment)
+    {
+        startRecord(id, segment);
+
+        // NJSON (New Line Delimited JSON) format:
+        // Line 1: primary key / id
+        // Line 2: data
+        entity.appendUpdateAction(id);
+        entity.append(dataJson);
+        entity.append('\n');
+
+        count++;
+    }
+
+
+    /**
+     * Copy a record (both lines) of another batch into this batch.
+     * Used to resubmit failed items.
+     * @param src source batch
+     * @param index record index in the source batch (starts from 0)
+     */
+    public void addCopy(BulkBatch src, int index)
+    {
+        if(index < 0 || index >= src.count) throw new IndexOutOfBoundsException("Invalid record index " + index);
+
+        int start = src.recordStarts[index];
+        int end = (index + 1 < src.count) ? src.recordStarts[index + 1] : src.entity.length();
+
+        startRecord(src.ids[index], src.segments[index]);
+        entity.append(src.entity.getBuffer(), start, end - start);
+        count++;
+    }
+
+
+    /**
+     * Remove last added document from this batch.
+     */
+    public void removeLast()
+    {
+        if(count == 0) return;
+
+        count--;
+        entity.setLength(recordStarts[count]);
+        ids[count] = null;
+        segments[count] = null;
+    }
+
+
+    /**
+     * Get document ID (LIDVID) of a record.
+     * @param index record index (starts from 0)
+     * @return document ID
+     */
+    public String getId(int index)
+    {
+        return ids[index];
+    }
+
+
+    /**
+     * Get table segment of a record.
+     * @param index record index (starts from 0)
+     * @return table segment or null
+     */
+    public CheckpointTracker.Segment getSegment(int index)
+    {
+        return segments[index];
+    }
+
+
+    /**
+     * Get number of documents in this batch.
+     * @return number of documents
+     */
+    public int size()
+    {
+        return count;
+    }
+
+
+    /**
+     * Get size of this batch (bulk API request body) in bytes.
+     * @return size in bytes
+     */
+    public long getByteSize()
+    {
+        return entity.length();
+    }
+
+
+    /**
+     * Check if this batch is empty.
+     * @return true if there are no documents in this batch
+     */
+    public boolean isEmpty()
+    {
+        return count == 0;
+    }
+
+
+    /**
+     * Create a new empty batch which uses the same buffer pool as this batch.
+     * @return new batch
+     */
+    public BulkBatch newBatch()
+    {
+        return new BulkBatch(pool);
+    }
+
+
+    /**
+     * Get Elasticsearch bulk API request body.
+     * @return NJSON (New Line Delimited JSON) HTTP entity
+     */
+    public NdJsonEntity getEntity()
+    {
+        return entity;
+    }
+
+
+    /**
+     * Return request buffer to the pool. This batch should not be used after this call.
+     */
+    public void release()
+    {
+        if(pool != null) pool.release(entity);
+        entity = null;
+    }
+}
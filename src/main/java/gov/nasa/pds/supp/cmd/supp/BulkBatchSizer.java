@@ -0,0 +1,137 @@
+package gov.nasa.pds.supp.cmd.supp;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+
+/**
+ * Decides when a bulk batch is full. A batch is flushed when it reaches
+ * either the target size in bytes or max number of documents.
+ *
+ * <p>Target size is tuned at runtime from measured bulk request latency and
+ * Elasticsearch "took" time: it grows while requests complete faster than the
+ * target latency and shrinks when either the cluster (took) or the whole
+ * round trip gets slower than the target latency. Target size never exceeds
+ * max request size (Elasticsearch "http.max_content_length").
+ *
+ * <p>This class is thread-safe. Bulk writers report responses, the lookup stage
+ * reads the current target size.
+ */
+public class BulkBatchSizer
+{
+    private static final double GROW_FACTOR = 1.25;
+    private static final double SHRINK_FACTOR = 0.7;
+
+    private Logger log;
+
+    private int maxItems;
+    private long maxRequestBytes;
+    private long targetLatencyMs;
+
+    private long minTargetBytes;
+    private long maxTargetBytes;
+    private volatile long targetBytes;
+
+
+    /**
+     * Constructor
+     * @param cfg loader configuration
+     */
+    public BulkBatchSizer(LoaderConfig cfg)
+    {
+        log = LogManager.getLogger(this.getClass());
+
+        this.maxItems = cfg.bulkItems;
+        this.maxRequestBytes = cfg.maxRequestBytes;
+        this.targetLatencyMs = cfg.bulkLatencyMs;
+
+        targetBytes = Math.min(cfg.bulkBytes, maxRequestBytes);
+        minTargetBytes = Math.max(targetBytes / 8, 1);
+        maxTargetBytes = Math.min(targetBytes * 4, maxRequestBytes);
+    }
+
+
+    /**
+     * Check if a batch is full and should be sent to Elasticsearch.
+     * @param batch a batch
+     * @return true if the batch is full
+     */
+    public boolean isFull(BulkBatch batch)
+    {
+        return batch.size() >= maxItems || batch.getByteSize() >= targetBytes;
+    }
+
+
+    /**
+     * Check if a batch is larger than Elasticsearch "http.max_content_length".
+     * Such batch has to be split.
+     * @param batch a batch
+     * @return true if the batch is too large
+     */
+    public boolean isOverflow(BulkBatch batch)
+    {
+        return batch.getByteSize() > maxRequestBytes;
+    }
+
+
+    /**
+     * Get max request size.
+     * @return max request size in bytes
+     */
+    public long getMaxRequestBytes()
+    {
+        return maxRequestBytes;
+    }
+
+
+    /**
+     * Get current target batch size.
+     * @return target batch size in bytes
+     */
+    public long getTargetBytes()
+    {
+        return targetBytes;
+    }
+
+
+    /**
+     * Shrink target batch size after Elasticsearch rejected a request
+     * or some items (429 Too Many Requests).
+     */
+    public synchronized void onRejected()
+    {
+        targetBytes = Math.max((long)(targetBytes * SHRINK_FACTOR), minTargetBytes);
+        log.debug("Bulk request rejected. Bulk batch size: " + targetBytes + " bytes");
+    }
+
+
+    /**
+     * Tune target batch size after a bulk request has been completed.
+     * @param batch completed batch
+     * @param latencyMs measured latency (round trip time) of the bulk request
+     * @param tookMs Elasticsearch processing time or -1 if not available
+     */
+    public synchronized void onResponse(BulkBatch batch, long latencyMs, long tookMs)
+    {
+        // Only full batches tell us something about the batch size
+        if(batch.getByteSize() < targetBytes / 2 && batch.size() < maxItems) return;
+
+        long serverMs = (tookMs < 0) ? latencyMs : tookMs;
+        long oldTarget = targetBytes;
+
+        if(serverMs > targetLatencyMs || latencyMs > 2 * targetLatencyMs)
+        {
+            targetBytes = Math.max((long)(targetBytes * SHRINK_FACTOR), minTargetBytes);
+        }
+        else if(latencyMs < targetLatencyMs / 2)
+        {
+            targetBytes = Math.min((long)(targetBytes * GROW_FACTOR), maxTargetBytes);
+        }
+
+        if(oldTarget != targetBytes)
+        {
+            log.debug("Bulk batch size: " + targetBytes + " bytes (latency = "
+                    + latencyMs + " ms, took = " + tookMs + " ms)");
+        }
+    }
+}
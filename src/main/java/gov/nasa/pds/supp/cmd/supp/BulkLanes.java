@@ -0,0 +1,204 @@
+package gov.nasa.pds.supp.cmd.supp;
+
+import gov.nasa.pds.supp.dao.NdJsonEntityPool;
+import gov.nasa.pds.supp.dao.RegistryDao;
+
+
+/**
+ * A set of bulk writers (lanes) with one open bulk batch per lane.
+ *
+ * <p>Documents are routed to lanes by LID, so all updates of all versions
+ * of a product go through the same writer in order, even if they come from
+ * different tables (LID and LIDVID tables).
+ *
+ * <p>A lane batch is sent when it is full (see BulkBatchSizer) or when
+ * flushOlderThan() finds that its first document was added too long ago.
+ *
+ * <p>This class is not thread-safe. Documents should be added by one thread.
+ */
+public class BulkLanes
+{
+    private PipelineContext ctx;
+    private BulkBatchSizer sizer;
+    private NdJsonEntityPool entityPool;
+
+    private BulkWriter[] writers;
+    private Thread[] writerThreads;
+    private BulkBatch[] laneBatches;
+    // Time when the first document was added to a lane batch
+    private long[] laneStartTimes;
+
+
+    /**
+     * Constructor. Starts bulk writer threads.
+     * @param cfg loader configuration
+     * @param dao registry DAO
+     * @param ctx pipeline context
+     */
+    public BulkLanes(LoaderConfig cfg, RegistryDao dao, PipelineContext ctx)
+    {
+        this.ctx = ctx;
+        sizer = new BulkBatchSizer(cfg);
+        RetryPolicy retryPolicy = new RetryPolicy(cfg.maxRetries, cfg.retryDelayMs, cfg.maxRetryDelayMs);
+
+        // Request buffers are reused. There could be one buffer per lane and
+        // up to "maxInflight" buffers queued or being sent at the same time.
+        int initialCapacity = (int)Math.min(sizer.getTargetBytes() + 64 * 1024, sizer.getMaxRequestBytes());
+        int maxCapacity = (int)Math.min(2 * sizer.getMaxRequestBytes(), Integer.MAX_VALUE);
+        entityPool = new NdJsonEntityPool(cfg.maxInflight + cfg.threads, initialCapacity, maxCapacity);
+
+        // Start bulk writers
+        writers = new BulkWriter[cfg.threads];
+        writerThreads = new Thread[cfg.threads];
+        laneBatches = new BulkBatch[cfg.threads];
+        laneStartTimes = new long[cfg.threads];
+
+        for(int i = 0; i < cfg.threads; i++)
+        {
+            writers[i] = new BulkWriter(dao, ctx, sizer, retryPolicy, cfg.optimistic);
+            laneBatches[i] = new BulkBatch(entityPool);
+            writerThreads[i] = new Thread(writers[i], "bulk-writer-" + i);
+            writerThreads[i].start();
+        }
+    }
+
+
+    /**
+     * Set listener of documents completed by bulk writers.
+     * @param listener a listener or null
+     */
+    public void setListener(BulkWriter.Listener listener)
+    {
+        for(BulkWriter writer: writers)
+        {
+            writer.setListener(listener);
+        }
+    }
+
+
+    /**
+     * Add a document to a lane batch. Sends the batch if it is full.
+     * @param lidvid document id
+     * @param dataJson UTF-8 encoded update data JSON
+     * @param seg table segment of the record
+     * @throws Exception an exception
+     */
+    public void add(String lidvid, byte[] dataJson, CheckpointTracker.Segment seg) throws Exception
+    {
+        int lane = getLane(lidvid);
+        CheckpointTracker.addDocument(seg);
+
+        BulkBatch batch = laneBatches[lane];
+        if(batch.isEmpty()) laneStartTimes[lane] = System.currentTimeMillis();
+        batch.add(lidvid, dataJson, seg);
+
+        // Split requests which would exceed Elasticsearch "http.max_content_length"
+        if(sizer.isOverflow(batch) && batch.size() > 1)
+        {
+            batch.removeLast();
+            dispatch(lane);
+
+            batch = laneBatches[lane];
+            laneStartTimes[lane] = System.currentTimeMillis();
+            batch.add(lidvid, dataJson, seg);
+        }
+
+        if(sizer.isOverflow(batch))
+        {
+            throw new Exception("Bulk update record of " + lidvid + " is larger than max request size ("
+                    + sizer.getMaxRequestBytes() + " bytes)");
+        }
+
+        if(sizer.isFull(batch))
+        {
+            dispatch(lane);
+        }
+    }
+
+
+    /**
+     * Send lane batches which have been open longer than given time.
+     * @param maxAgeMs max age of a batch in milliseconds
+     * @throws Exception an exception
+     */
+    public void flushOlderThan(long maxAgeMs) throws Exception
+    {
+        long now = System.currentTimeMillis();
+        for(int lane = 0; lane < laneBatches.length; lane++)
+        {
+            if(!laneBatches[lane].isEmpty() && now - laneStartTimes[lane] >= maxAgeMs)
+            {
+                dispatch(lane);
+            }
+        }
+    }
+
+
+    /**
+     * Send all non-empty lane batches.
+     * @throws Exception an exception
+     */
+    public void flush() throws Exception
+    {
+        for(int lane = 0; lane < laneBatches.length; lane++)
+        {
+            if(!laneBatches[lane].isEmpty())
+            {
+                dispatch(lane);
+            }
+        }
+    }
+
+
+    /**
+     * Stop bulk writers after they have sent all queued batches.
+     * Call flush() first to send open batches.
+     * @throws InterruptedException an exception
+     */
+    public void finish() throws InterruptedException
+    {
+        for(BulkWriter writer: writers)
+        {
+            writer.finish();
+        }
+
+        for(Thread thread: writerThreads)
+        {
+            thread.join();
+        }
+
+        for(BulkBatch batch: laneBatches)
+        {
+            batch.release();
+        }
+    }
+
+
+    /**
+     * Get bulk writer (lane) index for a product ID.
+     * @param id LIDVID or LID
+     * @return lane index
+     */
+    private int getLane(String id)
+    {
+        // Route by LID, so that all versions of a product go to the same lane
+        int idx = id.indexOf("::");
+        int hash = (idx < 0) ? id.hashCode() : id.substring(0, idx).hashCode();
+        return (hash & 0x7FFFFFFF) % laneBatches.length;
+    }
+
+
+    /**
+     * Send current batch of a lane to its bulk writer.
+     */
+    private void dispatch(int lane) throws Exception
+    {
+        if(!ctx.acquireInflight())
+        {
+            ctx.checkError();
+        }
+
+        writers[lane].submit(laneBatches[lane]);
+        laneBatches[lane] = new BulkBatch(entityPool);
+    }
+}
@@ -0,0 +1,301 @@
+package gov.nasa.pds.supp.cmd.supp;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import gov.nasa.pds.supp.dao.BulkItemError;
+import gov.nasa.pds.supp.dao.BulkResult;
+import gov.nasa.pds.supp.dao.RegistryDao;
+
+
+/**
+ * Bulk writer stage (lane) of the supplemental data loader pipeline.
+ * Each writer runs in its own thread and executes bulk requests from its queue
+ * in the order they were added. All updates of a document are always routed
+ * to the same writer, so the order of updates of a document is preserved.
+ *
+ * <p>Transient failures are retried with exponential backoff (see RetryPolicy).
+ * If the whole request fails, the request is resent. If only some items fail,
+ * retryable items are copied into a new batch and resent by the same writer
+ * before the next batch is taken from the queue. Permanently failed items are
+ * reported to the pipeline context and don't stop the loader.
+ */
+public class BulkWriter implements Runnable
+{
+    // End of data marker
+    private static final BulkBatch END_OF_DATA = new BulkBatch(null);
+
+    // Bulk item states
+    private static final byte ITEM_UPDATED = 0;
+    private static final byte ITEM_FAILED = 1;
+    private static final byte ITEM_RETRY = 2;
+    private static final byte ITEM_SKIPPED = 3;
+
+    /**
+     * Listener of completed documents
+     */
+    public static interface Listener
+    {
+        /**
+         * Called when an update of a document was completed: the document was
+         * updated, skipped or failed permanently. Not called for retried documents.
+         * @param lidvid document ID
+         */
+        public void onDocumentDone(String lidvid);
+    }
+
+    private Logger log;
+    private RegistryDao dao;
+    private PipelineContext ctx;
+    private BulkBatchSizer sizer;
+    private RetryPolicy retryPolicy;
+    private boolean optimistic;
+    private BlockingQueue<BulkBatch> queue;
+    private volatile Listener listener;
+
+
+    /**
+     * Constructor
+     * @param dao Registry DAO
+     * @param ctx Pipeline context
+     * @param sizer Bulk batch sizer to report latency to
+     * @param retryPolicy Retry policy of failed requests and items
+     * @param optimistic if true, documents which don't exist are skipped,
+     * otherwise missing documents are treated as errors.
+     */
+    public BulkWriter(RegistryDao dao, PipelineContext ctx, BulkBatchSizer sizer,
+            RetryPolicy retryPolicy, boolean optimistic)
+    {
+        log = LogManager.getLogger(this.getClass());
+        this.dao = dao;
+        this.optimistic = optimistic;
+        this.ctx = ctx;
+        this.sizer = sizer;
+        this.retryPolicy = retryPolicy;
+
+        // Queue size is limited by PipelineContext.acquireInflight()
+        queue = new LinkedBlockingQueue<>();
+    }
+
+
+    /**
+     * Set listener of completed documents.
+     * @param listener a listener or null
+     */
+    public void setListener(Listener listener)
+    {
+        this.listener = listener;
+    }
+
+
+    /**
+     * Add a batch to the queue. A caller should reserve an "in-flight" slot
+     * by calling PipelineContext.acquireInflight() before calling this method.
+     * @param batch a batch of documents
+     * @throws InterruptedException an exception
+     */
+    public void submit(BulkBatch batch) throws InterruptedException
+    {
+        queue.put(batch);
+    }
+
+
+    /**
+     * Notify this writer that there are no more batches.
+     * @throws InterruptedException an exception
+     */
+    public void finish() throws InterruptedException
+    {
+        queue.put(END_OF_DATA);
+    }
+
+
+    @Override
+    public void run()
+    {
+        try
+        {
+            BulkBatch batch;
+            while((batch = queue.take()) != END_OF_DATA)
+            {
+                try
+                {
+                    // Drain the queue without calling Elasticsearch if other stage failed
+                    if(!ctx.isFailed())
+                    {
+                        send(batch);
+                    }
+                }
+                catch(Exception ex)
+                {
+                    ctx.fail(ex);
+                }
+                finally
+                {
+                    batch.release();
+                    ctx.releaseInflight();
+                }
+            }
+        }
+        catch(InterruptedException ex)
+        {
+            ctx.fail(ex);
+        }
+    }
+
+
+    /**
+     * Send a batch and resend its retryable failed items until all items are
+     * either updated or failed permanently.
+     */
+    private void send(BulkBatch batch) throws Exception
+    {
+        BulkBatch current = batch;
+        int attempt = 0;
+
+        try
+        {
+            while(current != null && !ctx.isFailed())
+            {
+                BulkResult result = execute(current);
+                boolean canRetry = attempt < retryPolicy.getMaxRetries();
+                BulkBatch retryBatch = processResult(current, result, canRetry);
+
+                if(current != batch) current.release();
+                current = retryBatch;
+
+                if(current != null)
+                {
+                    long delay = retryPolicy.getDelay(attempt);
+                    log.warn("Retrying " + current.size() + " failed document(s) in " + delay + " ms");
+                    Thread.sleep(delay);
+                    attempt++;
+                }
+            }
+        }
+        finally
+        {
+            if(current != null && current != batch) current.release();
+        }
+    }
+
+
+    /**
+     * Call Elasticsearch bulk API. Retry the whole request on transient errors,
+     * such as connection errors or "429 Too Many Requests".
+     */
+    private BulkResult execute(BulkBatch batch) throws Exception
+    {
+        for(int attempt = 0; ; attempt++)
+        {
+            try
+            {
+                long t0 = System.nanoTime();
+                BulkResult result = dao.bulkUpdate(batch.getEntity());
+                long latencyMs = (System.nanoTime() - t0) / 1_000_000;
+
+                sizer.onResponse(batch, latencyMs, result.took);
+                return result;
+            }
+            catch(Exception ex)
+            {
+                if(attempt >= retryPolicy.getMaxRetries() || !retryPolicy.isRetryable(ex) || ctx.isFailed())
+                {
+                    throw ex;
+                }
+
+                if(RetryPolicy.isRejected(ex)) sizer.onRejected();
+
+                long delay = retryPolicy.getDelay(attempt);
+                log.warn("Bulk request failed: " + ex.getMessage() + ". Retrying in " + delay + " ms");
+                Thread.sleep(delay);
+            }
+        }
+    }
+
+
+    /**
+     * Count updated, skipped and failed documents and acknowledge completed
+     * documents to the checkpoint tracker.
+     * @param canRetry if false, all failed items are permanent failures
+     * @return a batch of items to retry or null if there is nothing to retry
+     * @throws Exception if the response has errors without item level information
+     */
+    private BulkBatch processResult(BulkBatch batch, BulkResult result, boolean canRetry) throws Exception
+    {
+        // Response has errors, but there is no item level information
+        if(result.errors && result.failedItems.isEmpty())
+        {
+            throw new Exception("Could not load data.");
+        }
+
+        int missing = 0;
+        int failed = 0;
+        boolean rejected = false;
+        BulkBatch retryBatch = null;
+        byte[] states = result.failedItems.isEmpty() ? null : new byte[batch.size()];
+
+        for(BulkItemError err: result.failedItems)
+        {
+            // In optimistic mode we don't check if products exist before updating them.
+            if(optimistic && err.isDocumentMissing())
+            {
+                log.warn("Skipping unregistered product " + err.id);
+                states[err.index] = ITEM_SKIPPED;
+                missing++;
+            }
+            else if(canRetry && retryPolicy.isRetryable(err))
+            {
+                if(retryBatch == null) retryBatch = batch.newBatch();
+                retryBatch.addCopy(batch, err.index);
+                states[err.index] = ITEM_RETRY;
+                if(RetryPolicy.isRejected(err.status)) rejected = true;
+            }
+            else
+            {
+                log.error("Could not update " + err.id + ": " + err.reason);
+                ctx.addFailure(err.id, err.reason);
+                states[err.index] = ITEM_FAILED;
+                failed++;
+            }
+        }
+
+        if(rejected) sizer.onRejected();
+
+        int retrying = (retryBatch == null) ? 0 : retryBatch.size();
+        ctx.addSkipped(missing);
+        ctx.addUpdated(batch.size() - missing - failed - retrying);
+
+        // Retried items are acknowledged after the retry
+        for(int i = 0; i < batch.size(); i++)
+        {
+            byte state = (states == null) ? ITEM_UPDATED : states[i];
+            if(listener != null && state != ITEM_RETRY) listener.onDocumentDone(batch.getId(i));
+
+            CheckpointTracker.Segment seg = batch.getSegment(i);
+            if(seg == null) continue;
+
+            switch(state)
+            {
+                case ITEM_UPDATED:
+                    CheckpointTracker.documentUpdated(seg);
+                    break;
+                case ITEM_SKIPPED:
+                    CheckpointTracker.documentSkipped(seg);
+                    break;
+                case ITEM_FAILED:
+                    CheckpointTracker.documentFailed(seg);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        ctx.getTracker().commit();
+
+        return retryBatch;
+    }
+}
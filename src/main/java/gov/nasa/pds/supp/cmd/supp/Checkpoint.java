@@ -0,0 +1,181 @@
+package gov.nasa.pds.supp.cmd.supp;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.Properties;
+import java.util.zip.CRC32;
+
+
+/**
+ * Supplemental table load checkpoint. Stored as a small Java properties file.
+ *
+ * <p>A checkpoint has the number of leading table rows which have been completely
+ * processed (all documents updated or skipped) and the data file fingerprint
+ * (size, modification time and CRC32 of the first 64 KB). A checkpoint is only
+ * valid for the same data file.
+ */
+public class Checkpoint
+{
+    private static final int FINGERPRINT_BYTES = 64 * 1024;
+
+    /**
+     * Label file path
+     */
+    public String labelPath;
+
+    /**
+     * Data file path
+     */
+    public String dataPath;
+
+    /**
+     * Data file fingerprint
+     */
+    public String fingerprint;
+
+    /**
+     * Number of leading table rows which have been completely processed.
+     */
+    public long rows;
+
+
+    /**
+     * Create new checkpoint for a label and its data file.
+     * @param labelFile PDS4 label
+     * @param dataFile table data file
+     * @return new checkpoint (no rows processed)
+     * @throws Exception an exception
+     */
+    public static Checkpoint create(File labelFile, File dataFile) throws Exception
+    {
+        Checkpoint cp = new Checkpoint();
+        cp.labelPath = labelFile.getAbsolutePath();
+        cp.dataPath = dataFile.getAbsolutePath();
+        cp.fingerprint = getFingerprint(dataFile);
+        return cp;
+    }
+
+
+    /**
+     * Check if this checkpoint was created for the same label and data file.
+     * @param other another checkpoint
+     * @return true if the label path, data file path and data file fingerprint are the same.
+     */
+    public boolean isSameData(Checkpoint other)
+    {
+        return labelPath.equals(other.labelPath)
+                && dataPath.equals(other.dataPath)
+                && fingerprint.equals(other.fingerprint);
+    }
+
+
+    /**
+     * Get checkpoint file of a label.
+     * @param dir checkpoint directory
+     * @param labelFile PDS4 label
+     * @return checkpoint file
+     * @throws Exception an exception
+     */
+    public static File getCheckpointFile(File dir, File labelFile) throws Exception
+    {
+        // Labels with the same name could be in different directories
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        byte[] hash = md.digest(labelFile.getAbsolutePath().getBytes(StandardCharsets.UTF_8));
+
+        StringBuilder name = new StringBuilder(labelFile.getName()).append('-');
+        for(int i = 0; i < 8; i++)
+        {
+            name.append(String.format("%02x", hash[i]));
+        }
+        name.append(".checkpoint");
+
+        return new File(dir, name.toString());
+    }
+
+
+    /**
+     * Load checkpoint from a file.
+     * @param file checkpoint file
+     * @return checkpoint or null if the file doesn't exist
+     * @throws Exception an exception
+     */
+    public static Checkpoint load(File file) throws Exception
+    {
+        if(!file.exists()) return null;
+
+        Properties props = new Properties();
+        try(InputStream is = new FileInputStream(file))
+        {
+            props.load(is);
+        }
+
+        Checkpoint cp = new Checkpoint();
+        cp.labelPath = props.getProperty("label");
+        cp.dataPath = props.getProperty("data");
+        cp.fingerprint = props.getProperty("fingerprint");
+        String rows = props.getProperty("rows");
+
+        if(cp.labelPath == null || cp.dataPath == null || cp.fingerprint == null || rows == null)
+        {
+            throw new Exception("Invalid checkpoint file: " + file);
+        }
+
+        cp.rows = Long.parseLong(rows);
+        return cp;
+    }
+
+
+    /**
+     * Save checkpoint to a file. The file is replaced atomically,
+     * so a crash while saving never leaves a partially written checkpoint.
+     * @param file checkpoint file
+     * @throws Exception an exception
+     */
+    public void save(File file) throws Exception
+    {
+        Properties props = new Properties();
+        props.setProperty("label", labelPath);
+        props.setProperty("data", dataPath);
+        props.setProperty("fingerprint", fingerprint);
+        props.setProperty("rows", String.valueOf(rows));
+
+        File dir = file.getAbsoluteFile().getParentFile();
+        dir.mkdirs();
+
+        File tmpFile = new File(dir, file.getName() + ".tmp");
+        try(OutputStream os = Files.newOutputStream(tmpFile.toPath()))
+        {
+            props.store(os, "Supplemental table load checkpoint");
+        }
+
+        Files.move(tmpFile.toPath(), file.toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+
+    private static String getFingerprint(File file) throws Exception
+    {
+        CRC32 crc = new CRC32();
+        byte[] buf = new byte[FINGERPRINT_BYTES];
+
+        try(InputStream is = new FileInputStream(file))
+        {
+            int total = 0;
+            int count;
+            while(total < buf.length && (count = is.read(buf, total, buf.length - total)) > 0)
+            {
+                total += count;
+            }
+
+            crc.update(buf, 0, total);
+        }
+
+        return file.length() + ":" + file.lastModified() + ":" + Long.toHexString(crc.getValue());
+    }
+}
@@ -0,0 +1,267 @@
+package gov.nasa.pds.supp.cmd.supp;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+
+/**
+ * Tracks which table rows have been completely processed and saves checkpoints.
+ *
+ * <p>Table rows are read in segments (one segment per read batch). A segment
+ * is complete when all its documents have been acknowledged by bulk writers
+ * (updated or skipped). Bulk writers complete documents out of order, so a
+ * checkpoint only covers the leading run of complete segments. A segment with
+ * permanently failed documents is never checkpointed, so it is reprocessed
+ * on resume.
+ *
+ * <p>This class is thread-safe.
+ */
+public class CheckpointTracker
+{
+    /**
+     * A segment of table rows (one read batch or one small table).
+     * Also counts updated, skipped and failed documents of the segment.
+     */
+    public static class Segment
+    {
+        private long endRow;
+        // Number of documents not acknowledged yet + 1 while the segment is being routed
+        private AtomicInteger pending = new AtomicInteger(1);
+        private volatile boolean failed;
+
+        private AtomicInteger updatedCount = new AtomicInteger();
+        private AtomicInteger skippedCount = new AtomicInteger();
+        private AtomicInteger failedCount = new AtomicInteger();
+
+
+        private Segment(long endRow)
+        {
+            this.endRow = endRow;
+        }
+
+
+        /**
+         * Check if all documents of this segment have been acknowledged.
+         * @return true if the segment is complete
+         */
+        public boolean isComplete()
+        {
+            return pending.get() == 0;
+        }
+
+
+        /**
+         * Get number of updated documents
+         * @return number of updated documents
+         */
+        public int getUpdatedCount()
+        {
+            return updatedCount.get();
+        }
+
+
+        /**
+         * Get number of skipped (unregistered) products
+         * @return number of skipped products
+         */
+        public int getSkippedCount()
+        {
+            return skippedCount.get();
+        }
+
+
+        /**
+         * Get number of documents which could not be updated
+         * @return number of failed documents
+         */
+        public int getFailedCount()
+        {
+            return failedCount.get();
+        }
+    }
+
+
+    private Logger log;
+    private File file;
+    private Checkpoint checkpoint;
+
+    private long startRow;
+    private long nextRow;
+    private Deque<Segment> segments;
+
+
+    /**
+     * Constructor
+     * @param file checkpoint file or null to only track rows without saving checkpoints
+     * @param checkpoint checkpoint to start from
+     */
+    public CheckpointTracker(File file, Checkpoint checkpoint)
+    {
+        log = LogManager.getLogger(this.getClass());
+
+        this.file = file;
+        this.checkpoint = checkpoint;
+        startRow = checkpoint.rows;
+        nextRow = startRow;
+        segments = new ArrayDeque<>();
+    }
+
+
+    /**
+     * Get checkpoint file
+     * @return checkpoint file or null if checkpoints are not saved
+     */
+    public File getFile()
+    {
+        return file;
+    }
+
+
+    /**
+     * Get number of rows processed by previous runs. Reading should start from this row.
+     * @return number of rows to skip
+     */
+    public long getStartRow()
+    {
+        return startRow;
+    }
+
+
+    /**
+     * Get number of leading rows which have been completely processed.
+     * @return number of rows
+     */
+    public synchronized long getCompletedRows()
+    {
+        return checkpoint.rows;
+    }
+
+
+    /**
+     * Start a new segment of rows. Called by the reader.
+     * @param rowCount number of rows in the segment
+     * @return new segment
+     */
+    public synchronized Segment newSegment(int rowCount)
+    {
+        nextRow += rowCount;
+        Segment seg = new Segment(nextRow);
+        segments.add(seg);
+        return seg;
+    }
+
+
+    /**
+     * Add a pending document to a segment. Called before a document is added
+     * to a bulk batch (or before a record is added to a lookup batch).
+     * @param seg a segment
+     */
+    public static void addDocument(Segment seg)
+    {
+        seg.pending.incrementAndGet();
+    }
+
+
+    /**
+     * Acknowledge routing of the whole segment (or of a record added by addDocument()).
+     * Called after all records of the segment have been added to bulk batches (or skipped).
+     * @param seg a segment
+     */
+    public static void routed(Segment seg)
+    {
+        seg.pending.decrementAndGet();
+    }
+
+
+    /**
+     * Report a record which was skipped before it was added to a bulk batch,
+     * e.g., unregistered product.
+     * @param seg a segment
+     */
+    public static void recordSkipped(Segment seg)
+    {
+        seg.skippedCount.incrementAndGet();
+    }
+
+
+    /**
+     * Acknowledge an updated document.
+     * @param seg a segment
+     */
+    public static void documentUpdated(Segment seg)
+    {
+        seg.updatedCount.incrementAndGet();
+        seg.pending.decrementAndGet();
+    }
+
+
+    /**
+     * Acknowledge a document which doesn't exist (optimistic mode).
+     * @param seg a segment
+     */
+    public static void documentSkipped(Segment seg)
+    {
+        seg.skippedCount.incrementAndGet();
+        seg.pending.decrementAndGet();
+    }
+
+
+    /**
+     * Acknowledge a document which could not be updated.
+     * @param seg a segment
+     */
+    public static void documentFailed(Segment seg)
+    {
+        seg.failed = true;
+        seg.failedCount.incrementAndGet();
+        seg.pending.decrementAndGet();
+    }
+
+
+    /**
+     * Save a checkpoint if more leading rows have been completed since the last call.
+     * Called by bulk writers after each bulk response.
+     */
+    public synchronized void commit()
+    {
+        long rows = checkpoint.rows;
+
+        Segment seg;
+        while((seg = segments.peek()) != null && seg.pending.get() == 0 && !seg.failed)
+        {
+            segments.poll();
+            rows = seg.endRow;
+        }
+
+        if(rows == checkpoint.rows) return;
+        checkpoint.rows = rows;
+
+        if(file == null) return;
+
+        try
+        {
+            checkpoint.save(file);
+        }
+        catch(Exception ex)
+        {
+            log.warn("Could not save checkpoint " + file + ": " + ex.getMessage());
+        }
+    }
+
+
+    /**
+     * Delete checkpoint file. Called after the whole table has been loaded.
+     */
+    public synchronized void delete()
+    {
+        if(file != null && file.exists() && !file.delete())
+        {
+            log.warn("Could not delete checkpoint " + file);
+        }
+    }
+}
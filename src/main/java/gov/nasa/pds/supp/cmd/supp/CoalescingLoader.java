@@ -0,0 +1,249 @@
+package gov.nasa.pds.supp.cmd.supp;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import gov.nasa.pds.supp.dao.BulkUpdateJsonBuilder;
+import gov.nasa.pds.supp.dao.DaoManager;
+import gov.nasa.pds.supp.dao.RegistryDao;
+import gov.nasa.pds.supp.table.TableReader;
+
+
+/**
+ * Loads supplemental data from many (small) tables in one loader session.
+ *
+ * <p>Records of consecutive tables go into a shared lookup batch and shared
+ * bulk batches. Batches are sent when they are full or when they are older
+ * than the flush interval, but not at table boundaries. This reduces the number
+ * of lookup and bulk requests for manifests with thousands of tiny tables.
+ *
+ * <p>A lookup batch has either LIDs or LIDVIDs. When a table with different
+ * ID type is added, the pending lookup batch is routed first, so the order
+ * of updates of a product from different tables is preserved.
+ *
+ * <p>Updated, skipped and failed documents are counted per label and
+ * reported by finish(). Checkpoints are not saved in this mode.
+ *
+ * <p>This class is not thread-safe.
+ */
+public class CoalescingLoader
+{
+    /**
+     * Loading statistics of a label
+     */
+    private static class LabelResult
+    {
+        public File labelFile;
+        public long rows;
+        public CheckpointTracker.Segment segment;
+    }
+
+    private Logger log;
+    private LoaderConfig cfg;
+    private DaoManager daoMgr;
+    private BulkUpdateJsonBuilder bulkJsonBld;
+
+    private PipelineContext ctx;
+    private BulkLanes lanes;
+    private RecordRouter router;
+    private RecordDiff diff;
+    private UpdateByQueryWriter fanout;
+
+    // Pending lookup batch
+    private List<SupplementalRecord> pending;
+    private boolean pendingLids;
+    private long pendingStartTime;
+
+    private List<LabelResult> results;
+
+
+    /**
+     * Constructor
+     * @param cfg loader configuration
+     * @param daoMgr DAO manager
+     */
+    public CoalescingLoader(LoaderConfig cfg, DaoManager daoMgr)
+    {
+        log = LogManager.getLogger(this.getClass());
+        this.cfg = cfg;
+        this.daoMgr = daoMgr;
+        bulkJsonBld = new BulkUpdateJsonBuilder();
+    }
+
+
+    /**
+     * Start bulk writers.
+     */
+    public void start()
+    {
+        RegistryDao dao = daoMgr.getRegistryDao();
+
+        // Rows are not checkpointed in this mode. The tracker only counts documents per label.
+        ctx = new PipelineContext(cfg.maxInflight, new CheckpointTracker(null, new Checkpoint()));
+        lanes = new BulkLanes(cfg, dao, ctx);
+        router = new RecordRouter(daoMgr.getIdLookup(), ctx, lanes, cfg.optimistic);
+        diff = cfg.diff ? new RecordDiff(dao) : null;
+        router.setDiff(diff);
+        fanout = (cfg.fanoutVersions > 0 && diff == null)
+                ? new UpdateByQueryWriter(cfg, daoMgr.getUpdateByQueryDao(), ctx) : null;
+        router.setFanout(fanout, cfg.fanoutVersions);
+
+        pending = new ArrayList<>(cfg.lookupBatch);
+        results = new ArrayList<>();
+
+        ctx.addShutdownHook();
+    }
+
+
+    /**
+     * Check if graceful stop was requested (SIGTERM). No more labels should be added.
+     * @return true if the loader is stopping
+     */
+    public boolean isStopRequested()
+    {
+        return ctx.isStopRequested();
+    }
+
+
+    /**
+     * Add all records of a table.
+     * @param labelFile PDS4 supplemental label
+     * @param reader Table data file reader (table is referenced in PDS4 supplemental label XML)
+     * @param esFieldInfo Information about data table columns / fields
+     * @throws Exception an exception
+     */
+    public void add(File labelFile, TableReader reader, SupplementalFieldsInfo esFieldInfo) throws Exception
+    {
+        ctx.checkError();
+        if(ctx.isStopRequested()) return;
+
+        boolean lids = (esFieldInfo.lidIndex != 0);
+        if(!pending.isEmpty() && pendingLids != lids)
+        {
+            routePending();
+        }
+
+        LabelResult result = new LabelResult();
+        result.labelFile = labelFile;
+        result.segment = ctx.getTracker().newSegment(0);
+        results.add(result);
+
+        while(reader.next())
+        {
+            SupplementalRecord rec = SupplementalRecord.create(reader, esFieldInfo, bulkJsonBld);
+            rec.segment = result.segment;
+            result.rows++;
+
+            // The record is pending until it is routed
+            CheckpointTracker.addDocument(rec.segment);
+
+            if(pending.isEmpty()) pendingStartTime = System.currentTimeMillis();
+            pending.add(rec);
+            pendingLids = lids;
+
+            if(pending.size() >= cfg.lookupBatch)
+            {
+                routePending();
+            }
+        }
+
+        // All records of this label have been added
+        CheckpointTracker.routed(result.segment);
+
+        flushOlderThan(cfg.flushIntervalMs);
+    }
+
+
+    /**
+     * Report an error of the caller. finish() rethrows the first error.
+     * @param ex an exception
+     */
+    public void fail(Exception ex)
+    {
+        ctx.fail(ex);
+    }
+
+
+    /**
+     * Send all pending records, stop bulk writers and report results per label.
+     * @throws Exception the first error or if some documents could not be updated.
+     */
+    public void finish() throws Exception
+    {
+        try
+        {
+            if(!ctx.isFailed())
+            {
+                routePending();
+                lanes.flush();
+                if(fanout != null) fanout.flush();
+            }
+        }
+        catch(Exception ex)
+        {
+            ctx.fail(ex);
+        }
+        finally
+        {
+            lanes.finish();
+            ctx.removeShutdownHook();
+        }
+
+        ctx.checkError();
+
+        for(LabelResult result: results)
+        {
+            CheckpointTracker.Segment seg = result.segment;
+            log.info(result.labelFile + ": " + result.rows + " row(s), updated " + seg.getUpdatedCount()
+                    + ", skipped " + seg.getSkippedCount() + ", failed " + seg.getFailedCount());
+        }
+
+        log.info("Updated " + ctx.getUpdatedRecordCount() + " record(s) from " + results.size() + " label(s)");
+        if(ctx.getSkippedRecordCount() > 0)
+        {
+            log.info("Skipped " + ctx.getSkippedRecordCount() + " unregistered product(s)");
+        }
+
+        if(diff != null) diff.logStats();
+
+        ctx.reportFailures();
+        if(ctx.isStopRequested()) throw new Exception("Loading was stopped.");
+    }
+
+
+    private void flushOlderThan(long maxAgeMs) throws Exception
+    {
+        if(!pending.isEmpty() && System.currentTimeMillis() - pendingStartTime >= maxAgeMs)
+        {
+            routePending();
+        }
+
+        lanes.flushOlderThan(maxAgeMs);
+    }
+
+
+    private void routePending() throws Exception
+    {
+        if(pending.isEmpty()) return;
+
+        if(pendingLids)
+        {
+            router.routeLids(pending);
+        }
+        else
+        {
+            router.routeLidVids(pending);
+        }
+
+        for(SupplementalRecord rec: pending)
+        {
+            CheckpointTracker.routed(rec.segment);
+        }
+
+        pending = new ArrayList<>(cfg.lookupBatch);
+    }
+}
@@ -0,0 +1,238 @@
+package gov.nasa.pds.supp.cmd.supp;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+
+/**
+ * Collapses table records with the same LID / LIDVID into one bulk update,
+ * so that each document is updated (reindexed) once.
+ *
+ * <p>Policies:
+ * <ul>
+ * <li>LAST_WINS - the last row of an ID is loaded.</li>
+ * <li>MERGE - rows are merged in table order. Values of later rows replace
+ * values of earlier rows, except null values.</li>
+ * </ul>
+ *
+ * <p>This class is not thread-safe (counter is).
+ */
+public class DuplicateCollapser
+{
+    /**
+     * Collapse policy
+     */
+    public static enum Policy
+    {
+        LAST_WINS, MERGE
+    }
+
+    /**
+     * A field value of bulk update data JSON
+     */
+    private static class Value
+    {
+        public JsonToken type;
+        public String value;
+    }
+
+    private Policy policy;
+    private AtomicLong collapsedCount = new AtomicLong();
+
+
+    /**
+     * Constructor
+     * @param policy collapse policy
+     */
+    public DuplicateCollapser(Policy policy)
+    {
+        this.policy = policy;
+    }
+
+
+    /**
+     * Parse policy name ("last" or "merge").
+     * @param name policy name
+     * @return policy
+     * @throws Exception if the name is not valid
+     */
+    public static Policy parsePolicy(String name) throws Exception
+    {
+        if(name == null || name.equals("last")) return Policy.LAST_WINS;
+        if(name.equals("merge")) return Policy.MERGE;
+
+        throw new Exception("Invalid duplicate policy: " + name + ". Valid values are 'last' and 'merge'.");
+    }
+
+
+    /**
+     * Collapse records with the same ID. Collapsed records keep the position
+     * of the first row of each ID.
+     * @param records table records
+     * @return records with unique IDs
+     * @throws IOException an exception
+     */
+    public List<SupplementalRecord> collapse(List<SupplementalRecord> records) throws IOException
+    {
+        Map<String, SupplementalRecord> map = new LinkedHashMap<>(records.size() * 2);
+
+        for(SupplementalRecord rec: records)
+        {
+            SupplementalRecord prev = map.putIfAbsent(rec.id, rec);
+            if(prev != null)
+            {
+                prev.json = combine(prev.json, rec.json);
+                collapsedCount.incrementAndGet();
+            }
+        }
+
+        return (map.size() == records.size()) ? records : new ArrayList<>(map.values());
+    }
+
+
+    /**
+     * Combine data JSON of two rows with the same ID.
+     * @param first data JSON of the earlier row
+     * @param second data JSON of the later row
+     * @return combined data JSON
+     * @throws IOException an exception
+     */
+    public byte[] combine(byte[] first, byte[] second) throws IOException
+    {
+        if(policy == Policy.LAST_WINS) return second;
+
+        Map<String, Value> fields = parseDoc(first);
+        for(Map.Entry<String, Value> entry: parseDoc(second).entrySet())
+        {
+            if(entry.getValue().type != JsonToken.NULL)
+            {
+                fields.put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        return writeDoc(fields);
+    }
+
+
+    /**
+     * Count a row collapsed by the caller (records combined with combine()).
+     */
+    public void addCollapsed()
+    {
+        collapsedCount.incrementAndGet();
+    }
+
+
+    /**
+     * Get number of collapsed (duplicate) rows
+     * @return number of collapsed rows
+     */
+    public long getCollapsedCount()
+    {
+        return collapsedCount.get();
+    }
+
+
+    /**
+     * Parse bulk update data line: {"doc":{...}}. Number literals are kept as is.
+     */
+    private static Map<String, Value> parseDoc(byte[] json) throws IOException
+    {
+        Map<String, Value> fields = new LinkedHashMap<>();
+
+        try(JsonReader rd = new JsonReader(new InputStreamReader(
+                new ByteArrayInputStream(json), StandardCharsets.UTF_8)))
+        {
+            rd.beginObject();
+            while(rd.hasNext())
+            {
+                if(!"doc".equals(rd.nextName()))
+                {
+                    rd.skipValue();
+                    continue;
+                }
+
+                rd.beginObject();
+                while(rd.hasNext())
+                {
+                    String name = rd.nextName();
+                    Value val = new Value();
+                    val.type = rd.peek();
+
+                    switch(val.type)
+                    {
+                    case NULL:
+                        rd.nextNull();
+                        break;
+                    case BOOLEAN:
+                        val.value = String.valueOf(rd.nextBoolean());
+                        break;
+                    case STRING:
+                    case NUMBER:
+                        val.value = rd.nextString();
+                        break;
+                    default:
+                        throw new IOException("Unexpected value of field " + name + ": " + val.type);
+                    }
+
+                    fields.put(name, val);
+                }
+                rd.endObject();
+            }
+            rd.endObject();
+        }
+
+        return fields;
+    }
+
+
+    private static byte[] writeDoc(Map<String, Value> fields) throws IOException
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+
+        try(JsonWriter writer = new JsonWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)))
+        {
+            writer.beginObject();
+            writer.name("doc");
+            writer.beginObject();
+
+            for(Map.Entry<String, Value> entry: fields.entrySet())
+            {
+                writer.name(entry.getKey());
+                Value val = entry.getValue();
+
+                switch(val.type)
+                {
+                case NULL:
+                    writer.nullValue();
+                    break;
+                case NUMBER:
+                case BOOLEAN:
+                    writer.jsonValue(val.value);
+                    break;
+                default:
+                    writer.value(val.value);
+                    break;
+                }
+            }
+
+            writer.endObject();
+            writer.endObject();
+        }
+
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,316 @@
+package gov.nasa.pds.supp.cmd.supp;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import gov.nasa.pds.registry.common.util.CloseUtils;
+
+
+/**
+ * Sorts table records by a key (unsigned bytes) with bounded memory. 
+ * Records with the same key keep table order.
+ *
+ * <p>Records are collected in memory. When the memory limit is reached, 
+ * records are sorted and saved in a temporary "spill" file (sorted run).
+ * Sorted runs are merged by RecordIterator.
+ *
+ * <p>This class is not thread-safe.
+ */
+public class ExternalRecordSorter implements Closeable
+{
+    // Approximate size of a record object and its arrays
+    private static final int RECORD_OVERHEAD = 64;
+
+    private static final Comparator<SortRecord> ORDER = (a, b) ->
+    {
+        int cmp = Arrays.compareUnsigned(a.key, b.key);
+        return (cmp != 0) ? cmp : Long.compare(a.row, b.row);
+    };
+
+    private Logger log;
+    private File tempDir;
+    private long maxMemory;
+
+    private List<SortRecord> records = new ArrayList<>();
+    private long memory;
+    private long row;
+    private byte[] maxKey;
+
+    private List<File> spillFiles = new ArrayList<>();
+
+
+    /**
+     * A table record
+     */
+    public static class SortRecord
+    {
+        /**
+         * Sort key (UTF-8)
+         */
+        public byte[] key;
+
+        /**
+         * Table row
+         */
+        public long row;
+
+        /**
+         * UTF-8 encoded bulk update data JSON
+         */
+        public byte[] json;
+    }
+
+
+    /**
+     * Iterates over sorted records
+     */
+    public static interface RecordIterator extends Closeable
+    {
+        /**
+         * Get next record.
+         * @return next record or null if there are no more records
+         * @throws IOException an exception
+         */
+        public SortRecord next() throws IOException;
+    }
+
+
+    /**
+     * Sorted run (spill file) reader
+     */
+    private static class RunReader
+    {
+        public DataInputStream in;
+        public SortRecord rec;
+
+        public RunReader(File file) throws IOException
+        {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+        }
+
+        public boolean next() throws IOException
+        {
+            int keyLength;
+            try
+            {
+                keyLength = in.readInt();
+            }
+            catch(EOFException ex)
+            {
+                rec = null;
+                return false;
+            }
+
+            rec = new SortRecord();
+            rec.key = new byte[keyLength];
+            in.readFully(rec.key);
+            rec.row = in.readLong();
+            rec.json = new byte[in.readInt()];
+            in.readFully(rec.json);
+            return true;
+        }
+    }
+
+
+    /**
+     * Constructor
+     * @param tempDir directory for spill files
+     * @param maxMemory approximate max size of records kept in memory (bytes)
+     */
+    public ExternalRecordSorter(File tempDir, long maxMemory)
+    {
+        log = LogManager.getLogger(this.getClass());
+        this.tempDir = tempDir;
+        this.maxMemory = maxMemory;
+    }
+
+
+    /**
+     * Add a record.
+     * @param key sort key (UTF-8)
+     * @param json UTF-8 encoded bulk update data JSON
+     * @throws IOException an exception
+     */
+    public void add(byte[] key, byte[] json) throws IOException
+    {
+        SortRecord rec = new SortRecord();
+        rec.key = key;
+        rec.row = row++;
+        rec.json = json;
+
+        if(maxKey == null || Arrays.compareUnsigned(key, maxKey) > 0) maxKey = key;
+
+        records.add(rec);
+        memory += key.length + json.length + RECORD_OVERHEAD;
+
+        if(memory >= maxMemory) spill();
+    }
+
+
+    /**
+     * Get number of added records.
+     * @return number of records
+     */
+    public long size()
+    {
+        return row;
+    }
+
+
+    /**
+     * Get the greatest key of added records.
+     * @return the greatest key or null if there are no records
+     */
+    public byte[] getMaxKey()
+    {
+        return maxKey;
+    }
+
+
+    /**
+     * Sort all added records. If all records fit in memory, there are no spill files.
+     * @return sorted records. Close the iterator to delete spill files.
+     * @throws IOException an exception
+     */
+    public RecordIterator sort() throws IOException
+    {
+        if(spillFiles.isEmpty())
+        {
+            records.sort(ORDER);
+            List<SortRecord> sorted = records;
+            records = new ArrayList<>();
+            memory = 0;
+
+            return new RecordIterator()
+            {
+                private int index;
+
+                @Override
+                public SortRecord next()
+                {
+                    if(index >= sorted.size()) return null;
+                    // Release memory of consumed records
+                    return sorted.set(index++, null);
+                }
+
+                @Override
+                public void close()
+                {
+                }
+            };
+        }
+
+        if(!records.isEmpty()) spill();
+        log.info("Merging " + spillFiles.size() + " sorted run(s) of " + row + " record(s)");
+
+        PriorityQueue<RunReader> queue = new PriorityQueue<>(spillFiles.size(), 
+                (a, b) -> ORDER.compare(a.rec, b.rec));
+        List<RunReader> readers = new ArrayList<>(spillFiles.size());
+
+        try
+        {
+            for(File file: spillFiles)
+            {
+                RunReader rd = new RunReader(file);
+                readers.add(rd);
+                if(rd.next()) queue.add(rd);
+            }
+        }
+        catch(IOException ex)
+        {
+            closeReaders(readers);
+            throw ex;
+        }
+
+        return new RecordIterator()
+        {
+            @Override
+            public SortRecord next() throws IOException
+            {
+                RunReader rd = queue.poll();
+                if(rd == null) return null;
+
+                SortRecord rec = rd.rec;
+                if(rd.next()) queue.add(rd);
+                return rec;
+            }
+
+            @Override
+            public void close()
+            {
+                closeReaders(readers);
+                ExternalRecordSorter.this.close();
+            }
+        };
+    }
+
+
+    /**
+     * Delete spill files.
+     */
+    @Override
+    public void close()
+    {
+        for(File file: spillFiles)
+        {
+            if(!file.delete()) log.warn("Could not delete " + file);
+        }
+
+        spillFiles.clear();
+        records.clear();
+    }
+
+
+    /**
+     * Sort records in memory and save them in a new spill file.
+     */
+    private void spill() throws IOException
+    {
+        records.sort(ORDER);
+
+        File file = File.createTempFile("supp-sort-", ".tmp", tempDir);
+        spillFiles.add(file);
+        log.debug("Saving " + records.size() + " sorted record(s) to " + file);
+
+        try(DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file), 1 << 16)))
+        {
+            for(SortRecord rec: records)
+            {
+                out.writeInt(rec.key.length);
+                out.write(rec.key);
+                out.writeLong(rec.row);
+                out.writeInt(rec.json.length);
+                out.write(rec.json);
+            }
+        }
+
+        records.clear();
+        memory = 0;
+    }
+
+
+    private static void closeReaders(List<RunReader> readers)
+    {
+        for(RunReader rd: readers)
+        {
+            CloseUtils.close(rd.in);
+        }
+    }
+}
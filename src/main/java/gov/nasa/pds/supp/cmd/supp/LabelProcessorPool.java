@@ -0,0 +1,129 @@
+package gov.nasa.pds.supp.cmd.supp;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import gov.nasa.pds.supp.dao.DaoManager;
+import gov.nasa.pds.supp.util.LabelUtils;
+
+
+/**
+ * Processes a list of supplemental labels by a pool of worker threads.
+ *
+ * <p>Each worker has its own SupplementalLabelProcessor (and its own JSON builder
+ * and date converter). DAOs are shared. Labels with the largest data files are
+ * processed first, so that long tables don't straggle at the end of the run.
+ *
+ * <p>If a label could not be processed, workers don't start new labels
+ * and the first error is rethrown after all workers have finished.
+ */
+public class LabelProcessorPool
+{
+    private Logger log;
+
+    private LoaderConfig cfg;
+    private DaoManager daoMgr;
+    private int threads;
+
+    private volatile Exception error;
+
+
+    /**
+     * Label and its data file size
+     */
+    private static class LabelInfo
+    {
+        public File file;
+        public long dataSize;
+    }
+
+
+    /**
+     * Constructor
+     * @param cfg loader configuration
+     * @param daoMgr DAO manager
+     * @param threads number of worker threads
+     */
+    public LabelProcessorPool(LoaderConfig cfg, DaoManager daoMgr, int threads)
+    {
+        log = LogManager.getLogger(this.getClass());
+
+        this.cfg = cfg;
+        this.daoMgr = daoMgr;
+        this.threads = threads;
+    }
+
+
+    /**
+     * Process labels.
+     * @param labels list of supplemental labels
+     * @throws Exception the first error reported by any worker
+     */
+    public void process(List<File> labels) throws Exception
+    {
+        List<LabelInfo> queue = new ArrayList<>(labels.size());
+        for(File file: labels)
+        {
+            LabelInfo info = new LabelInfo();
+            info.file = file;
+            info.dataSize = LabelUtils.getDataFileSize(file);
+            queue.add(info);
+        }
+
+        // Largest data files first
+        queue.sort(Comparator.comparingLong((LabelInfo info) -> info.dataSize).reversed());
+
+        int workerCount = Math.min(threads, queue.size());
+        log.info("Processing " + queue.size() + " label(s) with " + workerCount + " thread(s)");
+
+        AtomicInteger next = new AtomicInteger();
+        Thread[] workers = new Thread[workerCount];
+
+        for(int i = 0; i < workerCount; i++)
+        {
+            workers[i] = new Thread(() -> runWorker(queue, next), "label-worker-" + i);
+            workers[i].start();
+        }
+
+        for(Thread worker: workers)
+        {
+            worker.join();
+        }
+
+        if(error != null) throw error;
+    }
+
+
+    private void runWorker(List<LabelInfo> queue, AtomicInteger next)
+    {
+        try
+        {
+            SupplementalLabelProcessor proc = new SupplementalLabelProcessor(cfg, daoMgr);
+
+            int idx;
+            while(error == null && (idx = next.getAndIncrement()) < queue.size())
+            {
+                proc.process(queue.get(idx).file);
+            }
+        }
+        catch(Exception ex)
+        {
+            fail(ex);
+        }
+    }
+
+
+    private synchronized void fail(Exception ex)
+    {
+        if(error == null)
+        {
+            error = ex;
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package gov.nasa.pds.supp.cmd.supp;
+
+import java.io.File;
+
+/**
+ * Supplemental data loader configuration parameters.
+ * Values are set from "add-supplemental-fields" command line options.
+ */
+public class LoaderConfig
+{
+    /**
+     * Value of "dedupRows" to collapse duplicate IDs of the whole table.
+     */
+    public static final int DEDUP_TABLE = -1;
+
+    /**
+     * Number of concurrent bulk writer threads (lanes).
+     */
+    public int threads = 1;
+
+    /**
+     * Max number of bulk requests either queued or being executed at once.
+     */
+    public int maxInflight = 2;
+
+    /**
+     * Number of table records (LIDs or LIDVIDs) in one lookup query.
+     */
+    public int lookupBatch = 1000;
+
+    /**
+     * Max number of read batches looked up with one registry request (_msearch).
+     */
+    public int msearchBatches = 4;
+
+    /**
+     * Optimistic write mode. If true, LIDVID updates are sent without checking
+     * if products exist. Missing documents are reported by bulk API and skipped.
+     */
+    public boolean optimistic;
+
+    /**
+     * Initial target size of a bulk request in bytes. Tuned at runtime.
+     */
+    public long bulkBytes = 5L * 1024 * 1024;
+
+    /**
+     * Max number of documents in one bulk request.
+     */
+    public int bulkItems = 10000;
+
+    /**
+     * Max size of a bulk request in bytes (Elasticsearch "http.max_content_length").
+     */
+    public long maxRequestBytes = 100L * 1024 * 1024;
+
+    /**
+     * Target bulk request latency in milliseconds. Used to tune bulk request size.
+     */
+    public long bulkLatencyMs = 1000;
+
+    /**
+     * Max number of retries of a failed bulk request or a failed document.
+     */
+    public int maxRetries = 5;
+
+    /**
+     * Delay before the first retry in milliseconds. Doubled on each next retry.
+     */
+    public long retryDelayMs = 500;
+
+    /**
+     * Max delay between retries in milliseconds.
+     */
+    public long maxRetryDelayMs = 30000;
+
+    /**
+     * Directory to save checkpoints to or null to disable checkpoints.
+     */
+    public File checkpointDir;
+
+    /**
+     * If true, resume loading from the last checkpoint.
+     */
+    public boolean resume;
+
+    /**
+     * Coalescing mode. Records of all labels of a manifest file are loaded
+     * in one loader session with shared lookup and bulk batches.
+     */
+    public boolean coalesce;
+
+    /**
+     * Coalescing mode: max time in milliseconds a record could wait in a
+     * lookup or bulk batch before the batch is sent.
+     */
+    public long flushIntervalMs = 5000;
+
+    /**
+     * Number of threads parsing one table. Data files of fixed-width tables
+     * are split into ranges of records parsed in parallel.
+     */
+    public int parseThreads = 1;
+
+    /**
+     * ID snapshot file (see "snapshot-ids" command) or null to look up
+     * products in the registry.
+     */
+    public File idSnapshot;
+
+    /**
+     * Merge-join mode. Table records are sorted by ID and merged with
+     * registered lidvids read from the registry in sorted order.
+     */
+    public boolean mergeJoin;
+
+    /**
+     * Merge-join mode: directory for sort spill files.
+     */
+    public File tempDir;
+
+    /**
+     * Merge-join mode: max size of table records sorted in memory (bytes).
+     */
+    public long sortMemoryBytes = 256L * 1024 * 1024;
+
+    /**
+     * Diff mode. Current supplemental field values are fetched from the registry
+     * and only changed documents are updated. Rows of products with updates waiting
+     * in bulk writers are compared with the last routed row (see RecordDiff).
+     */
+    public boolean diff;
+
+    /**
+     * Collapse duplicate IDs within windows of this number of rows.
+     * 0 - don't collapse, DEDUP_TABLE - collapse duplicates of the whole table.
+     */
+    public int dedupRows;
+
+    /**
+     * How duplicate rows are collapsed
+     */
+    public DuplicateCollapser.Policy dedupPolicy = DuplicateCollapser.Policy.LAST_WINS;
+
+    /**
+     * LID mode: LIDs with at least this number of versions are updated by
+     * server-side update by query. 0 - use bulk updates for all LIDs.
+     */
+    public int fanoutVersions;
+
+    /**
+     * Max number of update by query tasks running at once.
+     */
+    public int fanoutTasks = 2;
+
+    /**
+     * Throttle of each update by query task (documents per second). 0 - no throttling.
+     */
+    public int fanoutRequestsPerSecond;
+}
@@ -0,0 +1,331 @@
+package gov.nasa.pds.supp.cmd.supp;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import gov.nasa.pds.supp.dao.BulkUpdateJsonBuilder;
+import gov.nasa.pds.supp.dao.DaoManager;
+import gov.nasa.pds.supp.dao.SnapshotDao;
+import gov.nasa.pds.supp.table.TableReader;
+
+/**
+ * Loads supplemental data from a table data file by merge join.
+ *
+ * <p>Table records are sorted by LID / LIDVID (external sort with bounded
+ * memory, see ExternalRecordSorter). Then registered lidvids in the range of
+ * table IDs are read from the registry sorted by lidvid (point in time
+ * with "search_after") and the two sorted streams are merged. Each side is read
+ * once, instead of one lookup query per batch of table records.
+ *
+ * <p>LIDs are sorted as "lid::", so all versions of a LID in the registry
+ * ("lid::vid") follow the LID in the same order as in the table. 
+ *
+ * <p>Records are not loaded in table order, so checkpoints are not supported.
+ */
+public class MergeJoinLoader
+{
+    private static final String KEEP_ALIVE = "5m";
+    private static final byte[] VERSION_SEPARATOR = { ':', ':' };
+
+    private Logger log;
+    private LoaderConfig cfg;
+    private DaoManager daoMgr;
+
+    private BulkUpdateJsonBuilder bulkJsonBld;
+    private DuplicateCollapser collapser;
+
+    // Merge state of current loadData() call
+    private PipelineContext ctx;
+    private BulkLanes lanes;
+    private boolean isLid;
+    private ExternalRecordSorter.RecordIterator table;
+
+    // Table records with the same key
+    private List<ExternalRecordSorter.SortRecord> group = new ArrayList<>();
+    private ExternalRecordSorter.SortRecord nextRecord;
+    private boolean groupMatched;
+    private CheckpointTracker.Segment segment;
+    private int segmentRows;
+
+
+    /**
+     * Thrown from the registry callback to stop reading registry IDs
+     */
+    @SuppressWarnings("serial")
+    private static class StopException extends Exception
+    {
+    }
+
+
+    /**
+     * Constructor
+     * @param cfg loader configuration
+     * @param daoMgr DAO manager
+     */
+    public MergeJoinLoader(LoaderConfig cfg, DaoManager daoMgr)
+    {
+        log = LogManager.getLogger(this.getClass());
+        this.cfg = cfg;
+        this.daoMgr = daoMgr;
+        bulkJsonBld = new BulkUpdateJsonBuilder();
+    }
+
+
+    /**
+     * Load supplemental data from a table data file.
+     * @param labelFile PDS4 supplemental label
+     * @param reader Table data file reader (table is referenced in PDS4 supplemental label XML)
+     * @param esFieldInfo Information about data table columns / fields
+     * @throws Exception an exception
+     */
+    public void loadData(File labelFile, TableReader reader, SupplementalFieldsInfo esFieldInfo) throws Exception
+    {
+        isLid = (esFieldInfo.lidIndex != 0 && esFieldInfo.lidVidIndex == 0);
+        collapser = (cfg.dedupRows != 0) ? new DuplicateCollapser(cfg.dedupPolicy) : null;
+
+        // Sort table records
+        try(ExternalRecordSorter sorter = new ExternalRecordSorter(cfg.tempDir, cfg.sortMemoryBytes))
+        {
+            sortRecords(reader, esFieldInfo, sorter);
+            if(sorter.size() == 0) return;
+
+            try(ExternalRecordSorter.RecordIterator it = sorter.sort())
+            {
+                table = it;
+                merge(sorter.getMaxKey());
+            }
+            finally
+            {
+                table = null;
+                group.clear();
+                nextRecord = null;
+            }
+        }
+    }
+
+
+    private void sortRecords(TableReader reader, SupplementalFieldsInfo esFieldInfo,
+            ExternalRecordSorter sorter) throws Exception
+    {
+        int idIndex = (esFieldInfo.lidVidIndex != 0) ? esFieldInfo.lidVidIndex : esFieldInfo.lidIndex;
+
+        while(reader.next())
+        {
+            byte[] json = bulkJsonBld.createUpdateJson(esFieldInfo, reader);
+            byte[] key = reader.getString(idIndex).getBytes(StandardCharsets.UTF_8);
+            if(isLid) key = appendSeparator(key);
+
+            sorter.add(key, json);
+        }
+
+        log.info("Sorted " + sorter.size() + " record(s)");
+    }
+
+
+    /**
+     * Merge sorted table records with sorted registry lidvids.
+     * @param maxKey the greatest key of table records
+     */
+    private void merge(byte[] maxKey) throws Exception
+    {
+        ctx = new PipelineContext(cfg.maxInflight, new CheckpointTracker(null, new Checkpoint()));
+        lanes = new BulkLanes(cfg, daoMgr.getRegistryDao(), ctx);
+        ctx.addShutdownHook();
+
+        SnapshotDao dao = daoMgr.getSnapshotDao();
+        String pitId = null;
+
+        try
+        {
+            // Range of registry lidvids
+            nextRecord = table.next();
+            String from = new String(nextRecord.key, StandardCharsets.UTF_8);
+            String to = getRangeEnd(maxKey);
+
+            segment = ctx.getTracker().newSegment(cfg.lookupBatch);
+            pitId = dao.openPit(KEEP_ALIVE);
+
+            try
+            {
+                dao.exportLidVids(pitId, KEEP_ALIVE, 0, 1, from, to, this::onLidVid);
+            }
+            catch(StopException ex)
+            {
+                // All table records were merged, stop requested or a bulk writer failed
+            }
+
+            // Remaining table records are not registered
+            if(!ctx.isFailed() && !ctx.isStopRequested())
+            {
+                while(nextGroup())
+                {
+                }
+            }
+
+            CheckpointTracker.routed(segment);
+            lanes.flush();
+        }
+        catch(Exception ex)
+        {
+            ctx.fail(ex);
+        }
+        finally
+        {
+            dao.closePit(pitId);
+            lanes.finish();
+            ctx.removeShutdownHook();
+        }
+
+        ctx.checkError();
+
+        log.info("Updated " + ctx.getUpdatedRecordCount() + " record(s)");
+        if(ctx.getSkippedRecordCount() > 0)
+        {
+            log.info("Skipped " + ctx.getSkippedRecordCount() + " unregistered product(s)");
+        }
+
+        if(collapser != null && collapser.getCollapsedCount() > 0)
+        {
+            log.info("Collapsed " + collapser.getCollapsedCount() + " duplicate row(s)");
+        }
+
+        ctx.reportFailures();
+        if(ctx.isStopRequested()) throw new Exception("Loading was stopped.");
+    }
+
+
+    /**
+     * Called for each registered lidvid in sorted order.
+     */
+    private void onLidVid(String lidvid) throws Exception
+    {
+        if(ctx.isFailed() || ctx.isStopRequested()) throw new StopException();
+
+        byte[] key = lidvid.getBytes(StandardCharsets.UTF_8);
+        int keyLength = key.length;
+        if(isLid)
+        {
+            int idx = lidvid.indexOf("::");
+            if(idx < 0) return;
+            keyLength = lidvid.substring(0, idx + 2).getBytes(StandardCharsets.UTF_8).length;
+        }
+
+        // All table records were merged. Don't read more registry pages.
+        if(group.isEmpty() && !nextGroup()) throw new StopException();
+
+        while(true)
+        {
+            byte[] groupKey = group.get(0).key;
+            int cmp = Arrays.compareUnsigned(groupKey, 0, groupKey.length, key, 0, keyLength);
+
+            // This lidvid is not in the table
+            if(cmp > 0) return;
+
+            if(cmp == 0)
+            {
+                groupMatched = true;
+                for(ExternalRecordSorter.SortRecord rec: group)
+                {
+                    lanes.add(lidvid, rec.json, segment);
+                }
+
+                return;
+            }
+
+            // Table records of this group are not registered
+            if(!nextGroup()) throw new StopException();
+        }
+    }
+
+
+    /**
+     * Read table records with the next key. Records of the previous group,
+     * which didn't match any registered lidvid, are skipped.
+     * @return false if there are no more table records
+     */
+    private boolean nextGroup() throws Exception
+    {
+        if(!groupMatched)
+        {
+            for(ExternalRecordSorter.SortRecord rec: group)
+            {
+                skip(rec);
+            }
+        }
+
+        group.clear();
+        groupMatched = false;
+        if(nextRecord == null) return false;
+
+        // Start a new segment every "lookup batch" rows (for reporting)
+        if(segmentRows >= cfg.lookupBatch)
+        {
+            CheckpointTracker.routed(segment);
+            segment = ctx.getTracker().newSegment(cfg.lookupBatch);
+            segmentRows = 0;
+        }
+
+        do
+        {
+            group.add(nextRecord);
+            segmentRows++;
+            nextRecord = table.next();
+        }
+        while(nextRecord != null && Arrays.equals(nextRecord.key, group.get(0).key));
+
+        // Duplicate IDs (records of a group are in table order)
+        if(collapser != null && group.size() > 1)
+        {
+            ExternalRecordSorter.SortRecord first = group.get(0);
+            for(int i = 1; i < group.size(); i++)
+            {
+                first.json = collapser.combine(first.json, group.get(i).json);
+                collapser.addCollapsed();
+            }
+
+            group.subList(1, group.size()).clear();
+        }
+
+        return true;
+    }
+
+
+    private void skip(ExternalRecordSorter.SortRecord rec)
+    {
+        String id = isLid ? new String(rec.key, 0, rec.key.length - VERSION_SEPARATOR.length, 
+                StandardCharsets.UTF_8) : new String(rec.key, StandardCharsets.UTF_8);
+
+        log.warn("Skipping unregistered product " + id);
+        ctx.addSkipped(1);
+        CheckpointTracker.recordSkipped(segment);
+    }
+
+
+    /**
+     * Get end of the range of registry lidvids (exclusive) from the greatest table key.
+     */
+    private String getRangeEnd(byte[] maxKey)
+    {
+        String key = new String(maxKey, StandardCharsets.UTF_8);
+
+        // All versions of the last LID: "lid::" -> "lid:;"
+        if(isLid) return key.substring(0, key.length() - 1) + ';';
+
+        // The last LIDVID: the smallest string greater than the LIDVID
+        return key + '\u0000';
+    }
+
+
+    private static byte[] appendSeparator(byte[] lid)
+    {
+        byte[] key = Arrays.copyOf(lid, lid.length + VERSION_SEPARATOR.length);
+        System.arraycopy(VERSION_SEPARATOR, 0, key, lid.length, VERSION_SEPARATOR.length);
+        return key;
+    }
+}
@@ -0,0 +1,249 @@
+package gov.nasa.pds.supp.cmd.supp;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import gov.nasa.pds.supp.dao.BulkUpdateJsonBuilder;
+import gov.nasa.pds.supp.dao.ColumnStats;
+import gov.nasa.pds.supp.table.SplittableTableReader;
+import gov.nasa.pds.supp.table.TableRange;
+
+
+/**
+ * Parses a table in parallel. The data file is split into ranges of records.
+ * Each range is decoded and encoded to bulk update JSON by a pool of parser
+ * threads, each with its own table reader.
+ *
+ * <p>Batches are returned by nextBatch() in table order, so rows are
+ * checkpointed and updates of a product are sent in the same order as
+ * by a single reader. Up to 2 ranges per thread are parsed ahead.
+ */
+public class ParallelTableParser
+{
+    /**
+     * Table reader and JSON builder of a parser thread
+     */
+    private static class Parser
+    {
+        public SplittableTableReader reader;
+        public BulkUpdateJsonBuilder bld = new BulkUpdateJsonBuilder();
+    }
+
+    private SplittableTableReader reader;
+    private SupplementalFieldsInfo esFieldInfo;
+    private ExecutorService executor;
+    private BlockingQueue<Parser> parsers;
+    private List<Parser> allParsers;
+
+    private Iterator<TableRange> ranges;
+    private Deque<Future<List<SupplementalRecord>>> results;
+    private int maxAhead;
+
+    // Rows to skip if the table could not be split from the start row
+    private long startRow;
+    private long row;
+
+
+    /**
+     * Constructor. Opens one table reader per thread.
+     * @param reader table reader
+     * @param esFieldInfo Information about data table columns / fields
+     * @param threads number of parser threads
+     * @throws Exception an exception
+     */
+    public ParallelTableParser(SplittableTableReader reader, SupplementalFieldsInfo esFieldInfo,
+            int threads) throws Exception
+    {
+        this.reader = reader;
+        this.esFieldInfo = esFieldInfo;
+
+        parsers = new ArrayBlockingQueue<>(threads);
+        allParsers = new ArrayList<>(threads);
+
+        try
+        {
+            for(int i = 0; i < threads; i++)
+            {
+                Parser parser = new Parser();
+                parser.reader = reader.copy();
+                allParsers.add(parser);
+                parsers.add(parser);
+            }
+        }
+        catch(Exception ex)
+        {
+            close();
+            throw ex;
+        }
+
+        AtomicInteger threadNum = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(threads,
+                r -> new Thread(r, "table-parser-" + threadNum.getAndIncrement()));
+
+        maxAhead = 2 * threads;
+        results = new ArrayDeque<>(maxAhead);
+        ranges = Collections.emptyIterator();
+    }
+
+
+    /**
+     * Split the table and start parsing.
+     * @param startRow first row to read (rows loaded by previous runs are skipped)
+     * @param rangeRows number of records in a range (one batch)
+     * @throws Exception an exception
+     */
+    public void start(long startRow, int rangeRows) throws Exception
+    {
+        List<TableRange> list = reader.split(startRow, rangeRows);
+        this.startRow = startRow;
+        row = (list.isEmpty() || list.get(0).firstRow < 0) ? 0 : list.get(0).firstRow;
+
+        ranges = list.iterator();
+        while(results.size() < maxAhead && ranges.hasNext())
+        {
+            submit(ranges.next());
+        }
+    }
+
+
+    /**
+     * Get records of the next range.
+     * @return records in table order or empty list if there are no more records
+     * @throws Exception an exception
+     */
+    public List<SupplementalRecord> nextBatch() throws Exception
+    {
+        while(!results.isEmpty())
+        {
+            List<SupplementalRecord> records = getResult(results.poll());
+            if(ranges.hasNext()) submit(ranges.next());
+
+            // Skip rows loaded by previous runs
+            if(row < startRow)
+            {
+                int skip = (int)Math.min(startRow - row, records.size());
+                row += records.size();
+                records = records.subList(skip, records.size());
+            }
+            else
+            {
+                row += records.size();
+            }
+
+            if(!records.isEmpty()) return records;
+        }
+
+        return Collections.emptyList();
+    }
+
+
+    /**
+     * Get value dictionary statistics merged from all parser threads.
+     * Call after all batches have been read.
+     * @return statistics by field
+     */
+    public List<ColumnStats> getColumnStats()
+    {
+        List<ColumnStats> list = new ArrayList<>();
+
+        for(Parser parser: allParsers)
+        {
+            List<ColumnStats> stats = parser.bld.getColumnStats();
+            for(int i = 0; i < stats.size(); i++)
+            {
+                ColumnStats cs = stats.get(i);
+                if(i < list.size())
+                {
+                    list.get(i).merge(cs);
+                }
+                else
+                {
+                    // Copy, so the stats of the first parser are not modified
+                    ColumnStats copy = new ColumnStats(cs.name);
+                    copy.merge(cs);
+                    list.add(copy);
+                }
+            }
+        }
+
+        return list;
+    }
+
+
+    /**
+     * Stop parser threads and close table readers.
+     */
+    public void close()
+    {
+        if(executor != null) executor.shutdownNow();
+
+        for(Parser parser: allParsers)
+        {
+            try
+            {
+                parser.reader.close();
+            }
+            catch(Exception ex)
+            {
+                // Ignore
+            }
+        }
+    }
+
+
+    private void submit(TableRange range)
+    {
+        results.add(executor.submit(() -> parse(range)));
+    }
+
+
+    private List<SupplementalRecord> getResult(Future<List<SupplementalRecord>> future) throws Exception
+    {
+        try
+        {
+            return future.get();
+        }
+        catch(ExecutionException ex)
+        {
+            Throwable cause = ex.getCause();
+            if(cause instanceof Exception) throw (Exception)cause;
+            throw ex;
+        }
+    }
+
+
+    /**
+     * Parse a range with one of the idle parsers.
+     */
+    private List<SupplementalRecord> parse(TableRange range) throws Exception
+    {
+        Parser parser = parsers.take();
+        try
+        {
+            parser.reader.setRange(range);
+
+            List<SupplementalRecord> records = new ArrayList<>();
+            while(parser.reader.next())
+            {
+                records.add(SupplementalRecord.create(parser.reader, esFieldInfo, parser.bld));
+            }
+
+            return records;
+        }
+        finally
+        {
+            parsers.add(parser);
+        }
+    }
+}
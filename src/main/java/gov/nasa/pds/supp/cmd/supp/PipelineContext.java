@@ -0,0 +1,316 @@
+package gov.nasa.pds.supp.cmd.supp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+
+/**
+ * State shared by all stages (threads) of the supplemental data loader pipeline.
+ *
+ * <p>The first error reported by any stage is stored here. Other stages
+ * periodically check for it and stop.
+ */
+public class PipelineContext
+{
+    // How long to wait before re-checking for errors in other stages
+    private static final long POLL_TIMEOUT_MS = 200;
+    // Max number of failed documents to keep for the final report
+    private static final int MAX_REPORTED_FAILURES = 100;
+    // How long shutdown hook waits for in-flight batches
+    private static final long SHUTDOWN_TIMEOUT_SEC = 60;
+
+    private Logger log;
+
+    private volatile Exception error;
+    private volatile boolean stopRequested;
+    private CheckpointTracker tracker;
+    private Thread shutdownHook;
+    private CountDownLatch stopped;
+    private Semaphore inflight;
+    private AtomicInteger updatedRecordCount;
+    private AtomicInteger skippedRecordCount;
+    private AtomicInteger failedRecordCount;
+    private List<String> failures;
+
+
+    /**
+     * Constructor
+     * @param maxInflight Max number of bulk requests either queued or being executed at once.
+     * @param tracker Tracks completed table rows and saves checkpoints
+     */
+    public PipelineContext(int maxInflight, CheckpointTracker tracker)
+    {
+        log = LogManager.getLogger(this.getClass());
+        this.tracker = tracker;
+
+        inflight = new Semaphore(maxInflight);
+        updatedRecordCount = new AtomicInteger();
+        skippedRecordCount = new AtomicInteger();
+        failedRecordCount = new AtomicInteger();
+        failures = new ArrayList<>();
+    }
+
+
+    /**
+     * Report an error. Only the first error is stored.
+     * @param ex an exception
+     */
+    public synchronized void fail(Exception ex)
+    {
+        if(error == null)
+        {
+            error = ex;
+        }
+    }
+
+
+    /**
+     * Check if any stage of the pipeline has failed.
+     * @return true if there was an error
+     */
+    public boolean isFailed()
+    {
+        return error != null;
+    }
+
+
+    /**
+     * Rethrow the first error reported by any stage, if any.
+     * @throws Exception an exception
+     */
+    public void checkError() throws Exception
+    {
+        if(error != null) throw error;
+    }
+
+
+    /**
+     * Ask the pipeline to stop gracefully: the reader stops reading new rows,
+     * already read rows are loaded and the final checkpoint is saved.
+     */
+    public void requestStop()
+    {
+        stopRequested = true;
+    }
+
+
+    /**
+     * Register a shutdown hook. On SIGTERM, the hook requests graceful stop
+     * and waits (up to 60 seconds) until removeShutdownHook() is called,
+     * i.e., until in-flight batches are flushed and the final checkpoint is saved.
+     */
+    public void addShutdownHook()
+    {
+        stopped = new CountDownLatch(1);
+        shutdownHook = new Thread(() ->
+        {
+            log.info("Stopping. Waiting for in-flight bulk requests.");
+            requestStop();
+            try
+            {
+                stopped.await(SHUTDOWN_TIMEOUT_SEC, TimeUnit.SECONDS);
+            }
+            catch(InterruptedException ex)
+            {
+                // Exit
+            }
+        });
+
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+
+    /**
+     * Unregister the shutdown hook and let it finish if the JVM is shutting down.
+     */
+    public void removeShutdownHook()
+    {
+        if(shutdownHook == null) return;
+
+        stopped.countDown();
+        try
+        {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        }
+        catch(IllegalStateException ex)
+        {
+            // JVM is shutting down
+        }
+
+        shutdownHook = null;
+    }
+
+
+    /**
+     * Check if graceful stop was requested, e.g., on SIGTERM.
+     * @return true if the pipeline should stop
+     */
+    public boolean isStopRequested()
+    {
+        return stopRequested;
+    }
+
+
+    /**
+     * Get checkpoint tracker
+     * @return checkpoint tracker
+     */
+    public CheckpointTracker getTracker()
+    {
+        return tracker;
+    }
+
+
+    /**
+     * Reserve a slot for one more bulk request. Blocks until a slot is available
+     * or until another stage of the pipeline fails.
+     * @return true if a slot was reserved, false if the pipeline has failed.
+     * @throws InterruptedException an exception
+     */
+    public boolean acquireInflight() throws InterruptedException
+    {
+        while(!isFailed())
+        {
+            if(inflight.tryAcquire(POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS)) return true;
+        }
+
+        return false;
+    }
+
+
+    /**
+     * Release a slot reserved by acquireInflight().
+     */
+    public void releaseInflight()
+    {
+        inflight.release();
+    }
+
+
+    /**
+     * Add number of updated records and print progress every 1000 records.
+     * @param count number of records updated by a bulk request
+     */
+    public void addUpdated(int count)
+    {
+        int total = updatedRecordCount.addAndGet(count);
+        if(total / 1000 > (total - count) / 1000)
+        {
+            log.info("Updated " + total + " record(s)");
+        }
+    }
+
+
+    /**
+     * Get total number of updated records.
+     * @return number of updated records
+     */
+    public int getUpdatedRecordCount()
+    {
+        return updatedRecordCount.get();
+    }
+
+
+    /**
+     * Add number of skipped (unregistered) products.
+     * @param count number of skipped products
+     */
+    public void addSkipped(int count)
+    {
+        skippedRecordCount.addAndGet(count);
+    }
+
+
+    /**
+     * Get total number of skipped (unregistered) products.
+     * @return number of skipped products
+     */
+    public int getSkippedRecordCount()
+    {
+        return skippedRecordCount.get();
+    }
+
+
+    /**
+     * Report a document which could not be updated (permanent failure).
+     * The loader continues with other documents.
+     * @param id document id (LIDVID)
+     * @param reason error message
+     */
+    public void addFailure(String id, String reason)
+    {
+        failedRecordCount.incrementAndGet();
+
+        synchronized(failures)
+        {
+            if(failures.size() < MAX_REPORTED_FAILURES)
+            {
+                failures.add(id + ": " + reason);
+            }
+        }
+    }
+
+
+    /**
+     * Get total number of documents which could not be updated.
+     * @return number of failed documents
+     */
+    public int getFailedRecordCount()
+    {
+        return failedRecordCount.get();
+    }
+
+
+    /**
+     * Get first failures (up to 100). Each item has document id and error message.
+     * @return a list of failures
+     */
+    public List<String> getFailures()
+    {
+        synchronized(failures)
+        {
+            return new ArrayList<>(failures);
+        }
+    }
+
+
+    /**
+     * Log documents which could not be updated (permanent failures).
+     * @throws Exception if there were permanent failures
+     */
+    public void reportFailures() throws Exception
+    {
+        int count = getFailedRecordCount();
+        if(count == 0) return;
+
+        List<String> failures = getFailures();
+        log.error("Could not update " + count + " document(s)");
+        for(String failure: failures)
+        {
+            log.error("  " + failure);
+        }
+        if(count > failures.size())
+        {
+            log.error("  ... and " + (count - failures.size()) + " more");
+        }
+
+        throw new Exception("Could not load data.");
+    }
+
+
+    /**
+     * Get poll timeout used by pipeline stages to periodically check for errors.
+     * @return timeout in milliseconds
+     */
+    public static long getPollTimeout()
+    {
+        return POLL_TIMEOUT_MS;
+    }
+}
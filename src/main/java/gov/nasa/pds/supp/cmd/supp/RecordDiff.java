@@ -0,0 +1,396 @@
+package gov.nasa.pds.supp.cmd.supp;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.google.gson.Gson;
+
+import gov.nasa.pds.supp.dao.RegistryDao;
+
+
+/**
+ * Diff mode of the supplemental data loader. Compares encoded table records
+ * with current supplemental field values of registered products, so that
+ * only changed documents are updated.
+ *
+ * <p>Values are compared in normalized form: single-value arrays are
+ * the same as the value, numbers are compared as numbers (also if a number
+ * is stored as a string), dates are compared as instants.
+ * Only fields of the table are compared. Other fields of a document are
+ * not changed by a partial update.
+ *
+ * <p>Current values are fetched before updates of earlier rows are written,
+ * so they are not compared with rows of a product which has updates waiting
+ * in bulk writers. Such rows are compared with the last routed row (a hash of
+ * its data JSON) instead. A product is tracked until bulk writers acknowledge
+ * all its updates (see onAcknowledged()), so only products in flight are kept
+ * in memory. Only the last row of a product in a lookup round is compared,
+ * earlier rows are superseded.
+ *
+ * <p>This class is not thread-safe, except counters and routed products
+ * (acknowledged by bulk writer threads).
+ */
+public class RecordDiff
+{
+    private Logger log;
+    private RegistryDao dao;
+    private Gson gson;
+
+    // Parsed data JSON of the last compared record (LID records update several versions)
+    private SupplementalRecord lastRec;
+    private Map<?, ?> lastDoc;
+
+    /**
+     * A product with updates waiting in bulk writers
+     */
+    private static class RoutedProduct
+    {
+        // Hash of data JSON of the last routed row
+        public long hash;
+        // Number of updates which were not acknowledged yet
+        public int pending;
+    }
+
+    // Key = lidvid. Access is synchronized on this map.
+    private Map<String, RoutedProduct> routed = new HashMap<>();
+
+    private AtomicInteger unchangedCount;
+    private AtomicInteger changedCount;
+    private AtomicInteger missingCount;
+    private AtomicInteger supersededCount;
+
+
+    /**
+     * Constructor
+     * @param dao registry DAO
+     */
+    public RecordDiff(RegistryDao dao)
+    {
+        log = LogManager.getLogger(this.getClass());
+        this.dao = dao;
+        gson = new Gson();
+
+        unchangedCount = new AtomicInteger();
+        changedCount = new AtomicInteger();
+        missingCount = new AtomicInteger();
+        supersededCount = new AtomicInteger();
+    }
+
+
+    /**
+     * Get current supplemental field values of products.
+     * @param lidvids lidvids
+     * @return a map where key = lidvid, value = supplemental fields.
+     * Unregistered products are not included.
+     * @throws Exception an exception
+     */
+    public Map<String, Map<String, Object>> getCurrentValues(Collection<String> lidvids) throws Exception
+    {
+        return dao.getSupplementalFields(lidvids);
+    }
+
+
+    /**
+     * Compare a record with current field values of a product and count the result.
+     * @param rec table record
+     * @param current current supplemental field values of a product
+     * @return true if the product has to be updated
+     */
+    public boolean isChanged(SupplementalRecord rec, Map<String, Object> current)
+    {
+        if(rec != lastRec)
+        {
+            // Bulk update data line: {"doc":{...}}
+            Map<?, ?> json = gson.fromJson(new String(rec.json, StandardCharsets.UTF_8), Map.class);
+            lastDoc = (Map<?, ?>)json.get("doc");
+            lastRec = rec;
+        }
+
+        boolean changed = false;
+        if(lastDoc != null)
+        {
+            for(Map.Entry<?, ?> entry: lastDoc.entrySet())
+            {
+                if(!isSameValue(entry.getValue(), current.get(entry.getKey())))
+                {
+                    changed = true;
+                    break;
+                }
+            }
+        }
+
+        if(changed)
+        {
+            changedCount.incrementAndGet();
+        }
+        else
+        {
+            unchangedCount.incrementAndGet();
+        }
+
+        return changed;
+    }
+
+
+    /**
+     * Get hash of the last routed record of a product with updates waiting
+     * in bulk writers.
+     * @param lidvid lidvid
+     * @return hash or null if there are no waiting updates of the product
+     */
+    public Long getRoutedHash(String lidvid)
+    {
+        synchronized(routed)
+        {
+            RoutedProduct product = routed.get(lidvid);
+            return (product == null) ? null : product.hash;
+        }
+    }
+
+
+    /**
+     * Compare a record with the last routed record of a product and count the result.
+     * @param routedHash hash of the last routed record (see getRoutedHash())
+     * @param rec table record
+     * @return true if the product has to be updated
+     */
+    public boolean isChangedSinceRouted(long routedHash, SupplementalRecord rec)
+    {
+        boolean changed = (routedHash != hash(rec.json));
+
+        if(changed)
+        {
+            changedCount.incrementAndGet();
+        }
+        else
+        {
+            unchangedCount.incrementAndGet();
+        }
+
+        return changed;
+    }
+
+
+    /**
+     * Remember the record routed to bulk writers to update a product.
+     * @param lidvid lidvid
+     * @param rec table record
+     */
+    public void setRouted(String lidvid, SupplementalRecord rec)
+    {
+        long hash = hash(rec.json);
+
+        synchronized(routed)
+        {
+            RoutedProduct product = routed.computeIfAbsent(lidvid, key -> new RoutedProduct());
+            product.hash = hash;
+            product.pending++;
+        }
+    }
+
+
+    /**
+     * Called by bulk writers when an update of a product was completed
+     * (updated, skipped or failed). When all updates of a product are completed,
+     * current values in the registry are compared again.
+     * @param lidvid lidvid
+     */
+    public void onAcknowledged(String lidvid)
+    {
+        synchronized(routed)
+        {
+            RoutedProduct product = routed.get(lidvid);
+            if(product != null && --product.pending <= 0) routed.remove(lidvid);
+        }
+    }
+
+
+    /**
+     * Count a row which was not compared, because a later row of the same product
+     * was read in the same lookup round.
+     */
+    public void addSuperseded()
+    {
+        supersededCount.incrementAndGet();
+    }
+
+
+    /**
+     * Count a record of an unregistered product.
+     */
+    public void addMissing()
+    {
+        missingCount.incrementAndGet();
+    }
+
+
+    /**
+     * Get number of documents which were not updated, because values didn't change.
+     * @return number of unchanged documents
+     */
+    public int getUnchangedCount()
+    {
+        return unchangedCount.get();
+    }
+
+
+    /**
+     * Get number of changed documents
+     * @return number of changed documents
+     */
+    public int getChangedCount()
+    {
+        return changedCount.get();
+    }
+
+
+    /**
+     * Get number of records of unregistered products
+     * @return number of missing products
+     */
+    public int getMissingCount()
+    {
+        return missingCount.get();
+    }
+
+
+    /**
+     * Get number of rows superseded by later rows of the same product
+     * @return number of superseded rows
+     */
+    public int getSupersededCount()
+    {
+        return supersededCount.get();
+    }
+
+
+    /**
+     * Log unchanged, changed, missing and superseded counts.
+     */
+    public void logStats()
+    {
+        String msg = "Diff: " + getUnchangedCount() + " unchanged, " + getChangedCount() + " changed, "
+                + getMissingCount() + " missing";
+        if(getSupersededCount() > 0) msg += ", " + getSupersededCount() + " superseded";
+
+        log.info(msg);
+    }
+
+
+    /**
+     * 64-bit FNV-1a hash
+     */
+    private static long hash(byte[] data)
+    {
+        long hash = 0xcbf29ce484222325L;
+        for(byte b: data)
+        {
+            hash ^= (b & 0xFF);
+            hash *= 0x100000001b3L;
+        }
+
+        return hash;
+    }
+
+
+    private static boolean isSameValue(Object newValue, Object oldValue)
+    {
+        newValue = unwrap(newValue);
+        oldValue = unwrap(oldValue);
+
+        if(newValue == null || oldValue == null) return newValue == oldValue;
+
+        if(newValue instanceof List || oldValue instanceof List)
+        {
+            if(!(newValue instanceof List) || !(oldValue instanceof List)) return false;
+
+            List<?> newList = (List<?>)newValue;
+            List<?> oldList = (List<?>)oldValue;
+            if(newList.size() != oldList.size()) return false;
+
+            for(int i = 0; i < newList.size(); i++)
+            {
+                if(!isSameValue(newList.get(i), oldList.get(i))) return false;
+            }
+
+            return true;
+        }
+
+        if(newValue instanceof Number || oldValue instanceof Number)
+        {
+            Double newNum = toDouble(newValue);
+            return newNum != null && newNum.equals(toDouble(oldValue));
+        }
+
+        String newStr = newValue.toString();
+        String oldStr = oldValue.toString();
+        if(newStr.equals(oldStr)) return true;
+
+        return isSameDate(newStr, oldStr);
+    }
+
+
+    /**
+     * Single-value arrays are the same as the value. Empty array is null.
+     */
+    private static Object unwrap(Object value)
+    {
+        if(value instanceof List)
+        {
+            List<?> list = (List<?>)value;
+            if(list.isEmpty()) return null;
+            if(list.size() == 1) return list.get(0);
+        }
+
+        return value;
+    }
+
+
+    private static Double toDouble(Object value)
+    {
+        if(value instanceof Number) return ((Number)value).doubleValue();
+
+        try
+        {
+            return Double.valueOf(value.toString());
+        }
+        catch(NumberFormatException ex)
+        {
+            return null;
+        }
+    }
+
+
+    /**
+     * Compare dates in ISO instant format with different number of fraction digits,
+     * such as "2013-10-24T00:00:00Z" and "2013-10-24T00:00:00.000Z".
+     */
+    private static boolean isSameDate(String newStr, String oldStr)
+    {
+        if(!looksLikeInstant(newStr) || !looksLikeInstant(oldStr)) return false;
+
+        try
+        {
+            return Instant.parse(newStr).equals(Instant.parse(oldStr));
+        }
+        catch(Exception ex)
+        {
+            return false;
+        }
+    }
+
+
+    private static boolean looksLikeInstant(String str)
+    {
+        return str.length() >= 20 && str.charAt(4) == '-' && str.charAt(10) == 'T'
+                && str.charAt(str.length() - 1) == 'Z';
+    }
+}
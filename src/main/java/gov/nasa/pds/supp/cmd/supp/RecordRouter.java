@@ -0,0 +1,322 @@
+package gov.nasa.pds.supp.cmd.supp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import gov.nasa.pds.supp.dao.IdLookup;
+import gov.nasa.pds.supp.dao.LookupBatch;
+
+
+/**
+ * Lookup stage of the supplemental data loader pipeline. Finds registered
+ * products (LIDVIDs) for a batch of records and routes bulk update records
+ * to the bulk writers (lanes).
+ */
+public class RecordRouter
+{
+    private Logger log;
+
+    private IdLookup idLookup;
+    private PipelineContext ctx;
+    private BulkLanes lanes;
+    private boolean optimistic;
+    private RecordDiff diff;
+    private UpdateByQueryWriter fanout;
+    private int fanoutVersions;
+
+
+    /**
+     * Constructor
+     * @param idLookup lookup of registered products (registry or local ID snapshot)
+     * @param ctx pipeline context
+     * @param lanes bulk writers
+     * @param optimistic if true, LIDVIDs are not looked up
+     */
+    public RecordRouter(IdLookup idLookup, PipelineContext ctx, BulkLanes lanes, boolean optimistic)
+    {
+        log = LogManager.getLogger(this.getClass());
+
+        this.idLookup = idLookup;
+        this.ctx = ctx;
+        this.lanes = lanes;
+        this.optimistic = optimistic;
+    }
+
+
+    /**
+     * Enable diff mode. Only documents with changed values are routed to bulk writers.
+     * @param diff compares records with current field values or null to disable diff mode
+     */
+    public void setDiff(RecordDiff diff)
+    {
+        this.diff = diff;
+    }
+
+
+    /**
+     * Update LIDs with many versions by server-side update by query instead of
+     * one bulk update per version. Not used in diff mode.
+     * @param fanout update by query writer or null to update all LIDs with bulk updates
+     * @param minVersions min number of versions of a LID updated by query
+     */
+    public void setFanout(UpdateByQueryWriter fanout, int minVersions)
+    {
+        this.fanout = fanout;
+        this.fanoutVersions = minVersions;
+    }
+
+
+    /**
+     * Route a batch of records with LIDs. All registered versions of each LID are updated.
+     * @param records records with LIDs
+     * @throws Exception an exception
+     */
+    public void routeLids(List<SupplementalRecord> records) throws Exception
+    {
+        route(Collections.singletonList(records), true);
+    }
+
+
+    /**
+     * Route a batch of records with LIDVIDs. In optimistic mode the records are
+     * routed without lookup and bulk writers report missing products.
+     * @param records records with LIDVIDs
+     * @throws Exception an exception
+     */
+    public void routeLidVids(List<SupplementalRecord> records) throws Exception
+    {
+        route(Collections.singletonList(records), false);
+    }
+
+
+    /**
+     * Route several batches of records. All batches are looked up at once
+     * (one registry request if the lookup supports it).
+     * @param batches batches of records
+     * @param lids if true, records have LIDs, otherwise LIDVIDs.
+     * @throws Exception an exception
+     */
+    public void route(List<List<SupplementalRecord>> batches, boolean lids) throws Exception
+    {
+        // Diff mode: current values of LIDVIDs also show which products exist
+        if(!lids && diff != null)
+        {
+            routeChanged(batches, null);
+            return;
+        }
+
+        if(!lids && optimistic)
+        {
+            for(List<SupplementalRecord> records: batches)
+            {
+                for(SupplementalRecord rec: records)
+                {
+                    lanes.add(rec.id, rec.json, rec.segment);
+                }
+            }
+
+            return;
+        }
+
+        // Get list of LIDs / LIDVIDs for each batch
+        List<LookupBatch> lookups = new ArrayList<>(batches.size());
+        for(List<SupplementalRecord> records: batches)
+        {
+            List<String> ids = new ArrayList<>(records.size());
+            for(SupplementalRecord rec: records)
+            {
+                ids.add(rec.id);
+            }
+
+            lookups.add(new LookupBatch(lids, ids));
+        }
+
+        // Get vids or existing LIDVIDs from Elasticsearch or ID snapshot
+        idLookup.lookup(lookups);
+
+        if(diff != null)
+        {
+            routeChanged(batches, lookups);
+            return;
+        }
+
+        for(int i = 0; i < batches.size(); i++)
+        {
+            if(lids)
+            {
+                routeLids(batches.get(i), lookups.get(i).vids);
+            }
+            else
+            {
+                routeLidVids(batches.get(i), lookups.get(i).existing);
+            }
+        }
+    }
+
+
+    private void routeLids(List<SupplementalRecord> records, Map<String, List<String>> vidMap) throws Exception
+    {
+        // LIDs with many versions
+        List<SupplementalRecord> fanoutRecords = null;
+
+        // Create JSON for Elasticsearch bulk update API call
+        for(SupplementalRecord rec: records)
+        {
+            List<String> vids = vidMap.get(rec.id);
+            if(vids == null)
+            {
+                skip(rec);
+                continue;
+            }
+
+            if(fanout != null && vids.size() >= fanoutVersions)
+            {
+                if(fanoutRecords == null) fanoutRecords = new ArrayList<>();
+                fanoutRecords.add(rec);
+                continue;
+            }
+
+            // If there are multiple versions of this LID, reuse the same data line (JSON)
+            for(String vid: vids)
+            {
+                String lidvid = rec.id + "::" + vid;
+                lanes.add(lidvid, rec.json, rec.segment);
+            }
+        }
+
+        if(fanoutRecords != null) fanout.add(fanoutRecords);
+    }
+
+
+    private void routeLidVids(List<SupplementalRecord> records, Set<String> existingIds) throws Exception
+    {
+        // Create JSON for Elasticsearch bulk update API call
+        for(SupplementalRecord rec: records)
+        {
+            if(!existingIds.contains(rec.id))
+            {
+                skip(rec);
+                continue;
+            }
+
+            lanes.add(rec.id, rec.json, rec.segment);
+        }
+    }
+
+
+    /**
+     * Diff mode. Fetch current values of products and only route changed documents.
+     * Only the last record of each product is compared. Products with updates
+     * waiting in bulk writers are compared with the last routed record, because
+     * their current values could be overwritten by these updates.
+     * @param batches batches of records
+     * @param lookups vids of LIDs (one lookup per batch) or null if records have LIDVIDs
+     */
+    private void routeChanged(List<List<SupplementalRecord>> batches, List<LookupBatch> lookups) throws Exception
+    {
+        // Key = lidvid, value = the last record of the product
+        Map<String, SupplementalRecord> lastRecords = new LinkedHashMap<>();
+
+        for(int i = 0; i < batches.size(); i++)
+        {
+            for(SupplementalRecord rec: batches.get(i))
+            {
+                if(lookups == null)
+                {
+                    putLastRecord(lastRecords, rec.id, rec);
+                    continue;
+                }
+
+                List<String> vids = lookups.get(i).vids.get(rec.id);
+                if(vids == null)
+                {
+                    skip(rec);
+                    continue;
+                }
+
+                for(String vid: vids)
+                {
+                    putLastRecord(lastRecords, rec.id + "::" + vid, rec);
+                }
+            }
+        }
+
+        if(lastRecords.isEmpty()) return;
+
+        // Products with updates waiting in bulk writers are compared with the last
+        // routed record. Hashes are read once: bulk writers could acknowledge updates
+        // at any time.
+        Map<String, Long> routedHashes = new HashMap<>();
+        List<String> lidvids = new ArrayList<>(lastRecords.size());
+        for(String lidvid: lastRecords.keySet())
+        {
+            Long hash = diff.getRoutedHash(lidvid);
+            if(hash == null)
+            {
+                lidvids.add(lidvid);
+            }
+            else
+            {
+                routedHashes.put(lidvid, hash);
+            }
+        }
+
+        Map<String, Map<String, Object>> currentValues = lidvids.isEmpty()
+                ? Collections.emptyMap() : diff.getCurrentValues(lidvids);
+
+        for(Map.Entry<String, SupplementalRecord> entry: lastRecords.entrySet())
+        {
+            String lidvid = entry.getKey();
+            SupplementalRecord rec = entry.getValue();
+
+            boolean changed;
+            Long routedHash = routedHashes.get(lidvid);
+            if(routedHash != null)
+            {
+                changed = diff.isChangedSinceRouted(routedHash, rec);
+            }
+            else
+            {
+                Map<String, Object> current = currentValues.get(lidvid);
+                if(current == null)
+                {
+                    skip(rec);
+                    continue;
+                }
+
+                changed = diff.isChanged(rec, current);
+            }
+
+            if(changed)
+            {
+                // Track the product before a bulk writer could acknowledge the update
+                diff.setRouted(lidvid, rec);
+                lanes.add(lidvid, rec.json, rec.segment);
+            }
+        }
+    }
+
+
+    private void putLastRecord(Map<String, SupplementalRecord> lastRecords, String lidvid, SupplementalRecord rec)
+    {
+        if(lastRecords.put(lidvid, rec) != null) diff.addSuperseded();
+    }
+
+
+    private void skip(SupplementalRecord rec)
+    {
+        if(diff != null) diff.addMissing();
+
+        log.warn("Skipping unregistered product " + rec.id);
+        ctx.addSkipped(1);
+        CheckpointTracker.recordSkipped(rec.segment);
+    }
+}
@@ -0,0 +1,144 @@
+package gov.nasa.pds.supp.cmd.supp;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.elasticsearch.client.ResponseException;
+
+import gov.nasa.pds.supp.dao.BulkItemError;
+
+
+/**
+ * Decides which bulk request failures are transient and how long to wait
+ * before retrying them (exponential backoff with jitter).
+ *
+ * <p>Retryable failures:
+ * <ul>
+ * <li>Rejected requests (429, "es_rejected_execution_exception") - the cluster is overloaded.</li>
+ * <li>Version conflicts (409) - the document was updated concurrently.</li>
+ * <li>Unavailable shards and gateway errors (502, 503, 504) and timeouts.</li>
+ * <li>I/O errors, such as a connection reset.</li>
+ * </ul>
+ * All other failures are permanent.
+ */
+public class RetryPolicy
+{
+    private int maxRetries;
+    private long baseDelayMs;
+    private long maxDelayMs;
+
+
+    /**
+     * Constructor
+     * @param maxRetries max number of retries of a request or an item
+     * @param baseDelayMs delay before the first retry
+     * @param maxDelayMs max delay between retries
+     */
+    public RetryPolicy(int maxRetries, long baseDelayMs, long maxDelayMs)
+    {
+        this.maxRetries = maxRetries;
+        this.baseDelayMs = baseDelayMs;
+        this.maxDelayMs = maxDelayMs;
+    }
+
+
+    /**
+     * Get max number of retries
+     * @return max number of retries
+     */
+    public int getMaxRetries()
+    {
+        return maxRetries;
+    }
+
+
+    /**
+     * Check if a failed bulk item could be retried.
+     * @param err bulk item error
+     * @return true if the error is transient
+     */
+    public boolean isRetryable(BulkItemError err)
+    {
+        if(isRetryableStatus(err.status) || err.status == 409) return true;
+
+        String type = err.type;
+        if(type == null) return false;
+
+        return type.equals("es_rejected_execution_exception")
+                || type.equals("version_conflict_engine_exception")
+                || type.equals("unavailable_shards_exception")
+                || type.contains("timeout");
+    }
+
+
+    /**
+     * Check if a failed request could be retried.
+     * @param ex an exception thrown by Elasticsearch client
+     * @return true if the error is transient
+     */
+    public boolean isRetryable(Exception ex)
+    {
+        if(ex instanceof ResponseException)
+        {
+            return isRetryableStatus(getStatus(ex));
+        }
+
+        // Connection errors, timeouts
+        return ex instanceof IOException;
+    }
+
+
+    /**
+     * Check if the request was rejected because the cluster is overloaded.
+     * @param status HTTP status code
+     * @return true if the request was rejected
+     */
+    public static boolean isRejected(int status)
+    {
+        return status == 429;
+    }
+
+
+    /**
+     * Check if the request was rejected because the cluster is overloaded.
+     * @param ex an exception thrown by Elasticsearch client
+     * @return true if the request was rejected
+     */
+    public static boolean isRejected(Exception ex)
+    {
+        return isRejected(getStatus(ex));
+    }
+
+
+    private static int getStatus(Exception ex)
+    {
+        if(ex instanceof ResponseException)
+        {
+            return ((ResponseException)ex).getResponse().getStatusLine().getStatusCode();
+        }
+
+        return -1;
+    }
+
+
+    private static boolean isRetryableStatus(int status)
+    {
+        return status == 429 || status == 502 || status == 503 || status == 504;
+    }
+
+
+    /**
+     * Get delay before next retry: exponential backoff with "equal jitter",
+     * i.e., a random value between half and full exponential delay.
+     * @param attempt retry number, starting from 0
+     * @return delay in milliseconds
+     */
+    public long getDelay(int attempt)
+    {
+        long delay = baseDelayMs << Math.min(attempt, 20);
+        if(delay <= 0 || delay > maxDelayMs) delay = maxDelayMs;
+
+        long half = delay / 2;
+        return half + ThreadLocalRandom.current().nextLong(half + 1);
+    }
+}
@@ -1,234 +1,500 @@
 package gov.nasa.pds.supp.cmd.supp;
 
+import java.io.File;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import gov.nasa.pds.label.object.TableObject;
-import gov.nasa.pds.label.object.TableRecord;
 import gov.nasa.pds.supp.dao.BulkUpdateJsonBuilder;
+import gov.nasa.pds.supp.dao.ColumnStats;
 import gov.nasa.pds.supp.dao.DaoManager;
 import gov.nasa.pds.supp.dao.RegistryDao;
+import gov.nasa.pds.supp.table.SplittableTableReader;
+import gov.nasa.pds.supp.table.TableReader;
+import gov.nasa.pds.supp.util.LabelUtils;
 
 /**
  * Loads supplemental data from a table data file.
+ *
+ * <p>Data is loaded by a pipeline of stages connected by bounded queues:
+ * <ul>
+ * <li>Reader: reads table records and creates JSON (runs in its own thread).
+ * Fixed-width tables are read from memory-mapped data files (see TableReaderFactory).</li>
+ * <li>Lookup: finds registered products (LIDVIDs) for a batch of records
+ * (runs in the caller's thread).</li>
+ * <li>Bulk writers: call Elasticsearch bulk API (each writer runs in its own thread).</li>
+ * </ul>
+ *
+ * <p>Completed table rows are tracked and saved in a checkpoint file after each
+ * bulk response. A failed or stopped (SIGTERM) load could be resumed from the
+ * last checkpoint.
+ *
  * @author karpenko
  */
 public class SupplementalDataLoader
 {
+    // End of data marker
+    private static final List<SupplementalRecord> END_OF_DATA = new ArrayList<>(0);
+
     private Logger log;
-    private int UPDATE_BATCH_SIZE = 50;
-    
+    private LoaderConfig cfg;
+    private DaoManager daoMgr;
+
     private BulkUpdateJsonBuilder bulkJsonBld;
-    private int updatedRecordCount;
+
+    // Pipeline state of current loadData() call
+    private PipelineContext ctx;
+    private DuplicateCollapser collapser;
 
 
-    /**
-     * A Table record of supplemental data.
-     * NOTE: We could not cache TableRecord instances. 
-     * It is get overwritten on each TableObject.readNext() call and 
-     * there is no clone() or copy constructor.
-     */
-    private static class Record
-    {
-        public String id;
-        public String json;
-    }
-    
-    
     /**
      * Constructor
+     * @param cfg loader configuration
+     * @param daoMgr DAO manager
      */
-    public SupplementalDataLoader()
+    public SupplementalDataLoader(LoaderConfig cfg, DaoManager daoMgr)
     {
         log = LogManager.getLogger(this.getClass());
+        this.cfg = cfg;
+        this.daoMgr = daoMgr;
         bulkJsonBld = new BulkUpdateJsonBuilder();
     }
-    
-    
+
+
     /**
      * Load supplemental data from a table data file.
-     * @param table Table data file (referenced in PDS4 supplemental label XML)
+     * @param labelFile PDS4 supplemental label (used to save checkpoints)
+     * @param reader Table data file reader (table is referenced in PDS4 supplemental label XML)
      * @param esFieldInfo Information about data table columns / fields
      * @throws Exception an exception
      */
-    public void loadData(TableObject table, SupplementalFieldsInfo esFieldInfo) throws Exception
+    public void loadData(File labelFile, TableReader reader, SupplementalFieldsInfo esFieldInfo) throws Exception
     {
-        updatedRecordCount = 0;
-        
-        // LIDs
-        if(esFieldInfo.lidIndex != 0)
+        RegistryDao dao = daoMgr.getRegistryDao();
+
+        if(cfg.optimistic && esFieldInfo.lidIndex != 0)
+        {
+            log.info("Optimistic mode is only supported for LIDVID tables. "
+                    + "Versions of LIDs have to be looked up.");
+        }
+
+        CheckpointTracker tracker = createTracker(labelFile);
+        ctx = new PipelineContext(cfg.maxInflight, tracker);
+        BlockingQueue<List<SupplementalRecord>> readQueue = new ArrayBlockingQueue<>(cfg.maxInflight);
+
+        // Start bulk writers
+        BulkLanes lanes = new BulkLanes(cfg, dao, ctx);
+        RecordRouter router = new RecordRouter(daoMgr.getIdLookup(), ctx, lanes, cfg.optimistic);
+        RecordDiff diff = cfg.diff ? new RecordDiff(dao) : null;
+        router.setDiff(diff);
+        if(diff != null) lanes.setListener(diff::onAcknowledged);
+        UpdateByQueryWriter fanout = (cfg.fanoutVersions > 0 && diff == null)
+                ? new UpdateByQueryWriter(cfg, daoMgr.getUpdateByQueryDao(), ctx) : null;
+        router.setFanout(fanout, cfg.fanoutVersions);
+        collapser = (cfg.dedupRows != 0) ? new DuplicateCollapser(cfg.dedupPolicy) : null;
+
+        // On SIGTERM, stop reading, flush in-flight batches and save the final checkpoint
+        ctx.addShutdownHook();
+
+        // Start reader
+        Thread readerThread = new Thread(() -> readData(reader, esFieldInfo, readQueue), "table-reader");
+        readerThread.start();
+
+        // Lookup stage runs in this thread
+        try
+        {
+            lookupData(esFieldInfo, readQueue, router);
+            lanes.flush();
+            if(fanout != null) fanout.flush();
+        }
+        catch(Exception ex)
+        {
+            ctx.fail(ex);
+        }
+        finally
+        {
+            lanes.finish();
+            readerThread.join();
+
+            tracker.commit();
+            ctx.removeShutdownHook();
+        }
+
+        if(ctx.isFailed())
+        {
+            logCheckpoint(tracker);
+            ctx.checkError();
+        }
+
+        log.info("Updated " + ctx.getUpdatedRecordCount() + " record(s)");
+        if(ctx.getSkippedRecordCount() > 0)
+        {
+            log.info("Skipped " + ctx.getSkippedRecordCount() + " unregistered product(s)");
+        }
+
+        if(collapser != null && collapser.getCollapsedCount() > 0)
+        {
+            log.info("Collapsed " + collapser.getCollapsedCount() + " duplicate row(s)");
+        }
+
+        if(diff != null) diff.logStats();
+
+        if(ctx.getFailedRecordCount() > 0 || ctx.isStopRequested())
         {
-            while(loadLidDataBatch(table, esFieldInfo))
+            logCheckpoint(tracker);
+        }
+
+        ctx.reportFailures();
+        if(ctx.isStopRequested()) throw new Exception("Loading was stopped.");
+
+        // The whole table has been loaded
+        tracker.delete();
+    }
+
+
+    /**
+     * Create checkpoint tracker. If resume is enabled, start from the last checkpoint
+     * of the label, but only if the data file has not been changed.
+     */
+    private CheckpointTracker createTracker(File labelFile) throws Exception
+    {
+        if(cfg.checkpointDir == null) return new CheckpointTracker(null, new Checkpoint());
+
+        File dataFile = LabelUtils.getDataFile(labelFile);
+        if(dataFile == null || !dataFile.exists())
+        {
+            log.warn("Could not find data file of " + labelFile + ". Checkpoints are disabled.");
+            return new CheckpointTracker(null, new Checkpoint());
+        }
+
+        Checkpoint cp = Checkpoint.create(labelFile, dataFile);
+        File file = Checkpoint.getCheckpointFile(cfg.checkpointDir, labelFile);
+
+        if(cfg.resume)
+        {
+            Checkpoint last = Checkpoint.load(file);
+            if(last == null)
             {
-                if(updatedRecordCount % 1000 == 0 && updatedRecordCount != 0)
-                {
-                    log.info("Updated " + updatedRecordCount + " record(s)");
-                }
+                log.info("There is no checkpoint. Starting from the first row.");
+            }
+            else if(!last.isSameData(cp))
+            {
+                log.warn("Data file has been changed since the last checkpoint. Starting from the first row.");
+            }
+            else
+            {
+                cp.rows = last.rows;
+                log.info("Resuming from row " + (cp.rows + 1));
             }
         }
-        // LIDVIDs
-        else if(esFieldInfo.lidVidIndex != 0)
+
+        return new CheckpointTracker(file, cp);
+    }
+
+
+    private void logCheckpoint(CheckpointTracker tracker)
+    {
+        if(tracker.getFile() == null) return;
+
+        log.info("First " + tracker.getCompletedRows() + " row(s) have been loaded. "
+                + "Checkpoint: " + tracker.getFile() + ". Use '-resume' parameter to continue.");
+    }
+
+
+    /**
+     * Reader stage. Reads batches of records from a data table.
+     * If enabled, the table is parsed by several threads.
+     */
+    private void readData(TableReader reader, SupplementalFieldsInfo esFieldInfo,
+            BlockingQueue<List<SupplementalRecord>> readQueue)
+    {
+        ParallelTableParser parser = null;
+
+        try
         {
-            while(loadLidVidDataBatch(table, esFieldInfo))
+            // Rows loaded by previous runs are skipped
+            long startRow = ctx.getTracker().getStartRow();
+
+            if(cfg.parseThreads > 1 && reader instanceof SplittableTableReader)
+            {
+                parser = new ParallelTableParser((SplittableTableReader)reader, esFieldInfo, cfg.parseThreads);
+                parser.start(startRow, cfg.lookupBatch);
+            }
+            else
             {
-                if(updatedRecordCount % 1000 == 0 && updatedRecordCount != 0)
+                if(cfg.parseThreads > 1)
                 {
-                    log.info("Updated " + updatedRecordCount + " record(s)");
+                    log.info("Parallel parsing is not supported for this table. Using one thread.");
                 }
+
+                reader.skip(startRow);
             }
-        }
-        
-        log.info("Updated " + updatedRecordCount + " record(s)");
-    }
 
-    
-    private boolean loadLidDataBatch(TableObject table, SupplementalFieldsInfo esFieldInfo) throws Exception
-    {
-        RegistryDao dao = DaoManager.getInstance().getRegistryDao();
-        
-        StringBuilder json = new StringBuilder();
-        int jsonRecordCount = 0;
-        
-        // Read next batch
-        List<Record> records = readNextBatch(table, esFieldInfo, UPDATE_BATCH_SIZE);
-        if(records.isEmpty()) return false;
-        
-        // Get list of LIDs for this batch
-        List<String> lids = new ArrayList<>();
-        for(Record rec: records)
-        {
-            lids.add(rec.id);
-        }
-
-        // Get vids for batch lids from Elasticsearch
-        Map<String, List<String>> vidMap = dao.findVidsByLids(lids);
-
-        // Create JSON for Elasticsearch bulk update API call
-        for(Record rec: records)
-        {
-            List<String> vids = vidMap.get(rec.id);
-            if(vids == null)
+            if(cfg.dedupRows == LoaderConfig.DEDUP_TABLE)
             {
-                log.warn("Skipping unregistered product " + rec.id);
-                continue;
+                readCollapsedTable(reader, parser, esFieldInfo, readQueue);
+                return;
             }
-            
-            // If there are multiple versions of this LID, reuse the same data line (JSON)
-            for(String vid: vids)
+
+            while(!ctx.isStopRequested())
             {
-                String lidvid = rec.id + "::" + vid;
-                String pkJson = bulkJsonBld.createUpdatePK(lidvid);
-                
-                // NJSON (New Line Delimited JSON) format:
-                // Line 1: primary key / id
-                // Line 2: data
-                json.append(pkJson);
-                json.append("\n");
-                json.append(rec.json);
-                json.append("\n");
-                
-                jsonRecordCount++;
+                List<SupplementalRecord> records = readNextBatch(reader, parser, esFieldInfo);
+                if(records.isEmpty())
+                {
+                    logColumnStats((parser != null) ? parser.getColumnStats() : bulkJsonBld.getColumnStats());
+                    break;
+                }
+
+                if(collapser == null)
+                {
+                    CheckpointTracker.Segment seg = ctx.getTracker().newSegment(records.size());
+                    for(SupplementalRecord rec: records)
+                    {
+                        rec.segment = seg;
+                    }
+
+                    if(!putRecords(readQueue, records)) return;
+                    continue;
+                }
+
+                // Read the rest of the window and collapse duplicate IDs
+                List<SupplementalRecord> window = new ArrayList<>(records);
+                while(window.size() < cfg.dedupRows)
+                {
+                    records = readNextBatch(reader, parser, esFieldInfo);
+                    if(records.isEmpty()) break;
+                    window.addAll(records);
+                }
+
+                int rows = window.size();
+                if(!putSegment(readQueue, collapser.collapse(window), rows)) return;
             }
         }
-        
-        // Update Elasticsearch registry index
-        if(jsonRecordCount != 0)
+        catch(Exception ex)
         {
-            dao.bulkUpdate(json.toString());
-            updatedRecordCount += jsonRecordCount;
+            ctx.fail(ex);
+        }
+        finally
+        {
+            if(parser != null) parser.close();
+
+            try
+            {
+                putRecords(readQueue, END_OF_DATA);
+            }
+            catch(InterruptedException ex)
+            {
+                ctx.fail(ex);
+            }
         }
-        
-        return records.size() == UPDATE_BATCH_SIZE;
     }
-    
 
-    private List<Record> readNextBatch(TableObject table, 
-            SupplementalFieldsInfo esFieldInfo, int batchSize) throws Exception
+
+    /**
+     * Read the whole table, collapse duplicate IDs and send records in ID order.
+     * Records are sorted with bounded memory (see ExternalRecordSorter), so that
+     * records with the same ID are next to each other.
+     * All rows are one segment: a checkpoint is only saved after the whole table is loaded.
+     */
+    private void readCollapsedTable(TableReader reader, ParallelTableParser parser,
+            SupplementalFieldsInfo esFieldInfo, BlockingQueue<List<SupplementalRecord>> readQueue) throws Exception
     {
-        List<Record> records = new ArrayList<>(batchSize);
-        for(int i = 0; i < batchSize; i++)
+        try(ExternalRecordSorter sorter = new ExternalRecordSorter(cfg.tempDir, cfg.sortMemoryBytes))
         {
-            TableRecord trec = table.readNext();
-            if(trec == null) break;
-            
-            Record rec = new Record();
-            // Create data JSON
-            rec.json = bulkJsonBld.createUpdateJson(esFieldInfo, trec);
-
-            // LID
-            if(esFieldInfo.lidIndex != 0)
+            List<SupplementalRecord> records;
+            while(!(records = readNextBatch(reader, parser, esFieldInfo)).isEmpty())
             {
-                rec.id = trec.getString(esFieldInfo.lidIndex).trim(); 
+                if(ctx.isStopRequested() || ctx.isFailed()) return;
+
+                for(SupplementalRecord rec: records)
+                {
+                    sorter.add(rec.id.getBytes(StandardCharsets.UTF_8), rec.json);
+                }
             }
-            
-            // LIDVID overwrites LID
-            if(esFieldInfo.lidVidIndex != 0)
+
+            logColumnStats((parser != null) ? parser.getColumnStats() : bulkJsonBld.getColumnStats());
+            if(sorter.size() == 0) return;
+
+            CheckpointTracker.Segment seg = ctx.getTracker().newSegment((int)sorter.size());
+
+            try(ExternalRecordSorter.RecordIterator it = sorter.sort())
             {
-                rec.id = trec.getString(esFieldInfo.lidVidIndex).trim(); 
+                List<SupplementalRecord> batch = new ArrayList<>(cfg.lookupBatch);
+                SupplementalRecord last = null;
+
+                ExternalRecordSorter.SortRecord sortRec;
+                while((sortRec = it.next()) != null)
+                {
+                    String id = new String(sortRec.key, StandardCharsets.UTF_8);
+
+                    // Duplicate ID (the sort keeps table order of the same IDs)
+                    if(last != null && last.id.equals(id))
+                    {
+                        last.json = collapser.combine(last.json, sortRec.json);
+                        collapser.addCollapsed();
+                        continue;
+                    }
+
+                    if(batch.size() >= cfg.lookupBatch)
+                    {
+                        if(ctx.isStopRequested() || !putBatch(readQueue, batch, seg)) return;
+                        batch = new ArrayList<>(cfg.lookupBatch);
+                    }
+
+                    last = new SupplementalRecord();
+                    last.id = id;
+                    last.json = sortRec.json;
+                    batch.add(last);
+                }
+
+                if(!batch.isEmpty() && !putBatch(readQueue, batch, seg)) return;
             }
-            
-            records.add(rec);
+
+            // All batches of the segment have been queued
+            CheckpointTracker.routed(seg);
+        }
+    }
+
+
+    /**
+     * Add records of a new segment to the read queue in batches of "lookup batch" records.
+     * @param records records to send
+     * @param rows number of table rows of the segment
+     * @return false if the pipeline has failed
+     */
+    private boolean putSegment(BlockingQueue<List<SupplementalRecord>> readQueue,
+            List<SupplementalRecord> records, int rows) throws InterruptedException
+    {
+        CheckpointTracker.Segment seg = ctx.getTracker().newSegment(rows);
+
+        for(int start = 0; start < records.size(); start += cfg.lookupBatch)
+        {
+            int end = Math.min(start + cfg.lookupBatch, records.size());
+            if(!putBatch(readQueue, new ArrayList<>(records.subList(start, end)), seg)) return false;
+        }
+
+        // All batches of the segment have been queued
+        CheckpointTracker.routed(seg);
+        return true;
+    }
+
+
+    /**
+     * Add a batch of a segment to the read queue. The lookup stage acknowledges
+     * each batch, so the segment is not complete until all its batches are routed.
+     */
+    private boolean putBatch(BlockingQueue<List<SupplementalRecord>> readQueue,
+            List<SupplementalRecord> records, CheckpointTracker.Segment seg) throws InterruptedException
+    {
+        for(SupplementalRecord rec: records)
+        {
+            rec.segment = seg;
+        }
+
+        CheckpointTracker.addDocument(seg);
+        return putRecords(readQueue, records);
+    }
+
+
+    /**
+     * Log value dictionary statistics of each field.
+     */
+    private void logColumnStats(List<ColumnStats> stats)
+    {
+        for(ColumnStats cs: stats)
+        {
+            log.info(cs.toString());
         }
-        
-        return records;
     }
-    
-    
-    private boolean loadLidVidDataBatch(TableObject table, SupplementalFieldsInfo esFieldInfo) throws Exception
+
+
+    /**
+     * Add a batch to the read queue. Blocks while the queue is full.
+     * @return false if the pipeline has failed
+     */
+    private boolean putRecords(BlockingQueue<List<SupplementalRecord>> readQueue,
+            List<SupplementalRecord> records) throws InterruptedException
     {
-        RegistryDao dao = DaoManager.getInstance().getRegistryDao();
-        
-        StringBuilder json = new StringBuilder();
-        int jsonRecordCount = 0;
-        
-        // Read next batch
-        List<Record> records = readNextBatch(table, esFieldInfo, UPDATE_BATCH_SIZE);
-        if(records.isEmpty()) return false;
-        
-        // Get list of LIDVIDs for this batch
-        List<String> lidvids = new ArrayList<>();
-        for(Record rec: records)
+        while(!ctx.isFailed())
         {
-            lidvids.add(rec.id);
+            if(readQueue.offer(records, PipelineContext.getPollTimeout(), TimeUnit.MILLISECONDS)) return true;
         }
 
-        // Get existing LIDVIDs for this batch from Elasticsearch
-        Set<String> existingIds = dao.findExistingLidVids(lidvids);
+        return false;
+    }
+
 
-        // Create JSON for Elasticsearch bulk update API call
-        for(Record rec: records)
+    /**
+     * Lookup stage. Finds registered products for each batch of records
+     * and routes bulk update records to the bulk writers.
+     */
+    private void lookupData(SupplementalFieldsInfo esFieldInfo,
+            BlockingQueue<List<SupplementalRecord>> readQueue, RecordRouter router) throws Exception
+    {
+        int maxBatches = Math.max(1, cfg.msearchBatches);
+        List<List<SupplementalRecord>> batches = new ArrayList<>(maxBatches);
+        boolean endOfData = false;
+
+        while(!endOfData)
         {
-            if(!existingIds.contains(rec.id))
+            List<SupplementalRecord> records = readQueue.poll(PipelineContext.getPollTimeout(), TimeUnit.MILLISECONDS);
+            if(ctx.isFailed()) return;
+            if(records == null) continue;
+            if(records == END_OF_DATA) break;
+
+            // Take other batches which are already read (don't wait for the reader)
+            // to look them up with one registry request.
+            batches.clear();
+            batches.add(records);
+            while(batches.size() < maxBatches)
             {
-                log.warn("Skipping unregistered product " + rec.id);
-                continue;
+                records = readQueue.poll();
+                if(records == null) break;
+                if(records == END_OF_DATA)
+                {
+                    endOfData = true;
+                    break;
+                }
+
+                batches.add(records);
+            }
+
+            // LIDs or LIDVIDs
+            if(esFieldInfo.lidIndex != 0 || esFieldInfo.lidVidIndex != 0)
+            {
+                router.route(batches, esFieldInfo.lidIndex != 0);
             }
-            
-            // NJSON (New Line Delimited JSON) format:
-            // Line 1: primary key / id
-            // Line 2: data
-            String pkJson = bulkJsonBld.createUpdatePK(rec.id);
-            json.append(pkJson);
-            json.append("\n");
-            json.append(rec.json);
-            json.append("\n");
-            
-            jsonRecordCount++;
-        }
-        
-        // Update Elasticsearch registry index
-        if(jsonRecordCount != 0)
-        {
-            dao.bulkUpdate(json.toString());
-            updatedRecordCount += jsonRecordCount;
-        }
-        
-        return records.size() == UPDATE_BATCH_SIZE;
+
+            // All records of these segments have been routed
+            for(List<SupplementalRecord> batch: batches)
+            {
+                CheckpointTracker.routed(batch.get(0).segment);
+            }
+        }
+    }
+
+
+    private List<SupplementalRecord> readNextBatch(TableReader reader, ParallelTableParser parser,
+            SupplementalFieldsInfo esFieldInfo) throws Exception
+    {
+        if(parser != null) return parser.nextBatch();
+
+        int batchSize = cfg.lookupBatch;
+        List<SupplementalRecord> records = new ArrayList<>(batchSize);
+        for(int i = 0; i < batchSize; i++)
+        {
+            if(!reader.next()) break;
+
+            records.add(SupplementalRecord.create(reader, esFieldInfo, bulkJsonBld));
+        }
+
+        return records;
     }
 
 }
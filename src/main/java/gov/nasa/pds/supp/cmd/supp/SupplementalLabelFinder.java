@@ -0,0 +1,228 @@
+package gov.nasa.pds.supp.cmd.supp;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import gov.nasa.pds.supp.util.LabelUtils;
+
+
+/**
+ * Reads a manifest (.txt) file with a list of supplemental labels.
+ *
+ * <p>Each line of a manifest file could be one of the following:
+ * <ul>
+ * <li>A label file path. The file is processed as is.</li>
+ * <li>A directory. All Product_Metadata_Supplemental labels (.xml) in the directory
+ * and its subdirectories are processed.</li>
+ * <li>A glob pattern, such as "/data/&#42;&#42;/supp_&#42;.xml". All matching
+ * Product_Metadata_Supplemental labels are processed.</li>
+ * </ul>
+ * Empty lines and lines starting with '#' are ignored.
+ *
+ * <p>Directories are walked in parallel (one task per subdirectory).
+ * Checking if an XML file is a supplemental label requires reading it,
+ * so this is also done by walker tasks.
+ */
+public class SupplementalLabelFinder
+{
+    private Logger log;
+    private int threads;
+    private ForkJoinPool pool;
+
+
+    /**
+     * Directory walker task
+     */
+    private static class WalkTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private Path dir;
+        private PathMatcher matcher;
+        private ConcurrentLinkedQueue<File> out;
+
+
+        WalkTask(Path dir, PathMatcher matcher, ConcurrentLinkedQueue<File> out)
+        {
+            this.dir = dir;
+            this.matcher = matcher;
+            this.out = out;
+        }
+
+
+        @Override
+        protected void compute()
+        {
+            List<WalkTask> subTasks = new ArrayList<>();
+
+            try(DirectoryStream<Path> stream = Files.newDirectoryStream(dir))
+            {
+                for(Path path: stream)
+                {
+                    if(Files.isDirectory(path))
+                    {
+                        WalkTask task = new WalkTask(path, matcher, out);
+                        task.fork();
+                        subTasks.add(task);
+                    }
+                    else if(isCandidate(path) && LabelUtils.isSupplementalLabel(path.toFile()))
+                    {
+                        out.add(path.toFile());
+                    }
+                }
+            }
+            catch(Exception ex)
+            {
+                LogManager.getLogger(SupplementalLabelFinder.class).warn("Could not read directory "
+                        + dir + ": " + ex.getMessage());
+            }
+
+            for(WalkTask task: subTasks)
+            {
+                task.join();
+            }
+        }
+
+
+        private boolean isCandidate(Path path)
+        {
+            if(!path.getFileName().toString().toLowerCase().endsWith(".xml")) return false;
+            return matcher == null || matcher.matches(path);
+        }
+    }
+
+
+    /**
+     * Constructor
+     * @param threads number of directory walker threads
+     */
+    public SupplementalLabelFinder(int threads)
+    {
+        log = LogManager.getLogger(this.getClass());
+        this.threads = threads;
+    }
+
+
+    /**
+     * Get list of labels from a manifest file.
+     * @param manifestPath manifest (.txt) file path
+     * @return list of label files in the order they are listed in the manifest.
+     * Labels found in a directory or by a glob pattern are sorted by path.
+     * Duplicate labels are removed.
+     * @throws Exception an exception
+     */
+    public List<File> findLabels(String manifestPath) throws Exception
+    {
+        Set<File> labels = new LinkedHashSet<>();
+        pool = new ForkJoinPool(threads);
+
+        try(BufferedReader rd = new BufferedReader(new FileReader(manifestPath)))
+        {
+            String line;
+            while((line = rd.readLine()) != null)
+            {
+                line = line.trim();
+
+                // Skip empty lines and comments
+                if(line.isEmpty() || line.startsWith("#")) continue;
+
+                if(isGlob(line))
+                {
+                    labels.addAll(findByGlob(line));
+                }
+                else
+                {
+                    File file = new File(line);
+                    if(file.isDirectory())
+                    {
+                        labels.addAll(walk(file.getAbsoluteFile().toPath(), null));
+                    }
+                    else
+                    {
+                        labels.add(file.getAbsoluteFile());
+                    }
+                }
+            }
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+
+        return new ArrayList<>(labels);
+    }
+
+
+    private List<File> findByGlob(String glob)
+    {
+        // Walk from the longest directory prefix without glob characters
+        Path base = getBaseDir(glob);
+        if(!Files.isDirectory(base))
+        {
+            log.warn("Directory of glob pattern doesn't exist: " + glob);
+            return Collections.emptyList();
+        }
+
+        String pattern = Paths.get(glob).toAbsolutePath().toString();
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+
+        List<File> labels = walk(base.toAbsolutePath(), matcher);
+        if(labels.isEmpty())
+        {
+            log.warn("No supplemental labels match " + glob);
+        }
+
+        return labels;
+    }
+
+
+    private List<File> walk(Path dir, PathMatcher matcher)
+    {
+        ConcurrentLinkedQueue<File> out = new ConcurrentLinkedQueue<>();
+        pool.invoke(new WalkTask(dir, matcher, out));
+
+        List<File> labels = new ArrayList<>(out);
+        Collections.sort(labels);
+        return labels;
+    }
+
+
+    private static boolean isGlob(String str)
+    {
+        for(int i = 0; i < str.length(); i++)
+        {
+            char ch = str.charAt(i);
+            if(ch == '*' || ch == '?' || ch == '[' || ch == '{') return true;
+        }
+
+        return false;
+    }
+
+
+    private static Path getBaseDir(String glob)
+    {
+        String prefix = glob.split("[*?\\[{]", 2)[0];
+        int idx = prefix.lastIndexOf(File.separatorChar);
+        if(idx < 0) return Paths.get(".");
+
+        return Paths.get(idx == 0 ? File.separator : prefix.substring(0, idx));
+    }
+}
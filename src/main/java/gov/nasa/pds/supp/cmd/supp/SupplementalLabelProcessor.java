@@ -3,7 +3,6 @@ package gov.nasa.pds.supp.cmd.supp;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Set;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -12,7 +11,8 @@ import gov.nasa.pds.label.Label;
 import gov.nasa.pds.label.object.FieldDescription;
 import gov.nasa.pds.label.object.TableObject;
 import gov.nasa.pds.supp.dao.DaoManager;
-import gov.nasa.pds.supp.dao.SchemaDao;
+import gov.nasa.pds.supp.table.TableReader;
+import gov.nasa.pds.supp.table.TableReaderFactory;
 import gov.nasa.pds.supp.util.Pds2EsDataTypeMap;
 import gov.nasa.pds.supp.util.Tuple;
 
@@ -28,23 +28,53 @@ import gov.nasa.pds.supp.util.Tuple;
  * from supplemental table by lid / lidvid.</li>
  * </ul>
  * 
+ * <p>This class is not thread-safe. Use one instance per thread.
+ * 
  * @author karpenko
  */
 public class SupplementalLabelProcessor
 {
     private Logger log;
     private Pds2EsDataTypeMap dtMap;
+    private DaoManager daoMgr;
     private SupplementalDataLoader loader;
+    private MergeJoinLoader mergeJoinLoader;
+    private CoalescingLoader coalescer;
+    private TableReaderFactory readerFactory;
     
     
-    public SupplementalLabelProcessor() throws Exception
+    /**
+     * Constructor
+     * @param cfg loader configuration
+     * @param daoMgr DAO manager
+     * @throws Exception an exception
+     */
+    public SupplementalLabelProcessor(LoaderConfig cfg, DaoManager daoMgr) throws Exception
+    {
+        this(cfg, daoMgr, null);
+    }
+
+
+    /**
+     * Constructor
+     * @param cfg loader configuration
+     * @param daoMgr DAO manager
+     * @param coalescer if not null, table records are added to this shared 
+     * loader session instead of being loaded table by table.
+     * @throws Exception an exception
+     */
+    public SupplementalLabelProcessor(LoaderConfig cfg, DaoManager daoMgr, CoalescingLoader coalescer) throws Exception
     {
         log = LogManager.getLogger(this.getClass());
+        this.daoMgr = daoMgr;
         
         dtMap = new Pds2EsDataTypeMap();
         dtMap.load(getPds2EsDataTypeCfgFile());
         
-        loader = new SupplementalDataLoader(); 
+        loader = new SupplementalDataLoader(cfg, daoMgr);
+        if(cfg.mergeJoin) mergeJoinLoader = new MergeJoinLoader(cfg, daoMgr);
+        this.coalescer = coalescer;
+        readerFactory = new TableReaderFactory();
     }
 
     
@@ -58,7 +88,7 @@ public class SupplementalLabelProcessor
         if(!file.exists()) throw new Exception("File doesn't exist: " + file);
         
         Label label = Label.open(file);
-        if(!"ProductMetadataSupplemental".equals(label.getProductClass().getSimpleName()))
+        if(!isSupplemental(label))
         {
             throw new Exception("Could not process this label. "
                     + "Only 'Product_Metadata_Supplemental' labels are supported: " + file);
@@ -75,7 +105,7 @@ public class SupplementalLabelProcessor
 
         // Supplemental products could only have one table
         TableObject table = tables.get(0);
-        processTable(table);
+        processTable(file, table);
         
         label.close();
     }
@@ -83,10 +113,11 @@ public class SupplementalLabelProcessor
     
     /**
      * Process data table of the supplemental product 
+     * @param labelFile supplemental product label
      * @param table supplemental data table
      * @throws Exception an exception
      */
-    private void processTable(TableObject table) throws Exception
+    private void processTable(File labelFile, TableObject table) throws Exception
     {
         // Validate table
         FieldDescription[] fields = table.getFields();
@@ -109,18 +140,74 @@ public class SupplementalLabelProcessor
         updateSchema(esFieldInfo);
         
         // Load data
-        loader.loadData(table, esFieldInfo);
+        try(TableReader reader = readerFactory.create(labelFile, table))
+        {
+            if(coalescer != null)
+            {
+                coalescer.add(labelFile, reader, esFieldInfo);
+            }
+            else if(mergeJoinLoader != null)
+            {
+                mergeJoinLoader.loadData(labelFile, reader, esFieldInfo);
+            }
+            else
+            {
+                loader.loadData(labelFile, reader, esFieldInfo);
+            }
+        }
     }
     
     
     private void updateSchema(SupplementalFieldsInfo info) throws Exception
     {
-        SchemaDao dao = DaoManager.getInstance().getSchemaDao();
-        
-        // Get list of existing supplemental fields from Elasticsearch
-        Set<String> existingFields = dao.getSupplementalFieldNames();
-        
-        List<Tuple> newFields = new ArrayList<>();
+        // Existing supplemental fields are cached for the whole run (all labels and threads).
+        daoMgr.getSchemaCache().addFields(getSchemaFields(info));
+    }
+
+
+    /**
+     * Get supplemental fields of the table of a label, such as
+     * "ops:Supplemental/double:ra". Data is not loaded.
+     * @param file XML file (Product_Metadata_Supplemental product)
+     * @return a list of fields. Each field tuple has a name and a data type.
+     * The list is empty if the label would be rejected by process().
+     * @throws Exception an exception
+     */
+    public List<Tuple> getSchemaFields(File file) throws Exception
+    {
+        Label label = Label.open(file);
+        try
+        {
+            if(!isSupplemental(label)) return new ArrayList<>();
+
+            List<TableObject> tables = label.getObjects(TableObject.class);
+            if(tables == null || tables.isEmpty()) return new ArrayList<>();
+
+            FieldDescription[] fields = tables.get(0).getFields();
+            if(fields == null || fields.length == 0) return new ArrayList<>();
+
+            // LID or LIDVID field is required
+            SupplementalFieldsInfo info = getElasticFieldInfo(fields);
+            if(info.lidIndex == 0 && info.lidVidIndex == 0) return new ArrayList<>();
+
+            return getSchemaFields(info);
+        }
+        finally
+        {
+            label.close();
+        }
+    }
+
+
+    private static boolean isSupplemental(Label label)
+    {
+        return "ProductMetadataSupplemental".equals(label.getProductClass().getSimpleName());
+    }
+
+
+    private static List<Tuple> getSchemaFields(SupplementalFieldsInfo info)
+    {
+        List<Tuple> fields = new ArrayList<>();
         
         // Iterate over supplemental table columns
         // Index starts from 1
@@ -130,20 +217,11 @@ public class SupplementalLabelProcessor
             
             // LID or LIDVID field
             if(name == null) continue;
-            // Field already exists in Elasticsearch
-            if(existingFields.contains(name)) continue;
             
-            // Add non-existing field name and type to the new field list
-            Tuple tuple = new Tuple(name, info.getDataType(i));
-            newFields.add(tuple);
+            fields.add(new Tuple(name, info.getDataType(i)));
         }
         
-        // Update Elasticsearch schema
-        if(!newFields.isEmpty())
-        {
-            log.info("Updating Elasticsearch schema.");
-            dao.updateSchema(newFields);
-        }
+        return fields;
     }
     
     
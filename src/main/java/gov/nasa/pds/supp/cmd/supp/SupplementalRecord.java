@@ -0,0 +1,60 @@
+package gov.nasa.pds.supp.cmd.supp;
+
+import gov.nasa.pds.supp.dao.BulkUpdateJsonBuilder;
+import gov.nasa.pds.supp.table.TableReader;
+
+
+/**
+ * A Table record of supplemental data.
+ * NOTE: We could not cache table reader records.
+ * Field values are overwritten on each TableReader.next() call,
+ * so the ID and update JSON are copied.
+ */
+public class SupplementalRecord
+{
+    /**
+     * LID or LIDVID
+     */
+    public String id;
+
+    /**
+     * UTF-8 encoded bulk update data JSON
+     */
+    public byte[] json;
+
+    /**
+     * Table segment the record was read from (for checkpoints and reporting)
+     */
+    public CheckpointTracker.Segment segment;
+
+
+    /**
+     * Create a record from the current record of a table reader.
+     * @param reader table reader
+     * @param esFieldInfo Information about data table columns / fields
+     * @param bld bulk update JSON builder
+     * @return new record
+     * @throws Exception an exception
+     */
+    public static SupplementalRecord create(TableReader reader, SupplementalFieldsInfo esFieldInfo,
+            BulkUpdateJsonBuilder bld) throws Exception
+    {
+        SupplementalRecord rec = new SupplementalRecord();
+        // Create data JSON
+        rec.json = bld.createUpdateJson(esFieldInfo, reader);
+
+        // LID
+        if(esFieldInfo.lidIndex != 0)
+        {
+            rec.id = reader.getString(esFieldInfo.lidIndex);
+        }
+
+        // LIDVID overwrites LID
+        if(esFieldInfo.lidVidIndex != 0)
+        {
+            rec.id = reader.getString(esFieldInfo.lidVidIndex);
+        }
+
+        return rec;
+    }
+}
@@ -0,0 +1,230 @@
+package gov.nasa.pds.supp.cmd.supp;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import gov.nasa.pds.supp.dao.UpdateByQueryDao;
+
+
+/**
+ * Updates all versions of LIDs on the server side. Used in LID mode for LIDs
+ * with many versions: instead of one bulk update per version, LIDs with the same
+ * field values are updated by one "_update_by_query" request, so the request
+ * size doesn't depend on the number of versions.
+ *
+ * <p>Requests run as asynchronous tasks. Number of running tasks is limited
+ * and each task could be throttled by the registry (requests per second).
+ * Running tasks are polled by the caller's thread.
+ *
+ * <p>Updates of a LID are applied in table order: only the last row of a LID
+ * in a batch is used, and a task is not started while another running task
+ * updates one of its LIDs.
+ *
+ * <p>This class is not thread-safe.
+ */
+public class UpdateByQueryWriter
+{
+    // Max number of LIDs in one request
+    private static final int MAX_LIDS = 1000;
+    // How often to poll running tasks
+    private static final long POLL_INTERVAL_MS = 1000;
+
+    /**
+     * A running update by query task
+     */
+    private static class Task
+    {
+        public String taskId;
+        public List<SupplementalRecord> records;
+    }
+
+    private Logger log;
+    private UpdateByQueryDao dao;
+    private PipelineContext ctx;
+    private int maxTasks;
+    private int requestsPerSecond;
+
+    private List<Task> running = new ArrayList<>();
+    // LIDs of running tasks
+    private Set<String> runningLids = new HashSet<>();
+    private long lastPollTime;
+    private int taskCount;
+
+
+    /**
+     * Constructor
+     * @param cfg loader configuration
+     * @param dao update by query DAO
+     * @param ctx pipeline context
+     */
+    public UpdateByQueryWriter(LoaderConfig cfg, UpdateByQueryDao dao, PipelineContext ctx)
+    {
+        log = LogManager.getLogger(this.getClass());
+        this.dao = dao;
+        this.ctx = ctx;
+
+        maxTasks = Math.max(1, cfg.fanoutTasks);
+        requestsPerSecond = cfg.fanoutRequestsPerSecond;
+    }
+
+
+    /**
+     * Update all versions of the LIDs of given records. Blocks while the max
+     * number of tasks are running.
+     * @param records records with LIDs
+     * @throws Exception an exception
+     */
+    public void add(List<SupplementalRecord> records) throws Exception
+    {
+        if(records.isEmpty()) return;
+
+        // The last row of each LID. Earlier rows are overwritten anyway.
+        Map<String, SupplementalRecord> lastRecords = new LinkedHashMap<>();
+        for(SupplementalRecord rec: records)
+        {
+            lastRecords.put(rec.id, rec);
+        }
+
+        // LIDs with the same field values
+        Map<ByteBuffer, List<SupplementalRecord>> groups = new LinkedHashMap<>();
+        for(SupplementalRecord rec: lastRecords.values())
+        {
+            groups.computeIfAbsent(ByteBuffer.wrap(rec.json), key -> new ArrayList<>()).add(rec);
+        }
+
+        for(List<SupplementalRecord> group: groups.values())
+        {
+            for(int start = 0; start < group.size(); start += MAX_LIDS)
+            {
+                int end = Math.min(start + MAX_LIDS, group.size());
+                start(new ArrayList<>(group.subList(start, end)));
+            }
+        }
+
+        if(System.currentTimeMillis() - lastPollTime >= POLL_INTERVAL_MS) poll();
+    }
+
+
+    /**
+     * Wait for all running tasks.
+     * @throws Exception an exception
+     */
+    public void flush() throws Exception
+    {
+        while(!running.isEmpty() && !ctx.isFailed())
+        {
+            Thread.sleep(POLL_INTERVAL_MS);
+            poll();
+        }
+
+        if(taskCount > 0) log.info("Completed " + taskCount + " update by query task(s)");
+    }
+
+
+    private void start(List<SupplementalRecord> records) throws Exception
+    {
+        // Throttling: wait for a running task. Updates of the same LID are not run concurrently.
+        while(running.size() >= maxTasks || isRunning(records))
+        {
+            if(ctx.isFailed()) return;
+            Thread.sleep(POLL_INTERVAL_MS);
+            poll();
+        }
+
+        List<String> lids = new ArrayList<>(records.size());
+        for(SupplementalRecord rec: records)
+        {
+            lids.add(rec.id);
+            // The record is pending until the task is completed
+            CheckpointTracker.addDocument(rec.segment);
+        }
+
+        Task task = new Task();
+        task.records = records;
+        task.taskId = dao.startUpdateLids(lids, records.get(0).json, requestsPerSecond);
+        running.add(task);
+        runningLids.addAll(lids);
+        taskCount++;
+
+        log.debug("Started update by query task " + task.taskId + " (" + lids.size() + " LID(s))");
+    }
+
+
+    /**
+     * Check running tasks and acknowledge records of completed tasks.
+     */
+    private void poll() throws Exception
+    {
+        lastPollTime = System.currentTimeMillis();
+
+        Iterator<Task> it = running.iterator();
+        while(it.hasNext())
+        {
+            Task task = it.next();
+            UpdateByQueryDao.TaskStatus status = dao.getTaskStatus(task.taskId);
+            if(!status.completed) continue;
+
+            it.remove();
+            for(SupplementalRecord rec: task.records)
+            {
+                runningLids.remove(rec.id);
+            }
+
+            complete(task, status);
+        }
+
+        ctx.getTracker().commit();
+    }
+
+
+    private boolean isRunning(List<SupplementalRecord> records)
+    {
+        if(runningLids.isEmpty()) return false;
+
+        for(SupplementalRecord rec: records)
+        {
+            if(runningLids.contains(rec.id)) return true;
+        }
+
+        return false;
+    }
+
+
+    private void complete(Task task, UpdateByQueryDao.TaskStatus status)
+    {
+        ctx.addUpdated((int)status.updated);
+
+        String reason = null;
+        if(!status.failures.isEmpty())
+        {
+            reason = status.failures.get(0);
+        }
+        else if(status.versionConflicts > 0)
+        {
+            reason = status.versionConflicts + " version conflict(s)";
+        }
+
+        // Failed tasks are reported per LID. Rows of these LIDs are not checkpointed.
+        for(SupplementalRecord rec: task.records)
+        {
+            if(reason == null)
+            {
+                CheckpointTracker.documentUpdated(rec.segment);
+            }
+            else
+            {
+                ctx.addFailure(rec.id, "Update by query task " + task.taskId + ": " + reason);
+                CheckpointTracker.documentFailed(rec.segment);
+            }
+        }
+    }
+}
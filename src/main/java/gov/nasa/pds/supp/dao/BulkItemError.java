@@ -0,0 +1,43 @@
+package gov.nasa.pds.supp.dao;
+
+
+/**
+ * A failed item of Elasticsearch bulk API request.
+ */
+public class BulkItemError
+{
+    /**
+     * Item position in the bulk request (starts from 0).
+     */
+    public int index;
+
+    /**
+     * Document id (primary key)
+     */
+    public String id;
+
+    /**
+     * HTTP status code of the item, such as 404 or 429.
+     */
+    public int status;
+
+    /**
+     * Elasticsearch error type, such as "document_missing_exception".
+     */
+    public String type;
+
+    /**
+     * Error message
+     */
+    public String reason;
+
+
+    /**
+     * Check if the update failed because the document doesn't exist.
+     * @return true if the document doesn't exist
+     */
+    public boolean isDocumentMissing()
+    {
+        return status == 404 && "document_missing_exception".equals(type);
+    }
+}
@@ -0,0 +1,26 @@
+package gov.nasa.pds.supp.dao;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Summary of Elasticsearch bulk API response.
+ */
+public class BulkResult
+{
+    /**
+     * Time in milliseconds it took Elasticsearch to process the request
+     * ("took" field of the response) or -1 if not available.
+     */
+    public long took = -1;
+
+    /**
+     * True if at least one item of the bulk request failed.
+     */
+    public boolean errors;
+
+    /**
+     * Failed items. Empty if there were no errors.
+     */
+    public List<BulkItemError> failedItems = new ArrayList<>();
+}
@@ -0,0 +1,193 @@
+package gov.nasa.pds.supp.dao;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+
+/**
+ * Streaming parser of Elasticsearch bulk API response.
+ *
+ * <p>Bulk requests should filter the response with FILTER_PATH, so that items
+ * only have "_id", "status" and "error" fields. If "errors" field is false,
+ * parsing stops before "items" (Elasticsearch writes "took" and "errors" first),
+ * otherwise failed items are passed to a callback.
+ */
+public class BulkResultParser
+{
+    /**
+     * Value of "filter_path" parameter of bulk API requests
+     */
+    public static final String FILTER_PATH = "took,errors,items.*.error,items.*.status,items.*._id";
+
+    /**
+     * Callback interface
+     */
+    public static interface Callback
+    {
+        /**
+         * Called for each failed item of a bulk request.
+         * @param err failed item
+         */
+        public void onItemError(BulkItemError err);
+    }
+
+    private JsonReader rd;
+    private Callback cb;
+    private BulkResult result;
+
+
+    /**
+     * Parse bulk API response. The input stream is closed by this method.
+     * @param is response body
+     * @param cb callback for failed items
+     * @return bulk API response summary. Note: failed items are only passed to the callback.
+     * @throws IOException an exception
+     */
+    public BulkResult parse(InputStream is, Callback cb) throws IOException
+    {
+        this.cb = cb;
+        result = new BulkResult();
+        rd = new JsonReader(new InputStreamReader(is, StandardCharsets.UTF_8));
+
+        try
+        {
+            rd.beginObject();
+
+            while(rd.hasNext() && rd.peek() != JsonToken.END_OBJECT)
+            {
+                String name = rd.nextName();
+                if("took".equals(name))
+                {
+                    result.took = rd.nextLong();
+                }
+                else if("errors".equals(name))
+                {
+                    result.errors = rd.nextBoolean();
+                    // All items were successful. Don't parse items.
+                    if(!result.errors && result.took >= 0) break;
+                }
+                else if("items".equals(name))
+                {
+                    // There could be no "errors" field before items.
+                    if(!result.errors) break;
+                    parseItems();
+                }
+                else
+                {
+                    rd.skipValue();
+                }
+            }
+        }
+        finally
+        {
+            rd.close();
+        }
+
+        return result;
+    }
+
+
+    /**
+     * Parse "items" array. One item per document of the bulk request.
+     */
+    private void parseItems() throws IOException
+    {
+        rd.beginArray();
+
+        int index = 0;
+        while(rd.hasNext() && rd.peek() != JsonToken.END_ARRAY)
+        {
+            parseItem(index++);
+        }
+
+        rd.endArray();
+    }
+
+
+    /**
+     * Parse an item, such as {"update":{"_id":"...","status":404,"error":{...}}}
+     */
+    private void parseItem(int index) throws IOException
+    {
+        BulkItemError err = new BulkItemError();
+        err.index = index;
+        boolean failed = false;
+
+        rd.beginObject();
+
+        while(rd.hasNext() && rd.peek() != JsonToken.END_OBJECT)
+        {
+            // Operation, such as "update"
+            rd.nextName();
+            rd.beginObject();
+
+            while(rd.hasNext() && rd.peek() != JsonToken.END_OBJECT)
+            {
+                String name = rd.nextName();
+                if("_id".equals(name))
+                {
+                    err.id = rd.nextString();
+                }
+                else if("status".equals(name))
+                {
+                    err.status = rd.nextInt();
+                }
+                else if("error".equals(name))
+                {
+                    failed = true;
+                    parseError(err);
+                }
+                else
+                {
+                    rd.skipValue();
+                }
+            }
+
+            rd.endObject();
+        }
+
+        rd.endObject();
+
+        if(failed) cb.onItemError(err);
+    }
+
+
+    /**
+     * Parse "error" object of an item
+     */
+    private void parseError(BulkItemError err) throws IOException
+    {
+        // Usually an object, but could be a string
+        if(rd.peek() != JsonToken.BEGIN_OBJECT)
+        {
+            err.reason = rd.nextString();
+            return;
+        }
+
+        rd.beginObject();
+
+        while(rd.hasNext() && rd.peek() != JsonToken.END_OBJECT)
+        {
+            String name = rd.nextName();
+            if("type".equals(name) && rd.peek() == JsonToken.STRING)
+            {
+                err.type = rd.nextString();
+            }
+            else if("reason".equals(name) && rd.peek() == JsonToken.STRING)
+            {
+                err.reason = rd.nextString();
+            }
+            else
+            {
+                rd.skipValue();
+            }
+        }
+
+        rd.endObject();
+    }
+}
@@ -1,12 +1,12 @@
 package gov.nasa.pds.supp.dao;
 
-import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
-import com.google.gson.stream.JsonWriter;
-
-import gov.nasa.pds.label.object.TableRecord;
 import gov.nasa.pds.registry.common.util.date.PdsDateConverter;
 import gov.nasa.pds.supp.cmd.supp.SupplementalFieldsInfo;
+import gov.nasa.pds.supp.table.TableReader;
 
 /**
  * Builds JSON for Elasticsearch Bulk Update API call. 
@@ -17,75 +17,44 @@ public class BulkUpdateJsonBuilder
 {
     PdsDateConverter dateConv = new PdsDateConverter(false);
     
-    /**
-     * Create primary key JSON for bulk update request
-     * @param id primary key
-     * @return JSON
-     * @throws Exception an exception
-     */
-    public String createUpdatePK(String id) throws Exception
-    {
-        StringWriter sw = new StringWriter();
-        JsonWriter jw = new JsonWriter(sw);
-        
-        jw.beginObject();
-        
-        jw.name("update");
-        jw.beginObject();
-        jw.name("_id").value(id);
-        jw.endObject();
-        
-        jw.endObject();
-        
-        jw.close();        
-        return sw.getBuffer().toString();
-    }
+    // Reusable buffer
+    private NdJsonEntity buf = new NdJsonEntity(4096);
+    // Encoding plan of current table
+    private EncodingPlan plan;
 
     
     /**
-     * Create bulk update API data line (line 2) of 2 line NJSON record.
+     * Create bulk update API data line (line 2) of 2 line NJSON record
+     * from the current record of a table reader.
+     * The encoding plan is compiled on the first record of a table.
      * @param esFieldInfo Information about data table columns / fields
-     * @param rec a record from table data
-     * @return JSON
+     * @param reader table reader positioned on a record
+     * @return UTF-8 encoded JSON
      * @throws Exception an exception
      */
-    public String createUpdateJson(SupplementalFieldsInfo esFieldInfo, TableRecord rec) throws Exception
+    public byte[] createUpdateJson(SupplementalFieldsInfo esFieldInfo, TableReader reader) throws Exception
     {
-        StringWriter sw = new StringWriter();
-        JsonWriter jw = new JsonWriter(sw);
-
-        jw.beginObject();
-        jw.name("doc");
-        jw.beginObject();
-
-        // Index starts from 1
-        for(int i = 1; i< esFieldInfo.size(); i++)
+        if(plan == null || !plan.isCompiledFrom(esFieldInfo))
         {
-            String fieldName = esFieldInfo.getName(i);
-            String dataType = esFieldInfo.getDataType(i);
-            
-            // LID / LIDVID
-            if(dataType == null)
-            {
-                continue;
-            }
-            
-            String fieldValue = rec.getString(i).trim();
-            
-            // Convert dates to "ISO instant" format
-            if("date".equals(dataType))
-            {
-                fieldValue = dateConv.toIsoInstantString(fieldName, fieldValue);
-            }
-            
-            jw.name(fieldName).value(fieldValue);
+            plan = new EncodingPlan(esFieldInfo, dateConv);
         }
-        
-        jw.endObject();
-        jw.endObject();
-        
-        jw.close();        
-        return sw.getBuffer().toString();
+
+        buf.reset();
+        plan.encode(reader, buf);
+
+        // The record is kept until its products are looked up, so it is copied once.
+        return Arrays.copyOf(buf.getBuffer(), buf.length());
     }
-    
+
+
+    /**
+     * Get value dictionary statistics of the last encoded table.
+     * @return statistics by field
+     */
+    public List<ColumnStats> getColumnStats()
+    {
+        if(plan == null) return Collections.emptyList();
+        return plan.getColumnStats();
+    }
+
 }
@@ -0,0 +1,62 @@
+package gov.nasa.pds.supp.dao;
+
+
+/**
+ * Value dictionary statistics of a supplemental table column.
+ */
+public class ColumnStats
+{
+    public String name;
+
+    // Number of encoded values
+    public long rows;
+    // Number of values copied from the dictionary
+    public long hits;
+    // Number of distinct values in the dictionary
+    public int distinct;
+
+    // The dictionary was disabled after this number of rows (0 - enabled)
+    public long disabledAt;
+
+
+    /**
+     * Constructor
+     * @param name field name
+     */
+    public ColumnStats(String name)
+    {
+        this.name = name;
+    }
+
+
+    /**
+     * Add statistics of the same column collected by another thread.
+     * Each thread has its own dictionary, so the number of distinct values
+     * is the maximum of all dictionaries.
+     * @param other statistics of the same column
+     */
+    public void merge(ColumnStats other)
+    {
+        rows += other.rows;
+        hits += other.hits;
+        distinct = Math.max(distinct, other.distinct);
+
+        if(other.disabledAt > 0 && (disabledAt == 0 || other.disabledAt < disabledAt))
+        {
+            disabledAt = other.disabledAt;
+        }
+    }
+
+
+    @Override
+    public String toString()
+    {
+        if(disabledAt > 0)
+        {
+            return name + ": high cardinality, dictionary disabled after " + disabledAt + " row(s)";
+        }
+
+        long pct = (rows == 0) ? 0 : hits * 100 / rows;
+        return name + ": " + distinct + " distinct value(s), " + pct + "% dictionary hits";
+    }
+}
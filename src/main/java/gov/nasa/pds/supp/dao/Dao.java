@@ -1,9 +1,21 @@
 package gov.nasa.pds.supp.dao;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
 import org.elasticsearch.client.RestClient;
 
+import com.google.gson.Gson;
+
+import gov.nasa.pds.registry.common.util.CloseUtils;
+
 /**
  * Base data access object (DAO)
  * @author karpenko
@@ -16,6 +28,7 @@ public class Dao
     protected RestClient client;
     protected String indexName;
     protected boolean pretty = false;
+    protected RequestCompressor compressor;
 
     
     /**
@@ -31,4 +44,89 @@ public class Dao
         log = LogManager.getLogger(this.getClass());
     }
 
+
+    /**
+     * Enable request compression.
+     * @param compressor request compressor or null to disable compression.
+     */
+    public void setCompressor(RequestCompressor compressor)
+    {
+        this.compressor = compressor;
+    }
+
+
+    /**
+     * Set JSON request body. Compress it if compression is enabled.
+     * @param req Elasticsearch request
+     * @param json JSON
+     * @throws IOException an exception
+     */
+    protected void setJsonEntity(Request req, String json) throws IOException
+    {
+        if(compressor == null)
+        {
+            req.setJsonEntity(json);
+        }
+        else
+        {
+            compressor.setJsonEntity(req, json);
+        }
+    }
+
+
+    /**
+     * Set bulk request body. Compress it if compression is enabled.
+     * Use getContent() to read the response.
+     * @param req Elasticsearch request
+     * @param entity NJSON request body
+     * @throws IOException an exception
+     */
+    protected void setBulkEntity(Request req, NdJsonEntity entity) throws IOException
+    {
+        if(compressor == null)
+        {
+            req.setEntity(entity);
+        }
+        else
+        {
+            compressor.setEntity(req, entity);
+        }
+    }
+
+
+    /**
+     * Get response body. Handles compressed responses.
+     * @param resp Elasticsearch response
+     * @return response body input stream
+     * @throws IOException an exception
+     */
+    protected static InputStream getContent(Response resp) throws IOException
+    {
+        return RequestCompressor.getContent(resp);
+    }
+
+
+    /**
+     * Parse JSON response body. Handles compressed responses.
+     * @param resp Elasticsearch response
+     * @return parsed JSON object
+     * @throws Exception an exception
+     */
+    @SuppressWarnings("rawtypes")
+    protected static Map parseJson(Response resp) throws Exception
+    {
+        InputStream is = getContent(resp);
+        try
+        {
+            Gson gson = new Gson();
+            Map json = (Map)gson.fromJson(new InputStreamReader(is, StandardCharsets.UTF_8), Object.class);
+            if(json == null) throw new Exception("Empty response");
+            return json;
+        }
+        finally
+        {
+            CloseUtils.close(is);
+        }
+    }
+
 }
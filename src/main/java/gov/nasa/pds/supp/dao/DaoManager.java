@@ -5,35 +5,45 @@ import org.elasticsearch.client.RestClient;
 import gov.nasa.pds.supp.dao.doi.DoiDao;
 
 /**
- * A singleton to store DAO references.
+ * Stores DAO references. DAOs are thread-safe and could be shared by multiple threads.
+ *
+ * <p>Multi-threaded commands should create their own instance and pass it to workers.
+ * Static instance (see init() / getInstance()) is kept for single-threaded commands.
  * 
  * @author karpenko
  */
 public final class DaoManager
 {
-    private static DaoManager instance;
+    private static volatile DaoManager instance;
     
     private RegistryDao registryDao;
     private SchemaDao schemaDao;
     private DoiDao doiDao;
+    private SnapshotDao snapshotDao;
+    private UpdateByQueryDao updateByQueryDao;
+    private SchemaCache schemaCache;
+    private IdLookup idLookup;
     
     
     /**
-     * Private constructor. Use getInstance() instead.
+     * Constructor
      * @param client Elasticsearch client
      * @param esIndex Elasticsearch index name
      */
-    private DaoManager(RestClient client, String esIndex)
+    public DaoManager(RestClient client, String esIndex)
     {
         registryDao = new RegistryDao(client, esIndex);
         schemaDao = new SchemaDao(client, esIndex);
         doiDao = new DoiDao(client, esIndex);
+        snapshotDao = new SnapshotDao(client, esIndex);
+        updateByQueryDao = new UpdateByQueryDao(client, esIndex);
+        schemaCache = new SchemaCache(schemaDao);
     }
     
     
     /**
-     * Get singleton instance
-     * @return singleton instance
+     * Get static instance
+     * @return static instance
      */
     public static DaoManager getInstance()
     {
@@ -42,16 +52,30 @@ public final class DaoManager
     
     
     /**
-     * Init DAO manager
+     * Init static instance
      * @param client Elasticsearch client
      * @param esIndex Elasticsearch index name
      */
-    public static void init(RestClient client, String esIndex)
+    public static synchronized void init(RestClient client, String esIndex)
     {
         instance = new DaoManager(client, esIndex);
     }
     
     
+    /**
+     * Enable or disable request compression in all DAOs.
+     * @param compressor request compressor or null to disable compression.
+     */
+    public void setCompressor(RequestCompressor compressor)
+    {
+        registryDao.setCompressor(compressor);
+        schemaDao.setCompressor(compressor);
+        doiDao.setCompressor(compressor);
+        snapshotDao.setCompressor(compressor);
+        updateByQueryDao.setCompressor(compressor);
+    }
+    
+    
     /**
      * Get RegistryDao
      * @return RegistryDao
@@ -72,6 +96,16 @@ public final class DaoManager
     }
 
     
+    /**
+     * Get supplemental fields cache of the registry schema (shared by all threads of a run)
+     * @return schema cache
+     */
+    public SchemaCache getSchemaCache()
+    {
+        return schemaCache;
+    }
+
+    
     /**
      * Get SchemaDao
      * @return SchemaDao
@@ -81,4 +115,45 @@ public final class DaoManager
         return doiDao;
     }
 
+
+    /**
+     * Get SnapshotDao
+     * @return SnapshotDao
+     */
+    public SnapshotDao getSnapshotDao()
+    {
+        return snapshotDao;
+    }
+
+
+    /**
+     * Get UpdateByQueryDao
+     * @return UpdateByQueryDao
+     */
+    public UpdateByQueryDao getUpdateByQueryDao()
+    {
+        return updateByQueryDao;
+    }
+
+
+    /**
+     * Set lookup of registered products, such as a local ID snapshot.
+     * @param idLookup ID lookup or null to query the registry
+     */
+    public void setIdLookup(IdLookup idLookup)
+    {
+        this.idLookup = idLookup;
+    }
+
+
+    /**
+     * Get lookup of registered products. By default, products are looked up
+     * in the registry (RegistryDao).
+     * @return ID lookup
+     */
+    public IdLookup getIdLookup()
+    {
+        return (idLookup != null) ? idLookup : registryDao;
+    }
+
 }
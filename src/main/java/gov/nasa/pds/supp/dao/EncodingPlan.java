@@ -0,0 +1,203 @@
+package gov.nasa.pds.supp.dao;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import gov.nasa.pds.registry.common.util.date.PdsDateConverter;
+import gov.nasa.pds.supp.cmd.supp.SupplementalFieldsInfo;
+import gov.nasa.pds.supp.table.TableReader;
+import gov.nasa.pds.supp.util.DateColumnConverter;
+
+
+/**
+ * Bulk update JSON encoding plan of a supplemental table. The plan is compiled
+ * once per table from SupplementalFieldsInfo.
+ *
+ * <p>A plan has a pre-escaped UTF-8 fragment for each field name, such as
+ * <code>,"ops:Supplemental/double:ra":</code>, and a value encoder for the
+ * Elasticsearch data type of each field. Encoding a record only copies
+ * fragments and field values into the output buffer. Values of each field are
+ * cached in a value dictionary (see ValueDictionary).
+ *
+ * <p>A plan is not thread-safe (date converter is not thread-safe).
+ */
+public class EncodingPlan
+{
+    /**
+     * Encodes a field value of the current table record as a JSON value.
+     */
+    public static interface ValueEncoder
+    {
+        /**
+         * Append field value to the output buffer.
+         * @param reader table reader positioned on a record
+         * @param index field index. Note, index starts from 1.
+         * @param out output buffer
+         * @throws Exception an exception
+         */
+        public void encode(TableReader reader, int index, NdJsonEntity out) throws Exception;
+    }
+
+
+    private static final ValueEncoder STRING = (reader, index, out) -> reader.appendJsonValue(index, out);
+    private static final ValueEncoder NUMBER = (reader, index, out) -> reader.appendJsonNumber(index, out);
+    private static final ValueEncoder BOOLEAN = (reader, index, out) -> reader.appendJsonBoolean(index, out);
+
+
+    /**
+     * Converts dates to "ISO instant" format. Each date column has its own
+     * converter with detected format and cache.
+     */
+    private static class DateEncoder implements ValueEncoder
+    {
+        private DateColumnConverter dateConv;
+
+        public DateEncoder(PdsDateConverter dateConv, String fieldName)
+        {
+            this.dateConv = new DateColumnConverter(dateConv, fieldName);
+        }
+
+        @Override
+        public void encode(TableReader reader, int index, NdJsonEntity out) throws Exception
+        {
+            String value = dateConv.toIsoInstantString(reader.getString(index));
+            if(value == null)
+            {
+                out.appendUtf8("null");
+            }
+            else
+            {
+                out.appendJsonString(value);
+            }
+        }
+    }
+
+
+    private static final byte[] SUFFIX = { '}', '}' };
+
+    private SupplementalFieldsInfo esFieldInfo;
+
+    // Per encoded field (LID / LIDVID fields are not encoded)
+    private int[] indices;
+    private byte[][] fragments;
+    private ValueDictionary[] encoders;
+
+
+    /**
+     * Compile an encoding plan.
+     * @param esFieldInfo Information about data table columns / fields
+     * @param dateConv date converter
+     */
+    public EncodingPlan(SupplementalFieldsInfo esFieldInfo, PdsDateConverter dateConv)
+    {
+        this.esFieldInfo = esFieldInfo;
+
+        List<Integer> fieldIndices = new ArrayList<>();
+
+        // Index starts from 1
+        for(int i = 1; i <= esFieldInfo.size(); i++)
+        {
+            // LID / LIDVID
+            if(esFieldInfo.getDataType(i) == null) continue;
+            fieldIndices.add(i);
+        }
+
+        int count = fieldIndices.size();
+        indices = new int[count];
+        fragments = new byte[count][];
+        encoders = new ValueDictionary[count];
+
+        NdJsonEntity buf = new NdJsonEntity(256);
+
+        for(int i = 0; i < count; i++)
+        {
+            int index = fieldIndices.get(i);
+            String name = esFieldInfo.getName(index);
+            indices[i] = index;
+
+            // The first fragment also opens the document
+            buf.reset();
+            buf.appendUtf8(i == 0 ? "{\"doc\":{" : ",");
+            buf.appendJsonString(name);
+            buf.append(':');
+            fragments[i] = Arrays.copyOf(buf.getBuffer(), buf.length());
+
+            ValueEncoder encoder = createEncoder(esFieldInfo.getDataType(index), name, dateConv);
+            encoders[i] = new ValueDictionary(encoder, name);
+        }
+    }
+
+
+    /**
+     * Check if this plan was compiled from given field info.
+     * @param info Information about data table columns / fields
+     * @return true if the plan could be used to encode records of this table
+     */
+    public boolean isCompiledFrom(SupplementalFieldsInfo info)
+    {
+        return esFieldInfo == info;
+    }
+
+
+    /**
+     * Get value dictionary statistics of encoded fields.
+     * @return statistics by field
+     */
+    public List<ColumnStats> getColumnStats()
+    {
+        List<ColumnStats> list = new ArrayList<>(encoders.length);
+        for(ValueDictionary encoder: encoders)
+        {
+            list.add(encoder.getStats());
+        }
+
+        return list;
+    }
+
+
+    /**
+     * Append bulk update API data line (line 2) of 2 line NJSON record,
+     * without new line character.
+     * @param reader table reader positioned on a record
+     * @param out output buffer
+     * @throws Exception an exception
+     */
+    public void encode(TableReader reader, NdJsonEntity out) throws Exception
+    {
+        if(indices.length == 0)
+        {
+            out.appendUtf8("{\"doc\":{");
+        }
+
+        for(int i = 0; i < indices.length; i++)
+        {
+            out.append(fragments[i]);
+            encoders[i].encode(reader, indices[i], out);
+        }
+
+        out.append(SUFFIX);
+    }
+
+
+    private static ValueEncoder createEncoder(String esType, String fieldName, PdsDateConverter dateConv)
+    {
+        switch(esType)
+        {
+        case "date":
+            return new DateEncoder(dateConv, fieldName);
+        case "integer":
+        case "long":
+        case "short":
+        case "byte":
+        case "double":
+        case "float":
+            return NUMBER;
+        case "boolean":
+            return BOOLEAN;
+        default:
+            // keyword, text
+            return STRING;
+        }
+    }
+}
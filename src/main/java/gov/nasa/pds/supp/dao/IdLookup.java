@@ -0,0 +1,54 @@
+package gov.nasa.pds.supp.dao;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * Finds registered products (LIDVIDs) by LIDs or LIDVIDs.
+ * Implemented by RegistryDao (registry queries) and IdSnapshot (local snapshot file).
+ * Implementations are thread-safe.
+ */
+public interface IdLookup
+{
+    /**
+     * Find vids by lids. Returns all versions of each lid.
+     * @param lids collection of lids
+     * @param map results are added to this map: key = lid, value = list of vids
+     * @throws Exception an exception
+     */
+    public void findVidsByLids(Collection<String> lids, Map<String, List<String>> map) throws Exception;
+
+
+    /**
+     * Find existing lidvids
+     * @param lidvids collection of lidvids
+     * @return a set of existing lidvids
+     * @throws Exception an exception
+     */
+    public Set<String> findExistingLidVids(Collection<String> lidvids) throws Exception;
+
+
+    /**
+     * Look up several batches at once. Results are saved in each batch.
+     * By default, each batch is looked up separately.
+     * @param batches batches of LIDs or LIDVIDs
+     * @throws Exception an exception
+     */
+    public default void lookup(List<LookupBatch> batches) throws Exception
+    {
+        for(LookupBatch batch: batches)
+        {
+            if(batch.lids)
+            {
+                findVidsByLids(batch.ids, batch.vids);
+            }
+            else
+            {
+                batch.existing = findExistingLidVids(batch.ids);
+            }
+        }
+    }
+}
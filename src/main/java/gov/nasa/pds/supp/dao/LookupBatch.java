@@ -0,0 +1,47 @@
+package gov.nasa.pds.supp.dao;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * A batch of LIDs or LIDVIDs to look up and its results.
+ * Several batches could be looked up in one registry request (see IdLookup.lookup()).
+ */
+public class LookupBatch
+{
+    /**
+     * If true, ids are LIDs, otherwise LIDVIDs.
+     */
+    public boolean lids;
+
+    /**
+     * LIDs or LIDVIDs to look up
+     */
+    public List<String> ids;
+
+    /**
+     * Result for LIDs: key = lid, value = list of vids
+     */
+    public Map<String, List<String>> vids;
+
+    /**
+     * Result for LIDVIDs: existing lidvids
+     */
+    public Set<String> existing;
+
+
+    /**
+     * Constructor
+     * @param lids if true, ids are LIDs, otherwise LIDVIDs.
+     * @param ids LIDs or LIDVIDs to look up
+     */
+    public LookupBatch(boolean lids, List<String> ids)
+    {
+        this.lids = lids;
+        this.ids = ids;
+        if(lids) vids = new HashMap<>();
+    }
+}
@@ -0,0 +1,112 @@
+package gov.nasa.pds.supp.dao;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+
+/**
+ * Counts registry lookup requests by lookup strategy.
+ *
+ * <p>This class is thread-safe.
+ */
+public class LookupMetrics
+{
+    /**
+     * Lookup strategy
+     */
+    public static enum Strategy
+    {
+        /** LIDVIDs of one batch, "_mget" API */
+        MGET("_mget"),
+        /** LIDs of one batch, "terms" query paged with "search_after" */
+        TERMS("terms"),
+        /** Several batches in one "_msearch" request */
+        MSEARCH("_msearch");
+
+        private String name;
+
+        private Strategy(String name)
+        {
+            this.name = name;
+        }
+    }
+
+
+    /**
+     * Counters of a strategy
+     */
+    private static class Counters
+    {
+        public AtomicLong requests = new AtomicLong();
+        public AtomicLong batches = new AtomicLong();
+        public AtomicLong ids = new AtomicLong();
+        public AtomicLong timeMs = new AtomicLong();
+    }
+
+
+    private Logger log;
+    private Counters[] counters;
+
+
+    /**
+     * Constructor
+     */
+    public LookupMetrics()
+    {
+        log = LogManager.getLogger(this.getClass());
+
+        counters = new Counters[Strategy.values().length];
+        for(int i = 0; i < counters.length; i++)
+        {
+            counters[i] = new Counters();
+        }
+    }
+
+
+    /**
+     * Record a lookup.
+     * @param strategy lookup strategy
+     * @param requests number of requests (pages)
+     * @param batches number of batches
+     * @param ids number of LIDs / LIDVIDs
+     * @param timeMs lookup time in milliseconds
+     */
+    public void record(Strategy strategy, int requests, int batches, int ids, long timeMs)
+    {
+        Counters c = counters[strategy.ordinal()];
+        c.requests.addAndGet(requests);
+        c.batches.addAndGet(batches);
+        c.ids.addAndGet(ids);
+        c.timeMs.addAndGet(timeMs);
+    }
+
+
+    /**
+     * Get number of requests of a strategy.
+     * @param strategy lookup strategy
+     * @return number of requests
+     */
+    public long getRequestCount(Strategy strategy)
+    {
+        return counters[strategy.ordinal()].requests.get();
+    }
+
+
+    /**
+     * Log number of lookup requests, batches, IDs and average request time of each strategy.
+     */
+    public void logStats()
+    {
+        for(Strategy strategy: Strategy.values())
+        {
+            Counters c = counters[strategy.ordinal()];
+            long requests = c.requests.get();
+            if(requests == 0) continue;
+
+            log.info("Lookup " + strategy.name + ": " + requests + " request(s), " + c.batches.get()
+                    + " batch(es), " + c.ids.get() + " ID(s), average time " + (c.timeMs.get() / requests) + " ms");
+        }
+    }
+}
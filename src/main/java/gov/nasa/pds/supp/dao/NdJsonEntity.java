@@ -0,0 +1,792 @@
+package gov.nasa.pds.supp.dao;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+
+
+/**
+ * HTTP request body for Elasticsearch bulk API.
+ *
+ * <p>NJSON (New Line Delimited JSON) records are encoded to UTF-8 directly into
+ * a byte buffer as they are created. The buffer is sent to the socket as is,
+ * without converting it to a String or copying it to another byte array.
+ * The buffer could be reused by calling reset() after the request is completed.
+ */
+public class NdJsonEntity extends AbstractHttpEntity
+{
+    private static final int DEFAULT_CAPACITY = 64 * 1024;
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] UPDATE_PREFIX = "{\"update\":{\"_id\":".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] UPDATE_SUFFIX = "}}\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NULL = "null".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TRUE = "true".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] FALSE = "false".getBytes(StandardCharsets.US_ASCII);
+
+    private byte[] buf;
+    private int len;
+
+    // High surrogate of a surrogate pair split between two write() calls
+    private char pendingHighSurrogate;
+    private Writer writer;
+    // Reusable buffer to format floating point numbers
+    private StringBuilder numBuf = new StringBuilder(32);
+
+
+    /**
+     * Constructor
+     * @param capacity initial buffer capacity in bytes
+     */
+    public NdJsonEntity(int capacity)
+    {
+        buf = new byte[capacity];
+        setContentType(ContentType.APPLICATION_JSON.toString());
+    }
+
+
+    /**
+     * Constructor
+     */
+    public NdJsonEntity()
+    {
+        this(DEFAULT_CAPACITY);
+    }
+
+
+    /**
+     * Clear the buffer. Buffer memory is reused.
+     */
+    public void reset()
+    {
+        len = 0;
+        pendingHighSurrogate = 0;
+    }
+
+
+    /**
+     * Get buffer capacity
+     * @return capacity in bytes
+     */
+    public int capacity()
+    {
+        return buf.length;
+    }
+
+
+    /**
+     * Get content length
+     * @return number of bytes in the buffer
+     */
+    public int length()
+    {
+        return len;
+    }
+
+
+    /**
+     * Truncate the buffer. Used to remove last record(s).
+     * @param length new length. Should not be greater than current length.
+     */
+    public void setLength(int length)
+    {
+        if(length < 0 || length > len) throw new IllegalArgumentException("Invalid length: " + length);
+        len = length;
+        pendingHighSurrogate = 0;
+    }
+
+
+    /**
+     * Get internal buffer. Only first length() bytes are valid.
+     * @return internal buffer
+     */
+    public byte[] getBuffer()
+    {
+        return buf;
+    }
+
+
+    private void ensureCapacity(int extra)
+    {
+        int required = len + extra;
+        if(required < 0) throw new OutOfMemoryError("Request is too large");
+        if(required <= buf.length) return;
+
+        int newCapacity = Math.max(buf.length * 2, required);
+        if(newCapacity < 0) newCapacity = required;
+        buf = Arrays.copyOf(buf, newCapacity);
+    }
+
+
+    /**
+     * Append one byte (ASCII character)
+     * @param b a byte
+     */
+    public void append(int b)
+    {
+        ensureCapacity(1);
+        buf[len++] = (byte)b;
+    }
+
+
+    /**
+     * Append bytes
+     * @param bytes source array
+     * @param offset offset in the source array
+     * @param length number of bytes to copy
+     */
+    public void append(byte[] bytes, int offset, int length)
+    {
+        ensureCapacity(length);
+        System.arraycopy(bytes, offset, buf, len, length);
+        len += length;
+    }
+
+
+    /**
+     * Append bytes
+     * @param bytes source array
+     */
+    public void append(byte[] bytes)
+    {
+        append(bytes, 0, bytes.length);
+    }
+
+
+    /**
+     * Append bytes
+     * @param src source buffer
+     * @param offset absolute offset in the source buffer
+     * @param length number of bytes to copy
+     */
+    public void append(ByteBuffer src, int offset, int length)
+    {
+        ensureCapacity(length);
+        for(int i = offset; i < offset + length; i++)
+        {
+            buf[len++] = src.get(i);
+        }
+    }
+
+
+    /**
+     * Encode characters to UTF-8 and append to the buffer.
+     * @param str a string
+     */
+    public void appendUtf8(CharSequence str)
+    {
+        int size = str.length();
+        ensureCapacity(size);
+
+        for(int i = 0; i < size; i++)
+        {
+            char ch = str.charAt(i);
+            // Fast path for ASCII
+            if(ch < 0x80 && pendingHighSurrogate == 0 && len < buf.length)
+            {
+                buf[len++] = (byte)ch;
+            }
+            else
+            {
+                appendUtf8(ch);
+            }
+        }
+    }
+
+
+    /**
+     * Encode a character to UTF-8 and append to the buffer.
+     * @param ch a character
+     */
+    public void appendUtf8(char ch)
+    {
+        if(pendingHighSurrogate != 0)
+        {
+            char high = pendingHighSurrogate;
+            pendingHighSurrogate = 0;
+
+            if(Character.isLowSurrogate(ch))
+            {
+                appendCodePoint(Character.toCodePoint(high, ch));
+                return;
+            }
+
+            // Invalid surrogate pair
+            append('?');
+        }
+
+        if(Character.isHighSurrogate(ch))
+        {
+            pendingHighSurrogate = ch;
+        }
+        else if(Character.isLowSurrogate(ch))
+        {
+            // Invalid surrogate pair
+            append('?');
+        }
+        else
+        {
+            appendCodePoint(ch);
+        }
+    }
+
+
+    private void appendCodePoint(int cp)
+    {
+        ensureCapacity(4);
+
+        if(cp < 0x80)
+        {
+            buf[len++] = (byte)cp;
+        }
+        else if(cp < 0x800)
+        {
+            buf[len++] = (byte)(0xC0 | (cp >> 6));
+            buf[len++] = (byte)(0x80 | (cp & 0x3F));
+        }
+        else if(cp < 0x10000)
+        {
+            buf[len++] = (byte)(0xE0 | (cp >> 12));
+            buf[len++] = (byte)(0x80 | ((cp >> 6) & 0x3F));
+            buf[len++] = (byte)(0x80 | (cp & 0x3F));
+        }
+        else
+        {
+            buf[len++] = (byte)(0xF0 | (cp >> 18));
+            buf[len++] = (byte)(0x80 | ((cp >> 12) & 0x3F));
+            buf[len++] = (byte)(0x80 | ((cp >> 6) & 0x3F));
+            buf[len++] = (byte)(0x80 | (cp & 0x3F));
+        }
+    }
+
+
+    /**
+     * Append a quoted and escaped JSON string value.
+     * @param str a string
+     */
+    public void appendJsonString(CharSequence str)
+    {
+        append('"');
+
+        for(int i = 0; i < str.length(); i++)
+        {
+            char ch = str.charAt(i);
+            switch(ch)
+            {
+            case '"':
+                append('\\');
+                append('"');
+                break;
+            case '\\':
+                append('\\');
+                append('\\');
+                break;
+            case '\n':
+                append('\\');
+                append('n');
+                break;
+            case '\r':
+                append('\\');
+                append('r');
+                break;
+            case '\t':
+                append('\\');
+                append('t');
+                break;
+            default:
+                if(ch < 0x20)
+                {
+                    appendUnicodeEscape(ch);
+                }
+                else
+                {
+                    appendUtf8(ch);
+                }
+            }
+        }
+
+        append('"');
+    }
+
+
+    /**
+     * Append a quoted and escaped JSON string value from UTF-8 (or ASCII) bytes.
+     * Bytes are copied as is, only quotes, backslashes and control characters are escaped.
+     * @param src source buffer
+     * @param offset absolute offset in the source buffer
+     * @param length number of bytes
+     */
+    public void appendJsonString(ByteBuffer src, int offset, int length)
+    {
+        // Worst case: every byte is escaped as a 6 character unicode escape
+        ensureCapacity(length * 6 + 2);
+        buf[len++] = '"';
+
+        int end = offset + length;
+        for(int i = offset; i < end; i++)
+        {
+            byte b = src.get(i);
+            if(b >= 0x20 && b != '"' && b != '\\')
+            {
+                // Printable ASCII
+                buf[len++] = b;
+                continue;
+            }
+
+            if(b < 0)
+            {
+                // A byte of multi-byte UTF-8 character
+                buf[len++] = b;
+            }
+            else if(b == '"' || b == '\\')
+            {
+                buf[len++] = '\\';
+                buf[len++] = b;
+            }
+            else if(b == '\n')
+            {
+                buf[len++] = '\\';
+                buf[len++] = 'n';
+            }
+            else if(b == '\r')
+            {
+                buf[len++] = '\\';
+                buf[len++] = 'r';
+            }
+            else if(b == '\t')
+            {
+                buf[len++] = '\\';
+                buf[len++] = 't';
+            }
+            else
+            {
+                appendUnicodeEscape(b);
+            }
+        }
+
+        buf[len++] = '"';
+    }
+
+
+    /**
+     * Append JSON unicode escape sequence, such as "\u001f"
+     * @param ch a character
+     */
+    public void appendUnicodeEscape(int ch)
+    {
+        ensureCapacity(6);
+        buf[len++] = '\\';
+        buf[len++] = 'u';
+        buf[len++] = HEX[(ch >> 12) & 0xF];
+        buf[len++] = HEX[(ch >> 8) & 0xF];
+        buf[len++] = HEX[(ch >> 4) & 0xF];
+        buf[len++] = HEX[ch & 0xF];
+    }
+
+
+    /**
+     * Append decimal digits of an integer (JSON number).
+     * @param value a number
+     */
+    public void appendLong(long value)
+    {
+        ensureCapacity(20);
+
+        if(value < 0)
+        {
+            buf[len++] = '-';
+            // Long.MIN_VALUE could not be negated
+            if(value == Long.MIN_VALUE)
+            {
+                appendUnsignedLong(value);
+                return;
+            }
+
+            value = -value;
+        }
+
+        appendUnsignedLong(value);
+    }
+
+
+    /**
+     * Append decimal digits of an unsigned 64 bit integer (JSON number).
+     * @param value a number. Negative values are treated as unsigned.
+     */
+    public void appendUnsignedLong(long value)
+    {
+        ensureCapacity(20);
+
+        // Write digits from the end
+        int start = len;
+        do
+        {
+            long quot = Long.divideUnsigned(value, 10);
+            buf[len++] = (byte)('0' + (value - quot * 10));
+            value = quot;
+        }
+        while(value != 0);
+
+        // Reverse digits
+        for(int i = start, j = len - 1; i < j; i++, j--)
+        {
+            byte tmp = buf[i];
+            buf[i] = buf[j];
+            buf[j] = tmp;
+        }
+    }
+
+
+    /**
+     * Append a floating point number (JSON number). NaN and infinity are not
+     * supported by JSON and are written as null.
+     * @param value a number
+     */
+    public void appendDouble(double value)
+    {
+        if(Double.isNaN(value) || Double.isInfinite(value))
+        {
+            append(NULL);
+            return;
+        }
+
+        // Integral values are written without fraction, e.g., "42" instead of "42.0"
+        if(value == Math.rint(value) && Math.abs(value) < 1e15)
+        {
+            appendLong((long)value);
+            return;
+        }
+
+        // StringBuilder.append(double) doesn't create a String
+        numBuf.setLength(0);
+        numBuf.append(value);
+        appendUtf8(numBuf);
+    }
+
+
+    /**
+     * Append a single precision floating point number (JSON number) with
+     * the shortest representation of the float value, e.g., "0.1" instead of
+     * "0.10000000149011612". NaN and infinity are written as null.
+     * @param value a number
+     */
+    public void appendFloat(float value)
+    {
+        if(Float.isNaN(value) || Float.isInfinite(value))
+        {
+            append(NULL);
+            return;
+        }
+
+        if(value == Math.rint(value) && Math.abs(value) < 1e15)
+        {
+            appendLong((long)value);
+            return;
+        }
+
+        numBuf.setLength(0);
+        numBuf.append(value);
+        appendUtf8(numBuf);
+    }
+
+
+    /**
+     * Append a JSON number. Values which are not valid JSON numbers, such as
+     * "1." or "+1", are appended as quoted strings. Empty values are appended as null.
+     * @param str a trimmed string
+     */
+    public void appendJsonNumber(CharSequence str)
+    {
+        int start = len;
+        appendUtf8(str);
+
+        if(len == start)
+        {
+            append(NULL);
+        }
+        else if(!isJsonNumber(start, len))
+        {
+            len = start;
+            appendJsonString(str);
+        }
+    }
+
+
+    /**
+     * Append a JSON number from UTF-8 (or ASCII) bytes. Values which are not
+     * valid JSON numbers are appended as quoted strings. Empty values are appended as null.
+     * @param src source buffer
+     * @param offset absolute offset of a trimmed value in the source buffer
+     * @param length number of bytes
+     */
+    public void appendJsonNumber(ByteBuffer src, int offset, int length)
+    {
+        if(length == 0)
+        {
+            append(NULL);
+            return;
+        }
+
+        int start = len;
+        ensureCapacity(length);
+        for(int i = offset; i < offset + length; i++)
+        {
+            buf[len++] = src.get(i);
+        }
+
+        if(!isJsonNumber(start, len))
+        {
+            len = start;
+            appendJsonString(src, offset, length);
+        }
+    }
+
+
+    /**
+     * Append a JSON boolean. "true", "false", "1" and "0" (case-insensitive)
+     * are appended as JSON booleans, empty values as null and other values
+     * as quoted strings.
+     * @param str a trimmed string
+     */
+    public void appendJsonBoolean(CharSequence str)
+    {
+        int start = len;
+        appendUtf8(str);
+
+        if(!toJsonBoolean(start))
+        {
+            len = start;
+            appendJsonString(str);
+        }
+    }
+
+
+    /**
+     * Append a JSON boolean from UTF-8 (or ASCII) bytes. See appendJsonBoolean(CharSequence).
+     * @param src source buffer
+     * @param offset absolute offset of a trimmed value in the source buffer
+     * @param length number of bytes
+     */
+    public void appendJsonBoolean(ByteBuffer src, int offset, int length)
+    {
+        int start = len;
+        ensureCapacity(length);
+        for(int i = offset; i < offset + length; i++)
+        {
+            buf[len++] = src.get(i);
+        }
+
+        if(!toJsonBoolean(start))
+        {
+            len = start;
+            appendJsonString(src, offset, length);
+        }
+    }
+
+
+    /**
+     * Check if bytes of the buffer are a valid JSON number:
+     * -?(0|[1-9][0-9]*)(.[0-9]+)?([eE][+-]?[0-9]+)?
+     */
+    private boolean isJsonNumber(int start, int end)
+    {
+        int i = start;
+        if(i < end && buf[i] == '-') i++;
+
+        // Integer part
+        if(i < end && buf[i] == '0')
+        {
+            i++;
+        }
+        else
+        {
+            int digits = i;
+            while(i < end && buf[i] >= '0' && buf[i] <= '9') i++;
+            if(i == digits) return false;
+        }
+
+        // Fraction
+        if(i < end && buf[i] == '.')
+        {
+            i++;
+            int digits = i;
+            while(i < end && buf[i] >= '0' && buf[i] <= '9') i++;
+            if(i == digits) return false;
+        }
+
+        // Exponent
+        if(i < end && (buf[i] == 'e' || buf[i] == 'E'))
+        {
+            i++;
+            if(i < end && (buf[i] == '+' || buf[i] == '-')) i++;
+            int digits = i;
+            while(i < end && buf[i] >= '0' && buf[i] <= '9') i++;
+            if(i == digits) return false;
+        }
+
+        return i == end;
+    }
+
+
+    /**
+     * Replace a boolean value appended from given position with a JSON boolean or null.
+     * @return false if the value is not a boolean
+     */
+    private boolean toJsonBoolean(int start)
+    {
+        byte[] value;
+
+        int length = len - start;
+        if(length == 0)
+        {
+            value = NULL;
+        }
+        else if(equalsIgnoreCase(start, TRUE) || (length == 1 && buf[start] == '1'))
+        {
+            value = TRUE;
+        }
+        else if(equalsIgnoreCase(start, FALSE) || (length == 1 && buf[start] == '0'))
+        {
+            value = FALSE;
+        }
+        else
+        {
+            return false;
+        }
+
+        len = start;
+        append(value);
+        return true;
+    }
+
+
+    private boolean equalsIgnoreCase(int start, byte[] lowerCase)
+    {
+        if(len - start != lowerCase.length) return false;
+
+        for(int i = 0; i < lowerCase.length; i++)
+        {
+            // ASCII letters only
+            if((buf[start + i] | 0x20) != lowerCase[i]) return false;
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Append line 1 of bulk update NJSON record (update action and primary key),
+     * including new line character.
+     * @param id primary key / document id
+     */
+    public void appendUpdateAction(String id)
+    {
+        append(UPDATE_PREFIX);
+        appendJsonString(id);
+        append(UPDATE_SUFFIX);
+    }
+
+
+    /**
+     * Get a character writer which encodes characters to UTF-8 directly
+     * into this buffer. Could be used with Gson JsonWriter.
+     * @return a writer
+     */
+    public Writer getWriter()
+    {
+        if(writer == null)
+        {
+            writer = new Writer()
+            {
+                @Override
+                public void write(char[] cbuf, int off, int count)
+                {
+                    for(int i = off; i < off + count; i++)
+                    {
+                        appendUtf8(cbuf[i]);
+                    }
+                }
+
+                @Override
+                public void write(String str, int off, int count)
+                {
+                    for(int i = off; i < off + count; i++)
+                    {
+                        appendUtf8(str.charAt(i));
+                    }
+                }
+
+                @Override
+                public void write(int ch)
+                {
+                    appendUtf8((char)ch);
+                }
+
+                @Override
+                public void flush()
+                {
+                }
+
+                @Override
+                public void close()
+                {
+                }
+            };
+        }
+
+        return writer;
+    }
+
+
+    /**
+     * Get buffer content as a string. Used for debugging.
+     * @return buffer content
+     */
+    public String getContentAsString()
+    {
+        return new String(buf, 0, len, StandardCharsets.UTF_8);
+    }
+
+
+    @Override
+    public boolean isRepeatable()
+    {
+        return true;
+    }
+
+
+    @Override
+    public long getContentLength()
+    {
+        return len;
+    }
+
+
+    @Override
+    public InputStream getContent()
+    {
+        return new ByteArrayInputStream(buf, 0, len);
+    }
+
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException
+    {
+        out.write(buf, 0, len);
+        out.flush();
+    }
+
+
+    @Override
+    public boolean isStreaming()
+    {
+        return false;
+    }
+}
@@ -0,0 +1,57 @@
+package gov.nasa.pds.supp.dao;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+
+/**
+ * A pool of reusable bulk request buffers (entities).
+ * Buffers are returned to the pool after a bulk request is completed,
+ * so the loader does not allocate a new buffer for every request.
+ *
+ * <p>This class is thread-safe.
+ */
+public class NdJsonEntityPool
+{
+    private BlockingQueue<NdJsonEntity> pool;
+    private int initialCapacity;
+    private int maxCapacity;
+
+
+    /**
+     * Constructor
+     * @param maxPooled max number of buffers to keep in the pool
+     * @param initialCapacity initial capacity of new buffers in bytes
+     * @param maxCapacity buffers which grew larger than this are not kept in the pool
+     */
+    public NdJsonEntityPool(int maxPooled, int initialCapacity, int maxCapacity)
+    {
+        pool = new ArrayBlockingQueue<>(maxPooled);
+        this.initialCapacity = initialCapacity;
+        this.maxCapacity = maxCapacity;
+    }
+
+
+    /**
+     * Get an empty buffer from the pool or create a new one.
+     * @return an empty buffer
+     */
+    public NdJsonEntity get()
+    {
+        NdJsonEntity entity = pool.poll();
+        return (entity == null) ? new NdJsonEntity(initialCapacity) : entity;
+    }
+
+
+    /**
+     * Return a buffer to the pool.
+     * @param entity a buffer. It should not be used by the caller after this call.
+     */
+    public void release(NdJsonEntity entity)
+    {
+        if(entity == null || entity.capacity() > maxCapacity) return;
+
+        entity.reset();
+        pool.offer(entity);
+    }
+}
@@ -0,0 +1,257 @@
+package gov.nasa.pds.supp.dao;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+
+/**
+ * Streaming parser of point in time (PIT) search responses. Extracts document
+ * IDs (hits.hits._id), sort values of the last document and the point in time ID
+ * without building a tree of the whole response.
+ */
+public class PitSearchParser
+{
+    private JsonReader rd;
+    private Callback cb;
+
+    private String pitId;
+    private int numHits;
+    private String lastSort;
+    private int failedShards;
+
+
+    /**
+     * Callback interface
+     */
+    public static interface Callback
+    {
+        /**
+         * Call this method for each document.
+         * @param id document ID
+         * @throws Exception an exception
+         */
+        public void onId(String id) throws Exception;
+    }
+
+
+    /**
+     * Parse search response.
+     * @param is response body
+     * @param cb Callback interface implementation
+     * @throws Exception an exception
+     */
+    public void parse(InputStream is, Callback cb) throws Exception
+    {
+        this.cb = cb;
+
+        pitId = null;
+        numHits = 0;
+        lastSort = null;
+        failedShards = 0;
+
+        rd = new JsonReader(new InputStreamReader(is, StandardCharsets.UTF_8));
+
+        try
+        {
+            rd.beginObject();
+
+            while(rd.hasNext() && rd.peek() != JsonToken.END_OBJECT)
+            {
+                String name = rd.nextName();
+                if("pit_id".equals(name))
+                {
+                    pitId = rd.nextString();
+                }
+                else if("_shards".equals(name))
+                {
+                    parseShards();
+                }
+                else if("hits".equals(name))
+                {
+                    parseHits();
+                }
+                else
+                {
+                    rd.skipValue();
+                }
+            }
+
+            rd.endObject();
+        }
+        finally
+        {
+            rd.close();
+        }
+    }
+
+
+    /**
+     * Get point in time ID returned by the last search. It could be
+     * different from the ID passed in the search request.
+     * @return point in time ID or null
+     */
+    public String getPitId()
+    {
+        return pitId;
+    }
+
+
+    /**
+     * Get number of documents returned by the last search.
+     * @return number of documents
+     */
+    public int getNumHits()
+    {
+        return numHits;
+    }
+
+
+    /**
+     * Get sort values of the last document returned by the last search.
+     * Point in time searches have an implicit "_shard_doc" tiebreaker, so
+     * there are more sort values than sort fields of the query.
+     * @return JSON array to pass as "search_after" or null
+     */
+    public String getLastSort()
+    {
+        return lastSort;
+    }
+
+
+    /**
+     * Get number of failed shards. If this number is not 0, results are incomplete.
+     * @return number of failed shards
+     */
+    public int getFailedShards()
+    {
+        return failedShards;
+    }
+
+
+    private void parseShards() throws IOException
+    {
+        rd.beginObject();
+
+        while(rd.hasNext() && rd.peek() != JsonToken.END_OBJECT)
+        {
+            String name = rd.nextName();
+            if("failed".equals(name))
+            {
+                failedShards = rd.nextInt();
+            }
+            else
+            {
+                rd.skipValue();
+            }
+        }
+
+        rd.endObject();
+    }
+
+
+    /**
+     * Parse "hits" JSON object.
+     */
+    private void parseHits() throws Exception
+    {
+        rd.beginObject();
+
+        while(rd.hasNext() && rd.peek() != JsonToken.END_OBJECT)
+        {
+            String name = rd.nextName();
+            if("hits".equals(name))
+            {
+                rd.beginArray();
+                while(rd.hasNext() && rd.peek() != JsonToken.END_ARRAY)
+                {
+                    parseHit();
+                }
+                rd.endArray();
+            }
+            else
+            {
+                rd.skipValue();
+            }
+        }
+
+        rd.endObject();
+    }
+
+
+    /**
+     * Parse one document (hits -&gt; hits -&gt; item)
+     */
+    private void parseHit() throws Exception
+    {
+        rd.beginObject();
+
+        while(rd.hasNext() && rd.peek() != JsonToken.END_OBJECT)
+        {
+            String name = rd.nextName();
+            if("_id".equals(name))
+            {
+                String id = rd.nextString();
+                numHits++;
+                cb.onId(id);
+            }
+            else if("sort".equals(name))
+            {
+                lastSort = parseSort();
+            }
+            else
+            {
+                rd.skipValue();
+            }
+        }
+
+        rd.endObject();
+    }
+
+
+    /**
+     * Copy "sort" array of a document. Number literals are kept as is.
+     */
+    private String parseSort() throws IOException
+    {
+        StringWriter out = new StringWriter();
+        JsonWriter writer = new JsonWriter(out);
+
+        rd.beginArray();
+        writer.beginArray();
+
+        while(rd.hasNext() && rd.peek() != JsonToken.END_ARRAY)
+        {
+            switch(rd.peek())
+            {
+            case STRING:
+                writer.value(rd.nextString());
+                break;
+            case NUMBER:
+                writer.jsonValue(rd.nextString());
+                break;
+            case BOOLEAN:
+                writer.value(rd.nextBoolean());
+                break;
+            case NULL:
+                rd.nextNull();
+                writer.nullValue();
+                break;
+            default:
+                throw new IOException("Unexpected sort value: " + rd.peek());
+            }
+        }
+
+        rd.endArray();
+        writer.endArray();
+        writer.close();
+
+        return out.toString();
+    }
+}
@@ -1,10 +1,8 @@
 package gov.nasa.pds.supp.dao;
 
-import java.io.BufferedReader;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -15,10 +13,7 @@ import org.elasticsearch.client.Request;
 import org.elasticsearch.client.Response;
 import org.elasticsearch.client.RestClient;
 
-import com.google.gson.Gson;
-
 import gov.nasa.pds.registry.common.es.client.SearchResponseParser;
-import gov.nasa.pds.registry.common.util.CloseUtils;
 
 
 /**
@@ -26,8 +21,13 @@ import gov.nasa.pds.registry.common.util.CloseUtils;
  *  
  * @author karpenko
  */
-public class RegistryDao extends Dao
+public class RegistryDao extends Dao implements IdLookup
 {
+    // Max number of documents returned by one search request
+    private static final int PAGE_SIZE = 5000;
+
+    private LookupMetrics metrics = new LookupMetrics();
+    
     /**
      * Constructor
      * @param client Elasticsearch client
@@ -39,6 +39,52 @@ public class RegistryDao extends Dao
     }
 
     
+    /**
+     * Get lookup request metrics.
+     * @return lookup metrics
+     */
+    public LookupMetrics getLookupMetrics()
+    {
+        return metrics;
+    }
+
+
+    /**
+     * Look up several batches at once. The strategy is chosen by batch shape:
+     * <ul>
+     * <li>One batch of LIDVIDs: "_mget" API without document source.</li>
+     * <li>One batch of LIDs: "terms" query paged with "search_after".</li>
+     * <li>Several batches: one "_msearch" request with an "ids" query per batch 
+     * of LIDVIDs and a "terms" query per batch of LIDs. Batches of LIDs with 
+     * more than one page of results are looked up again with paged "terms" queries.</li>
+     * </ul>
+     * @param batches batches of LIDs or LIDVIDs
+     * @throws Exception an exception
+     */
+    @Override
+    public void lookup(List<LookupBatch> batches) throws Exception
+    {
+        if(batches == null || batches.isEmpty()) return;
+
+        if(batches.size() == 1)
+        {
+            LookupBatch batch = batches.get(0);
+            if(batch.lids)
+            {
+                findVidsByLids(batch.ids, batch.vids);
+            }
+            else
+            {
+                batch.existing = findExistingLidVids(batch.ids);
+            }
+
+            return;
+        }
+
+        multiSearch(batches);
+    }
+
+
     /**
      * Find vids by lids
      * @param lids collection of lids
@@ -49,176 +95,279 @@ public class RegistryDao extends Dao
     {
         if(lids == null || lids.isEmpty()) return null;
         
-        // Max number of records to return
-        // TODO: Add pagination to return all records?
-        // We plan to use batches of 100 lids, so we can handle up to 50 vids per lid.
-        int maxHits = 5000;
+        Map<String, List<String>> map = new TreeMap<>();
+        findVidsByLids(lids, map);
+        return map;
+    }
+
+    
+    /**
+     * Find vids by lids. Returns all versions of each lid. Results are paged 
+     * with "search_after" sorted by lidvid, so there is no limit on the number 
+     * of versions per lid or the number of lids per call.
+     * @param lids collection of lids
+     * @param map results are added to this map: key = lid, value = list of vids
+     * @throws Exception an exception
+     */
+    @Override
+    public void findVidsByLids(Collection<String> lids, Map<String, List<String>> map) throws Exception
+    {
+        if(lids == null || lids.isEmpty()) return;
         
-        // Create request
-        Request req = new Request("GET", "/" + indexName + "/_search");
         RegistryRequestBuilder bld = new RegistryRequestBuilder();
-        String json = bld.createFindVidsByLids(lids, maxHits);
-        req.setJsonEntity(json);
-        
-        // Execute request
-        Response resp = client.performRequest(req);
         SearchResponseParser respParser = new SearchResponseParser();
         
-        Map<String, List<String>> map = new TreeMap<>();
+        String searchAfter = null;
+        int[] numHits = new int[1];
+        String[] lastId = new String[1];
         
-        respParser.parseResponse(resp, (id, rec) -> 
+        long t0 = System.currentTimeMillis();
+        int requests = 0;
+
+        do
         {
-            int idx = id.lastIndexOf("::");
-            if(idx > 0)
+            requests++;
+
+            // Create request
+            Request req = new Request("GET", "/" + indexName + "/_search");
+            String json = bld.createFindVidsByLids(lids, PAGE_SIZE, searchAfter);
+            setJsonEntity(req, json);
+            
+            // Execute request
+            Response resp = client.performRequest(req);
+            
+            numHits[0] = 0;
+            respParser.parseResponse(resp, (id, rec) -> 
             {
-                String lid = id.substring(0, idx);
-                String vid = id.substring(idx+2);
-                
-                List<String> vids = map.get(lid);
-                if(vids == null) 
-                {
-                    vids = new ArrayList<>();
-                    map.put(lid, vids);
-                }
-                
-                vids.add(vid);
-            }
-        });
-                
-        return map;
+                numHits[0]++;
+                lastId[0] = id;
+                addVid(id, map);
+            });
+            
+            // Document id (_id) is the lidvid, which is also the sort key.
+            searchAfter = lastId[0];
+        }
+        while(numHits[0] == PAGE_SIZE);
+
+        metrics.record(LookupMetrics.Strategy.TERMS, requests, 1, lids.size(), System.currentTimeMillis() - t0);
     }
 
     
     /**
-     * Find existing lidvids
-     * @param lidvids collection of lids
-     * @return a list of existing lidvids
+     * Find existing lidvids. Calls "_mget" API without document source.
+     * @param lidvids collection of lidvids
+     * @return a set of existing lidvids
      * @throws Exception an exception
      */
+    @Override
+    @SuppressWarnings("rawtypes")
     public Set<String> findExistingLidVids(Collection<String> lidvids) throws Exception
     {
         if(lidvids == null || lidvids.isEmpty()) return null;
         
+        long t0 = System.currentTimeMillis();
+
         // Create request
-        Request req = new Request("GET", "/" + indexName + "/_search");
+        Request req = new Request("GET", "/" + indexName + "/_mget");
+        req.addParameter("_source", "false");
         RegistryRequestBuilder bld = new RegistryRequestBuilder();
-        String json = bld.createFindLidVids(lidvids);
-        req.setJsonEntity(json);
+        setJsonEntity(req, bld.createMget(lidvids));
         
         // Execute request
         Response resp = client.performRequest(req);
-        SearchResponseParser respParser = new SearchResponseParser();
-        
+        Map json = parseJson(resp);
+
         Set<String> existingIds = new TreeSet<>();
-        
-        respParser.parseResponse(resp, (id, rec) -> 
+
+        List docs = (List)json.get("docs");
+        if(docs != null)
         {
-            existingIds.add(id);
-        });
+            for(Object obj: docs)
+            {
+                Map doc = (Map)obj;
+                if(Boolean.TRUE.equals(doc.get("found")))
+                {
+                    existingIds.add((String)doc.get("_id"));
+                }
+            }
+        }
 
+        metrics.record(LookupMetrics.Strategy.MGET, 1, 1, lidvids.size(), System.currentTimeMillis() - t0);
         return existingIds;
     }
 
-    
+
     /**
-     * Call Elasticsearch bulk API to update multiple documents at once.
-     * @param json JSON request
+     * Get current supplemental field values ("ops:Supplemental/*") of products.
+     * Calls "_mget" API with filtered document source.
+     * @param lidvids collection of lidvids
+     * @return a map where key = lidvid, value = supplemental fields of the product.
+     * Unregistered products are not included.
      * @throws Exception an exception
      */
-    public void bulkUpdate(String json) throws Exception
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    public Map<String, Map<String, Object>> getSupplementalFields(Collection<String> lidvids) throws Exception
     {
-        Request req = new Request("POST", "/" + indexName + "/_bulk");
-        req.setJsonEntity(json);
-        Response resp = client.performRequest(req);
+        Map<String, Map<String, Object>> map = new HashMap<>();
+        if(lidvids == null || lidvids.isEmpty()) return map;
+        
+        long t0 = System.currentTimeMillis();
 
-        String respJson = getLastLine(resp.getEntity().getContent());
-        log.debug(respJson);
+        // Create request
+        Request req = new Request("GET", "/" + indexName + "/_mget");
+        req.addParameter("_source_includes", "ops:Supplemental/*");
+        RegistryRequestBuilder bld = new RegistryRequestBuilder();
+        setJsonEntity(req, bld.createMget(lidvids));
         
-        if(responseHasErrors(respJson))
+        // Execute request
+        Response resp = client.performRequest(req);
+        Map json = parseJson(resp);
+
+        List docs = (List)json.get("docs");
+        if(docs != null)
         {
-            throw new Exception("Could not load data.");
+            for(Object obj: docs)
+            {
+                Map doc = (Map)obj;
+                if(!Boolean.TRUE.equals(doc.get("found"))) continue;
+
+                Map<String, Object> source = (Map<String, Object>)doc.get("_source");
+                map.put((String)doc.get("_id"), (source == null) ? new HashMap<>() : source);
+            }
         }
 
+        metrics.record(LookupMetrics.Strategy.MGET, 1, 1, lidvids.size(), System.currentTimeMillis() - t0);
+        return map;
     }
 
 
     /**
-     * This method is used to parse multi-line Elasticsearch error responses.
-     * JSON error response is on the last line of a message.
-     * @param is input stream
-     * @return Last line
+     * Look up several batches with one "_msearch" request.
      */
-    private static String getLastLine(InputStream is)
+    @SuppressWarnings("rawtypes")
+    private void multiSearch(List<LookupBatch> batches) throws Exception
     {
-        String lastLine = null;
+        long t0 = System.currentTimeMillis();
 
-        try
+        Request req = new Request("POST", "/" + indexName + "/_msearch");
+        RegistryRequestBuilder bld = new RegistryRequestBuilder();
+        setBulkEntity(req, bld.createLookupMsearch(batches, PAGE_SIZE));
+
+        Response resp = client.performRequest(req);
+        Map json = parseJson(resp);
+
+        List responses = (List)json.get("responses");
+        if(responses == null || responses.size() != batches.size())
+        {
+            throw new Exception("Invalid multi-search response");
+        }
+
+        List<LookupBatch> truncated = new ArrayList<>();
+        int numIds = 0;
+
+        for(int i = 0; i < batches.size(); i++)
         {
-            BufferedReader rd = new BufferedReader(new InputStreamReader(is));
+            LookupBatch batch = batches.get(i);
+            numIds += batch.ids.size();
+
+            Map item = (Map)responses.get(i);
+            Map error = (Map)item.get("error");
+            if(error != null)
+            {
+                throw new Exception("Lookup query failed: " + error.get("reason"));
+            }
+
+            Map hits = (Map)item.get("hits");
+            List list = (hits == null) ? null : (List)hits.get("hits");
+            if(list == null) list = new ArrayList<>(0);
+
+            if(batch.lids)
+            {
+                for(Object hit: list)
+                {
+                    addVid((String)((Map)hit).get("_id"), batch.vids);
+                }
 
-            String line;
-            while((line = rd.readLine()) != null)
+                // There could be more versions. Get all pages.
+                if(list.size() >= PAGE_SIZE) truncated.add(batch);
+            }
+            else
             {
-                lastLine = line;
+                batch.existing = new TreeSet<>();
+                for(Object hit: list)
+                {
+                    batch.existing.add((String)((Map)hit).get("_id"));
+                }
             }
         }
-        catch(Exception ex)
+
+        metrics.record(LookupMetrics.Strategy.MSEARCH, 1, batches.size(), numIds, System.currentTimeMillis() - t0);
+
+        for(LookupBatch batch: truncated)
         {
-            // Ignore
+            batch.vids.clear();
+            findVidsByLids(batch.ids, batch.vids);
         }
-        finally
+    }
+
+
+    /**
+     * Add a vid of a lidvid to a map: key = lid, value = list of vids
+     */
+    private static void addVid(String lidvid, Map<String, List<String>> map)
+    {
+        int idx = lidvid.lastIndexOf("::");
+        if(idx > 0)
         {
-            CloseUtils.close(is);
+            String lid = lidvid.substring(0, idx);
+            String vid = lidvid.substring(idx+2);
+
+            List<String> vids = map.get(lid);
+            if(vids == null) 
+            {
+                vids = new ArrayList<>();
+                map.put(lid, vids);
+            }
+
+            vids.add(vid);
         }
-        
-        return lastLine;
     }
 
     
     /**
-     * Check for update errors.
-     * @param resp Elasticsearch API response
-     * @return true if there were any errors.
+     * Call Elasticsearch bulk API to update multiple documents at once.
+     * Failed items are not treated as an error by this method. 
+     * Check BulkResult.failedItems.
+     * @param entity NJSON request body
+     * @return bulk API response summary
+     * @throws Exception an exception
      */
-    @SuppressWarnings({ "rawtypes", "unchecked" })
-    private boolean responseHasErrors(String resp)
+    public BulkResult bulkUpdate(NdJsonEntity entity) throws Exception
     {
+        Request req = new Request("POST", "/" + indexName + "/_bulk");
+        req.addParameter("filter_path", BulkResultParser.FILTER_PATH);
+        setBulkEntity(req, entity);
+        Response resp = client.performRequest(req);
+
+        BulkResult result;
         try
         {
-            // Parse JSON response
-            Gson gson = new Gson();
-            Map json = (Map)gson.fromJson(resp, Object.class);
-            
-            Boolean hasErrors = (Boolean)json.get("errors");
-            if(hasErrors)
-            {
-                List<Object> list = (List)json.get("items");
-                
-                // List size = batch size (one item per document)
-                // NOTE: Only few items in the list could have errors
-                for(Object item: list)
-                {
-                    Map index = (Map)((Map)item).get("update");
-                    if(index == null) continue;
-                    
-                    Map error = (Map)index.get("error");
-                    if(error != null)
-                    {
-                        String message = (String)error.get("reason");
-                        log.error(message);
-                        return true;
-                    }
-                }
-                
-                return true;
-            }
-
-            return false;
+            BulkResultParser parser = new BulkResultParser();
+            List<BulkItemError> failedItems = new ArrayList<>();
+            result = parser.parse(getContent(resp), failedItems::add);
+            result.failedItems = failedItems;
         }
         catch(Exception ex)
         {
-            return false;
+            throw new Exception("Could not parse bulk API response: " + ex.getMessage());
         }
+
+        if(log.isDebugEnabled())
+        {
+            log.debug("Bulk response: took " + result.took + " ms, " + result.failedItems.size() + " failed item(s)");
+        }
+
+        return result;
     }
 
 }
@@ -2,7 +2,9 @@ package gov.nasa.pds.supp.dao;
 
 import java.io.StringWriter;
 import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -18,6 +20,12 @@ import gov.nasa.pds.supp.Constants;
  */
 public class RegistryRequestBuilder
 {
+    private static final String UPDATE_DOC_PREFIX = "{\"doc\":";
+
+    // Sets fields passed in "fields" parameter
+    private static final String SET_FIELDS_SCRIPT = 
+            "for (def field : params.fields.entrySet()) { ctx._source[field.getKey()] = field.getValue(); }";
+
     private boolean pretty;
 
     
@@ -60,6 +68,22 @@ public class RegistryRequestBuilder
      * @throws Exception an exception
      */
     public String createFindVidsByLids(Collection<String> lids, int maxHits) throws Exception
+    {
+        return createFindVidsByLids(lids, maxHits, null);
+    }
+
+    
+    /**
+     * Create Elasticsearch query to find documents (lidvids) by lids.
+     * Results are sorted by lidvid to support pagination with "search_after".
+     * @param lids one or more LIDs
+     * @param pageSize max number of results to return
+     * @param searchAfter return documents after this lidvid (last lidvid 
+     * of the previous page) or null to return the first page.
+     * @return Elasticsearch JSON query
+     * @throws Exception an exception
+     */
+    public String createFindVidsByLids(Collection<String> lids, int pageSize, String searchAfter) throws Exception
     {
         if(lids == null || lids.isEmpty()) return null;
         
@@ -69,7 +93,24 @@ public class RegistryRequestBuilder
         writer.beginObject();
 
         writer.name("_source").value(false);
-        writer.name("size").value(maxHits);
+        writer.name("size").value(pageSize);
+        writer.name("track_total_hits").value(false);
+        
+        // Sort by lidvid
+        writer.name("sort");
+        writer.beginArray();
+        writer.beginObject();
+        writer.name("lidvid").value("asc");
+        writer.endObject();
+        writer.endArray();
+        
+        if(searchAfter != null)
+        {
+            writer.name("search_after");
+            writer.beginArray();
+            writer.value(searchAfter);
+            writer.endArray();
+        }
         
         writer.name("query");
         writer.beginObject();
@@ -135,6 +176,296 @@ public class RegistryRequestBuilder
     }
 
     
+    /**
+     * Create "_mget" request to check if documents (lidvids) exist.
+     * @param ids document IDs (lidvids)
+     * @return JSON
+     * @throws Exception an exception
+     */
+    public String createMget(Collection<String> ids) throws Exception
+    {
+        StringWriter out = new StringWriter();
+        JsonWriter writer = createJsonWriter(out);
+
+        writer.beginObject();
+
+        writer.name("ids");
+        writer.beginArray();
+        for(String id: ids)
+        {
+            writer.value(id);
+        }
+        writer.endArray();
+
+        writer.endObject();
+        writer.close();
+        return out.toString();
+    }
+
+
+    /**
+     * Create Elasticsearch query to find existing documents by IDs (lidvids).
+     * @param ids document IDs (lidvids)
+     * @return Elasticsearch JSON query
+     * @throws Exception an exception
+     */
+    public String createFindIds(Collection<String> ids) throws Exception
+    {
+        StringWriter out = new StringWriter();
+        JsonWriter writer = createJsonWriter(out);
+
+        writer.beginObject();
+
+        writer.name("_source").value(false);
+        writer.name("size").value(ids.size());
+        writer.name("track_total_hits").value(false);
+
+        writer.name("query");
+        writer.beginObject();
+        writer.name("ids");
+        writer.beginObject();
+
+        writer.name("values");
+        writer.beginArray();
+        for(String id: ids)
+        {
+            writer.value(id);
+        }
+        writer.endArray();
+
+        writer.endObject();     // ids
+        writer.endObject();     // query
+
+        writer.endObject();
+        writer.close();
+        return out.toString();
+    }
+
+
+    /**
+     * Create "_msearch" request body with one query per lookup batch.
+     * LIDVIDs are looked up with "ids" query, LIDs with "terms" query.
+     * NOTE: Multi-search API lines can't be pretty-formatted.
+     * @param batches lookup batches
+     * @param pageSize max number of results of a LID query
+     * @return NJSON request body
+     * @throws Exception an exception
+     */
+    public NdJsonEntity createLookupMsearch(List<LookupBatch> batches, int pageSize) throws Exception
+    {
+        RegistryRequestBuilder bld = new RegistryRequestBuilder(false);
+        NdJsonEntity entity = new NdJsonEntity();
+
+        for(LookupBatch batch: batches)
+        {
+            // Line 1: header (index is in the URL)
+            entity.appendUtf8("{}\n");
+
+            // Line 2: query
+            String json = batch.lids ? bld.createFindVidsByLids(batch.ids, pageSize, null)
+                    : bld.createFindIds(batch.ids);
+            entity.appendUtf8(json);
+            entity.append('\n');
+        }
+
+        return entity;
+    }
+
+
+    /**
+     * Create update by query request to set the same supplemental fields in all 
+     * versions of given LIDs. Field values are passed to a Painless script as parameters,
+     * so that the script is compiled once.
+     * @param lids one or more LIDs
+     * @param updateJson UTF-8 bulk update data JSON: {"doc":{...}}
+     * @return Elasticsearch JSON request
+     * @throws Exception an exception
+     */
+    public String createUpdateLidsByQuery(Collection<String> lids, byte[] updateJson) throws Exception
+    {
+        String json = new String(updateJson, StandardCharsets.UTF_8);
+        if(!json.startsWith(UPDATE_DOC_PREFIX) || !json.endsWith("}"))
+        {
+            throw new Exception("Invalid update JSON: " + json);
+        }
+        
+        StringWriter out = new StringWriter();
+        JsonWriter writer = createJsonWriter(out);
+
+        writer.beginObject();
+
+        writer.name("query");
+        writer.beginObject();
+        writer.name("terms");
+        writer.beginObject();
+        writer.name("lid");
+        writer.beginArray();
+        for(String lid: lids)
+        {
+            writer.value(lid);
+        }
+        writer.endArray();
+        writer.endObject();     // terms
+        writer.endObject();     // query
+
+        writer.name("script");
+        writer.beginObject();
+        writer.name("lang").value("painless");
+        writer.name("source").value(SET_FIELDS_SCRIPT);
+        writer.name("params");
+        writer.beginObject();
+        // Field values ("doc" object)
+        writer.name("fields").jsonValue(json.substring(UPDATE_DOC_PREFIX.length(), json.length() - 1));
+        writer.endObject();     // params
+        writer.endObject();     // script
+
+        writer.endObject();
+        writer.close();
+        return out.toString();
+    }
+
+
+    /**
+     * Create a query to export all lidvids of a point in time (PIT) slice.
+     * Results are sorted by lidvid to support pagination with "search_after".
+     * @param pitId point in time ID
+     * @param keepAlive how long to keep the point in time, such as "5m"
+     * @param slice slice ID
+     * @param maxSlices number of slices. If less than 2, the query is not sliced.
+     * @param pageSize max number of results to return
+     * @param searchAfter JSON array of sort values of the last document of 
+     * the previous page or null to return the first page.
+     * @param from first lidvid (inclusive) or null to start from the first document
+     * @param to last lidvid (exclusive) or null to export all documents after "from"
+     * @return Elasticsearch JSON query
+     * @throws Exception an exception
+     */
+    public String createExportLidVids(String pitId, String keepAlive, int slice, int maxSlices,
+            int pageSize, String searchAfter, String from, String to) throws Exception
+    {
+        StringWriter out = new StringWriter();
+        JsonWriter writer = createJsonWriter(out);
+
+        writer.beginObject();
+
+        writer.name("_source").value(false);
+        writer.name("size").value(pageSize);
+        writer.name("track_total_hits").value(false);
+
+        writer.name("pit");
+        writer.beginObject();
+        writer.name("id").value(pitId);
+        writer.name("keep_alive").value(keepAlive);
+        writer.endObject();
+
+        if(maxSlices > 1)
+        {
+            writer.name("slice");
+            writer.beginObject();
+            writer.name("id").value(slice);
+            writer.name("max").value(maxSlices);
+            writer.endObject();
+        }
+
+        // Range of lidvids
+        if(from != null || to != null)
+        {
+            writer.name("query");
+            writer.beginObject();
+            writer.name("range");
+            writer.beginObject();
+            writer.name("lidvid");
+            writer.beginObject();
+            if(from != null) writer.name("gte").value(from);
+            if(to != null) writer.name("lt").value(to);
+            writer.endObject();     // lidvid
+            writer.endObject();     // range
+            writer.endObject();     // query
+        }
+
+        // Sort by lidvid
+        writer.name("sort");
+        writer.beginArray();
+        writer.beginObject();
+        writer.name("lidvid").value("asc");
+        writer.endObject();
+        writer.endArray();
+        
+        if(searchAfter != null)
+        {
+            writer.name("search_after").jsonValue(searchAfter);
+        }
+
+        writer.endObject();
+        writer.close();
+        return out.toString();
+    }
+
+
+    /**
+     * Create a request to close a point in time (PIT).
+     * @param pitId point in time ID
+     * @param openSearch if true, create OpenSearch request, otherwise Elasticsearch request.
+     * @return JSON
+     * @throws Exception an exception
+     */
+    public String createClosePit(String pitId, boolean openSearch) throws Exception
+    {
+        StringWriter out = new StringWriter();
+        JsonWriter writer = createJsonWriter(out);
+
+        writer.beginObject();
+
+        if(openSearch)
+        {
+            writer.name("pit_id");
+            writer.beginArray();
+            writer.value(pitId);
+            writer.endArray();
+        }
+        else
+        {
+            writer.name("id").value(pitId);
+        }
+
+        writer.endObject();
+        writer.close();
+        return out.toString();
+    }
+
+
+    /**
+     * Create a query to get the number of documents and the latest harvest time.
+     * @return Elasticsearch JSON query
+     * @throws Exception an exception
+     */
+    public String createGetRegistryStamp() throws Exception
+    {
+        StringWriter out = new StringWriter();
+        JsonWriter writer = createJsonWriter(out);
+
+        writer.beginObject();
+
+        writer.name("size").value(0);
+        writer.name("track_total_hits").value(true);
+
+        writer.name("aggs");
+        writer.beginObject();
+        writer.name("harvest_time");
+        writer.beginObject();
+        writer.name("max");
+        writer.beginObject();
+        writer.name("field").value(Constants.HARVEST_TIME_FIELD);
+        writer.endObject();     // max
+        writer.endObject();     // harvest_time
+        writer.endObject();     // aggs
+
+        writer.endObject();
+        writer.close();
+        return out.toString();
+    }
+
+
     /**
      * Build a query to select DOIs by document primary key
      * @param ids list of primary keys (lidvids right now)
@@ -179,36 +510,34 @@ public class RegistryRequestBuilder
     /**
      * Create Elasticsearch request to update DOI field(s)
      * @param doiMap key = primary keys (usually LIDVIDs), value = set of DOIs
-     * @return JSON string
+     * @return NJSON request body
      * @throws Exception an exception
      */
-    public String createUpdateDoisRequest(Map<String, Set<String>> doiMap) throws Exception
+    public NdJsonEntity createUpdateDoisRequest(Map<String, Set<String>> doiMap) throws Exception
     {
         if(doiMap == null || doiMap.isEmpty()) throw new IllegalArgumentException("Missing ids");
         
-        StringBuilder bld = new StringBuilder();
+        NdJsonEntity entity = new NdJsonEntity();
         
         // Build NJSON (new-line delimited JSON)
         for(Map.Entry<String, Set<String>> entry: doiMap.entrySet())
         {
             // Line 1: Elasticsearch document ID
-            bld.append("{ \"update\" : {\"_id\" : \"" + entry.getKey() + "\" } }\n");
+            entity.appendUpdateAction(entry.getKey());
             
             // Line 2: Data
-            String dataJson = buildUpdateDocJson(Constants.DOI_FIELD, entry.getValue());
-            bld.append(dataJson);
-            bld.append("\n");
+            writeUpdateDocJson(entity.getWriter(), Constants.DOI_FIELD, entry.getValue());
+            entity.append('\n');
         }
         
-        return bld.toString();
-
+        return entity;
     }
 
     
-    private String buildUpdateDocJson(String field, Collection<String> values) throws Exception
+    private void writeUpdateDocJson(Writer out, String field, Collection<String> values) throws Exception
     {
-        StringWriter out = new StringWriter();
-        JsonWriter writer = createJsonWriter(out);
+        // NOTE: Bulk API data line can't be pretty-formatted
+        JsonWriter writer = new JsonWriter(out);
 
         writer.beginObject();
 
@@ -227,8 +556,7 @@ public class RegistryRequestBuilder
         writer.endObject();        
         writer.endObject();
         
-        writer.close();
-        return out.toString();
+        writer.flush();
     }
 
 }
@@ -0,0 +1,37 @@
+package gov.nasa.pds.supp.dao;
+
+import java.time.Instant;
+
+
+/**
+ * State of a registry index used to check if an ID snapshot is out of date.
+ * Adding, deleting or re-harvesting products changes either the number of
+ * documents or the latest harvest time.
+ */
+public class RegistryStamp
+{
+    public String indexName;
+    public long docCount;
+    // Latest "ops:Harvest_Info/ops:harvest_date_time" (epoch milliseconds) or 0
+    public long maxHarvestTime;
+
+
+    /**
+     * Check if this stamp is the same as another one.
+     * @param other another stamp
+     * @return true if the registry index has not been changed
+     */
+    public boolean isSameAs(RegistryStamp other)
+    {
+        return other != null && indexName.equals(other.indexName)
+                && docCount == other.docCount && maxHarvestTime == other.maxHarvestTime;
+    }
+
+
+    @Override
+    public String toString()
+    {
+        return "index = " + indexName + ", documents = " + docCount
+                + ", latest harvest time = " + Instant.ofEpochMilli(maxHarvestTime);
+    }
+}
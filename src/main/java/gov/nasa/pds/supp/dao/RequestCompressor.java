@@ -0,0 +1,173 @@
+package gov.nasa.pds.supp.dao;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.Response;
+
+
+/**
+ * Compresses Elasticsearch request bodies with gzip ("Content-Encoding: gzip").
+ * Bulk requests also ask Elasticsearch for compressed responses.
+ * Search responses are parsed by registry-common SearchResponseParser,
+ * which reads raw response body, so search requests don't ask for compressed responses.
+ *
+ * <p>Compressed data is written into a per-thread reusable buffer.
+ * The buffer is reused after the (synchronous) request is completed.
+ *
+ * <p>This class is thread-safe.
+ */
+public class RequestCompressor
+{
+    private static final String GZIP = "gzip";
+
+    private Logger log;
+    private int level;
+    private RequestOptions options;
+
+    private ThreadLocal<NdJsonEntity> buffers;
+
+    private AtomicLong requestCount = new AtomicLong();
+    private AtomicLong rawBytes = new AtomicLong();
+    private AtomicLong compressedBytes = new AtomicLong();
+
+
+    /**
+     * Constructor
+     * @param level compression level from 1 (fastest) to 9 (best compression)
+     */
+    public RequestCompressor(int level)
+    {
+        if(level < 1 || level > 9) throw new IllegalArgumentException("Invalid compression level: " + level);
+
+        log = LogManager.getLogger(this.getClass());
+        this.level = level;
+
+        options = RequestOptions.DEFAULT.toBuilder()
+                .addHeader("Accept-Encoding", GZIP)
+                .build();
+
+        buffers = ThreadLocal.withInitial(() ->
+        {
+            NdJsonEntity entity = new NdJsonEntity();
+            entity.setContentEncoding(GZIP);
+            return entity;
+        });
+    }
+
+
+    /**
+     * Set compressed bulk request body and "Accept-Encoding" header.
+     * Use getContent() to read the response.
+     * @param req Elasticsearch request
+     * @param entity uncompressed request body
+     * @throws IOException an exception
+     */
+    public void setEntity(Request req, NdJsonEntity entity) throws IOException
+    {
+        NdJsonEntity out = compress(entity.getBuffer(), entity.length());
+        req.setEntity(out);
+        req.setOptions(options);
+    }
+
+
+    /**
+     * Set compressed JSON request body.
+     * @param req Elasticsearch request
+     * @param json uncompressed JSON
+     * @throws IOException an exception
+     */
+    public void setJsonEntity(Request req, String json) throws IOException
+    {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        NdJsonEntity out = compress(bytes, bytes.length);
+        req.setEntity(out);
+    }
+
+
+    private NdJsonEntity compress(byte[] data, int length) throws IOException
+    {
+        NdJsonEntity out = buffers.get();
+        out.reset();
+
+        // Write compressed data directly into the output buffer
+        OutputStream os = new OutputStream()
+        {
+            @Override
+            public void write(int b)
+            {
+                out.append(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len)
+            {
+                out.append(b, off, len);
+            }
+        };
+
+        try(GZIPOutputStream gz = new GZIPOutputStream(os, 64 * 1024)
+                {
+                    {
+                        def.setLevel(level);
+                    }
+                })
+        {
+            gz.write(data, 0, length);
+        }
+
+        requestCount.incrementAndGet();
+        rawBytes.addAndGet(length);
+        compressedBytes.addAndGet(out.length());
+
+        return out;
+    }
+
+
+    /**
+     * Get response body. Decompresses gzip response if it was not already
+     * decompressed by the HTTP client.
+     * @param resp Elasticsearch response
+     * @return response body input stream
+     * @throws IOException an exception
+     */
+    public static InputStream getContent(Response resp) throws IOException
+    {
+        HttpEntity entity = resp.getEntity();
+        InputStream is = entity.getContent();
+
+        Header enc = entity.getContentEncoding();
+        if(enc != null && GZIP.equalsIgnoreCase(enc.getValue()))
+        {
+            is = new GZIPInputStream(is);
+        }
+
+        return is;
+    }
+
+
+    /**
+     * Log number of compressed requests and bytes saved.
+     */
+    public void logStats()
+    {
+        long raw = rawBytes.get();
+        long compressed = compressedBytes.get();
+        if(raw == 0) return;
+
+        long saved = raw - compressed;
+        log.info("Compressed " + requestCount.get() + " request(s): " + raw + " -> " + compressed
+                + " bytes. Saved " + saved + " bytes (" + (saved * 100 / raw) + "%)");
+    }
+}
@@ -0,0 +1,151 @@
+package gov.nasa.pds.supp.dao;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.elasticsearch.client.ResponseException;
+
+import gov.nasa.pds.registry.common.es.client.EsUtils;
+import gov.nasa.pds.supp.util.Tuple;
+
+
+/**
+ * Run-scoped cache of supplemental fields of the registry schema.
+ *
+ * <p>The cache is loaded with one "_mapping/field" request on first use
+ * and updated locally after each schema update. New fields requested by
+ * several threads (labels) at once are added by one schema update.
+ *
+ * <p>Another process could update the schema at the same time. Adding a field
+ * which already exists is not an error, because field names include the data
+ * type. If a schema update fails, the cache is reloaded and fields which are
+ * still missing are added again.
+ *
+ * <p>This class is thread-safe.
+ */
+public class SchemaCache
+{
+    private Logger log;
+    private SchemaDao dao;
+
+    // Key = field name, value = data type. Null until loaded.
+    private Map<String, String> fields;
+    // New fields waiting for a schema update
+    private Map<String, String> pending = new LinkedHashMap<>();
+    // Only one schema update at a time
+    private Object updateLock = new Object();
+
+
+    /**
+     * Constructor
+     * @param dao schema DAO
+     */
+    public SchemaCache(SchemaDao dao)
+    {
+        log = LogManager.getLogger(this.getClass());
+        this.dao = dao;
+    }
+
+
+    /**
+     * Add fields which don't exist in the registry schema. Blocks until
+     * the fields are added (by this or another thread).
+     * @param newFields A list of fields. Each field tuple has a name and a data type.
+     * @throws Exception an exception
+     */
+    public void addFields(List<Tuple> newFields) throws Exception
+    {
+        // Fields of this call which are not in the schema
+        Map<String, String> missing = new LinkedHashMap<>();
+
+        synchronized(this)
+        {
+            if(fields == null) fields = dao.getSupplementalFields();
+
+            for(Tuple field: newFields)
+            {
+                if(fields.containsKey(field.item1)) continue;
+                missing.put(field.item1, field.item2);
+                pending.putIfAbsent(field.item1, field.item2);
+            }
+        }
+
+        if(missing.isEmpty()) return;
+
+        synchronized(updateLock)
+        {
+            Map<String, String> batch;
+
+            synchronized(this)
+            {
+                // Another thread could have added these fields while this thread was waiting
+                missing.keySet().removeIf(fields::containsKey);
+                if(missing.isEmpty()) return;
+
+                // Add fields of all waiting threads
+                batch = new LinkedHashMap<>(pending);
+                batch.putAll(missing);
+            }
+
+            try
+            {
+                updateSchema(batch);
+            }
+            finally
+            {
+                synchronized(this)
+                {
+                    pending.keySet().removeAll(batch.keySet());
+                }
+            }
+        }
+    }
+
+
+    private void updateSchema(Map<String, String> batch) throws Exception
+    {
+        log.info("Updating Elasticsearch schema. Adding " + batch.size() + " field(s).");
+
+        try
+        {
+            dao.updateSchema(toTuples(batch));
+        }
+        catch(ResponseException ex)
+        {
+            log.warn("Could not update Elasticsearch schema: " + EsUtils.extractErrorMessage(ex)
+                    + ". Reloading the schema.");
+
+            // The schema could have been changed by another process
+            Map<String, String> current = dao.getSupplementalFields();
+            synchronized(this)
+            {
+                fields = current;
+            }
+
+            Map<String, String> stillMissing = new LinkedHashMap<>(batch);
+            stillMissing.keySet().removeAll(current.keySet());
+            if(!stillMissing.isEmpty()) dao.updateSchema(toTuples(stillMissing));
+        }
+
+        synchronized(this)
+        {
+            fields.putAll(batch);
+        }
+    }
+
+
+    private static List<Tuple> toTuples(Map<String, String> map)
+    {
+        List<Tuple> list = new ArrayList<>(map.size());
+        for(Map.Entry<String, String> entry: map.entrySet())
+        {
+            list.add(new Tuple(entry.getKey(), entry.getValue()));
+        }
+
+        return list;
+    }
+}
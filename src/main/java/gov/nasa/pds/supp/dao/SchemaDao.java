@@ -1,8 +1,8 @@
 package gov.nasa.pds.supp.dao;
 
 import java.util.List;
-import java.util.Set;
-import java.util.TreeSet;
+import java.util.Map;
+import java.util.TreeMap;
 
 import org.elasticsearch.client.Request;
 import org.elasticsearch.client.Response;
@@ -19,6 +19,9 @@ import gov.nasa.pds.supp.util.Tuple;
  */
 public class SchemaDao extends Dao
 {
+    // Field name pattern of "_mapping/field" API
+    private static final String SUPPLEMENTAL_FIELDS = "ops:Supplemental*";
+
     /**
      * Constructor
      * @param client Elasticsearch client
@@ -31,26 +34,40 @@ public class SchemaDao extends Dao
     
     
     /**
-     * Get names of supplemental fields from Elasticsearch schema
-     * @return a list of field names
+     * Get names and data types of supplemental fields from Elasticsearch schema.
+     * Only supplemental fields are requested ("_mapping/field" API), 
+     * not the whole registry schema.
+     * @return a map where key = field name, value = data type
      * @throws Exception an exception
      */
-    public Set<String> getSupplementalFieldNames() throws Exception
+    @SuppressWarnings("rawtypes")
+    public Map<String, String> getSupplementalFields() throws Exception
     {
-        Request req = new Request("GET", "/" + indexName + "/_mappings");
+        Request req = new Request("GET", "/" + indexName + "/_mapping/field/" + SUPPLEMENTAL_FIELDS);
         Response resp = client.performRequest(req);
-        
-        MappingsParser parser = new MappingsParser(indexName);
-        
-        Set<String> fields = new TreeSet<>();
-        parser.parse(resp.getEntity(), (name) -> 
+        Map json = parseJson(resp);
+
+        Map<String, String> fields = new TreeMap<>();
+
+        // Key = index name. Could be different from "indexName" if it is an alias.
+        for(Object index: json.values())
         {
-            if(name.startsWith("ops:Supplemental/"))
+            Map mappings = (Map)((Map)index).get("mappings");
+            if(mappings == null) continue;
+
+            for(Object obj: mappings.entrySet())
             {
-                fields.add(name);
+                Map.Entry entry = (Map.Entry)obj;
+                String name = (String)entry.getKey();
+                if(!name.startsWith("ops:Supplemental/")) continue;
+
+                // "mapping": { "<name>": { "type": "double" } }
+                Map mapping = (Map)((Map)entry.getValue()).get("mapping");
+                Map field = (mapping == null) ? null : (Map)mapping.get(name);
+                fields.put(name, (field == null) ? null : (String)field.get("type"));
             }
-        });
-        
+        }
+
         return fields;
     }
 
@@ -68,7 +85,7 @@ public class SchemaDao extends Dao
         String json = bld.createUpdateSchemaRequest(fields);
         
         Request req = new Request("PUT", "/" + indexName + "/_mapping");
-        req.setJsonEntity(json);
+        setJsonEntity(req, json);
         client.performRequest(req);
     }
 
@@ -0,0 +1,197 @@
+package gov.nasa.pds.supp.dao;
+
+import java.util.Map;
+
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.client.RestClient;
+
+
+/**
+ * Data access object to export all product IDs (lidvids) from the registry
+ * index. IDs are exported from a point in time (PIT) with "search_after".
+ * A point in time could be searched by several threads (slices) at once.
+ *
+ * <p>Both Elasticsearch ("_pit") and OpenSearch ("_search/point_in_time")
+ * point in time APIs are supported.
+ */
+public class SnapshotDao extends Dao
+{
+    // Max number of documents returned by one search request
+    private static final int PAGE_SIZE = 10000;
+
+    // Point in time API of the registry
+    private volatile boolean openSearch;
+
+
+    /**
+     * Constructor
+     * @param client Elasticsearch client
+     * @param esIndex Elasticsearch index name
+     */
+    public SnapshotDao(RestClient client, String esIndex)
+    {
+        super(client, esIndex);
+    }
+
+
+    /**
+     * Get number of documents and the latest harvest time of the registry index.
+     * @return registry stamp
+     * @throws Exception an exception
+     */
+    @SuppressWarnings("rawtypes")
+    public RegistryStamp getRegistryStamp() throws Exception
+    {
+        Request req = new Request("GET", "/" + indexName + "/_search");
+        RegistryRequestBuilder bld = new RegistryRequestBuilder();
+        setJsonEntity(req, bld.createGetRegistryStamp());
+
+        Response resp = client.performRequest(req);
+        Map json = parseJson(resp);
+
+        RegistryStamp stamp = new RegistryStamp();
+        stamp.indexName = indexName;
+
+        // "total" is an object in Elasticsearch 7+ and a number in older versions
+        Map hits = (Map)json.get("hits");
+        Object total = (hits == null) ? null : hits.get("total");
+        if(total instanceof Map) total = ((Map)total).get("value");
+        if(total instanceof Number) stamp.docCount = ((Number)total).longValue();
+
+        // Max aggregation value is null if there are no documents with harvest time
+        Map aggs = (Map)json.get("aggregations");
+        Map harvestTime = (aggs == null) ? null : (Map)aggs.get("harvest_time");
+        Object value = (harvestTime == null) ? null : harvestTime.get("value");
+        if(value instanceof Number) stamp.maxHarvestTime = ((Number)value).longValue();
+
+        return stamp;
+    }
+
+
+    /**
+     * Open a point in time of the registry index.
+     * @param keepAlive how long to keep the point in time, such as "5m"
+     * @return point in time ID
+     * @throws Exception an exception
+     */
+    @SuppressWarnings("rawtypes")
+    public String openPit(String keepAlive) throws Exception
+    {
+        Response resp;
+
+        try
+        {
+            // Elasticsearch 7.10+
+            Request req = new Request("POST", "/" + indexName + "/_pit");
+            req.addParameter("keep_alive", keepAlive);
+            resp = client.performRequest(req);
+            openSearch = false;
+        }
+        catch(ResponseException ex)
+        {
+            // Unknown endpoint: 400, 404 or 405 depending on the server
+            int status = ex.getResponse().getStatusLine().getStatusCode();
+            if(status != 400 && status != 404 && status != 405) throw ex;
+
+            // OpenSearch 2.4+
+            log.debug("Elasticsearch point in time API is not supported. Trying OpenSearch API.");
+            Request req = new Request("POST", "/" + indexName + "/_search/point_in_time");
+            req.addParameter("keep_alive", keepAlive);
+            resp = client.performRequest(req);
+            openSearch = true;
+        }
+
+        Map json = parseJson(resp);
+        Object id = json.get(openSearch ? "pit_id" : "id");
+        if(id == null) throw new Exception("Could not open point in time. Missing point in time ID.");
+
+        return id.toString();
+    }
+
+
+    /**
+     * Close a point in time. Errors are logged and ignored, because 
+     * the point in time expires anyway.
+     * @param pitId point in time ID
+     */
+    public void closePit(String pitId)
+    {
+        if(pitId == null) return;
+
+        try
+        {
+            Request req = new Request("DELETE", openSearch ? "/_search/point_in_time" : "/_pit");
+            RegistryRequestBuilder bld = new RegistryRequestBuilder();
+            setJsonEntity(req, bld.createClosePit(pitId, openSearch));
+            client.performRequest(req);
+        }
+        catch(Exception ex)
+        {
+            log.warn("Could not close point in time: " + ex.getMessage());
+        }
+    }
+
+
+    /**
+     * Export all lidvids of a point in time slice. Lidvids are returned
+     * sorted by lidvid (the same order as unsigned UTF-8 bytes).
+     * @param pitId point in time ID
+     * @param keepAlive how long to keep the point in time, such as "5m"
+     * @param slice slice ID
+     * @param maxSlices number of slices
+     * @param cb callback called for each lidvid
+     * @throws Exception an exception
+     */
+    public void exportLidVids(String pitId, String keepAlive, int slice, int maxSlices,
+            PitSearchParser.Callback cb) throws Exception
+    {
+        exportLidVids(pitId, keepAlive, slice, maxSlices, null, null, cb);
+    }
+
+
+    /**
+     * Export lidvids of a point in time slice in a range. Lidvids are returned
+     * sorted by lidvid (the same order as unsigned UTF-8 bytes).
+     * @param pitId point in time ID
+     * @param keepAlive how long to keep the point in time, such as "5m"
+     * @param slice slice ID
+     * @param maxSlices number of slices
+     * @param from first lidvid (inclusive) or null to start from the first document
+     * @param to last lidvid (exclusive) or null to export all documents after "from"
+     * @param cb callback called for each lidvid
+     * @throws Exception an exception
+     */
+    public void exportLidVids(String pitId, String keepAlive, int slice, int maxSlices,
+            String from, String to, PitSearchParser.Callback cb) throws Exception
+    {
+        RegistryRequestBuilder bld = new RegistryRequestBuilder();
+        PitSearchParser parser = new PitSearchParser();
+        String searchAfter = null;
+
+        do
+        {
+            // Point in time searches don't have index name in the URL
+            Request req = new Request("GET", "/_search");
+            String json = bld.createExportLidVids(pitId, keepAlive, slice, maxSlices, PAGE_SIZE,
+                    searchAfter, from, to);
+            setJsonEntity(req, json);
+
+            Response resp = client.performRequest(req);
+            parser.parse(getContent(resp), cb);
+
+            if(parser.getFailedShards() > 0)
+            {
+                throw new Exception("Search failed on " + parser.getFailedShards() + " shard(s)");
+            }
+
+            // Point in time ID could change between requests
+            if(parser.getPitId() != null) pitId = parser.getPitId();
+
+            // All sort values of the last document, including the implicit tiebreaker
+            searchAfter = parser.getLastSort();
+        }
+        while(parser.getNumHits() == PAGE_SIZE);
+    }
+}
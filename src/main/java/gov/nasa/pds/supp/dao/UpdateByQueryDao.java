@@ -0,0 +1,142 @@
+package gov.nasa.pds.supp.dao;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.RestClient;
+
+
+/**
+ * Data access object to update all versions of LIDs on the server side
+ * with "_update_by_query" API. Updates run as asynchronous tasks
+ * (wait_for_completion=false) and are polled with "_tasks" API.
+ */
+public class UpdateByQueryDao extends Dao
+{
+    /**
+     * Status of an update by query task
+     */
+    public static class TaskStatus
+    {
+        /**
+         * True if the task has completed
+         */
+        public boolean completed;
+
+        /**
+         * Number of updated documents
+         */
+        public long updated;
+
+        /**
+         * Number of version conflicts (documents were changed by someone else)
+         */
+        public long versionConflicts;
+
+        /**
+         * Task error or document failures. Empty if the task was successful.
+         */
+        public List<String> failures = new ArrayList<>();
+    }
+
+
+    /**
+     * Constructor
+     * @param client Elasticsearch client
+     * @param esIndex Elasticsearch index name
+     */
+    public UpdateByQueryDao(RestClient client, String esIndex)
+    {
+        super(client, esIndex);
+    }
+
+
+    /**
+     * Start a task to set the same supplemental fields in all versions of given LIDs.
+     * @param lids one or more LIDs
+     * @param updateJson UTF-8 bulk update data JSON: {"doc":{...}}
+     * @param requestsPerSecond throttle of the task (updated documents per second)
+     * or a negative value to run the task without throttling
+     * @return task ID
+     * @throws Exception an exception
+     */
+    @SuppressWarnings("rawtypes")
+    public String startUpdateLids(Collection<String> lids, byte[] updateJson, int requestsPerSecond) throws Exception
+    {
+        Request req = new Request("POST", "/" + indexName + "/_update_by_query");
+        req.addParameter("wait_for_completion", "false");
+        // Conflicts are reported by the task status
+        req.addParameter("conflicts", "proceed");
+        if(requestsPerSecond > 0) req.addParameter("requests_per_second", String.valueOf(requestsPerSecond));
+
+        RegistryRequestBuilder bld = new RegistryRequestBuilder();
+        setJsonEntity(req, bld.createUpdateLidsByQuery(lids, updateJson));
+
+        Response resp = client.performRequest(req);
+        Map json = parseJson(resp);
+
+        Object taskId = json.get("task");
+        if(taskId == null) throw new Exception("Update by query response doesn't have task ID");
+        return taskId.toString();
+    }
+
+
+    /**
+     * Get status of an update by query task.
+     * @param taskId task ID
+     * @return task status
+     * @throws Exception an exception
+     */
+    @SuppressWarnings("rawtypes")
+    public TaskStatus getTaskStatus(String taskId) throws Exception
+    {
+        Request req = new Request("GET", "/_tasks/" + taskId);
+        Response resp = client.performRequest(req);
+        Map json = parseJson(resp);
+
+        TaskStatus status = new TaskStatus();
+        status.completed = Boolean.TRUE.equals(json.get("completed"));
+        if(!status.completed) return status;
+
+        // The task has failed
+        Map error = (Map)json.get("error");
+        if(error != null)
+        {
+            status.failures.add(String.valueOf(error.get("reason")));
+            return status;
+        }
+
+        Map response = (Map)json.get("response");
+        if(response == null) return status;
+
+        status.updated = getLong(response, "updated");
+        status.versionConflicts = getLong(response, "version_conflicts");
+
+        List failures = (List)response.get("failures");
+        if(failures != null)
+        {
+            for(Object obj: failures)
+            {
+                Map failure = (Map)obj;
+                Map cause = (Map)failure.get("cause");
+                Object reason = (cause != null) ? cause.get("reason") : failure.get("reason");
+                Object id = failure.get("id");
+                status.failures.add((id == null) ? String.valueOf(reason) : id + ": " + reason);
+            }
+        }
+
+        return status;
+    }
+
+
+    @SuppressWarnings("rawtypes")
+    private static long getLong(Map map, String key)
+    {
+        Object value = map.get(key);
+        return (value instanceof Number) ? ((Number)value).longValue() : 0;
+    }
+}
@@ -0,0 +1,145 @@
+package gov.nasa.pds.supp.dao;
+
+import java.util.Arrays;
+
+import gov.nasa.pds.supp.table.TableReader;
+
+
+/**
+ * Adaptive value dictionary of a table column. Caches encoded (trimmed,
+ * converted and escaped) JSON values by raw field bytes, so repeated values
+ * of low-cardinality columns, such as instrument or target names, are encoded
+ * by copying a cached fragment.
+ *
+ * <p>The dictionary is disabled for high-cardinality columns: if more than
+ * 1/4 of the first 1000 (or more) values are distinct or if the dictionary is full.
+ * After that, values are encoded by the wrapped encoder.
+ *
+ * <p>This class is not thread-safe.
+ */
+public class ValueDictionary implements EncodingPlan.ValueEncoder
+{
+    private static final int MAX_ENTRIES = 1024;
+    private static final int MAX_KEY_LENGTH = 256;
+    private static final int SAMPLE_ROWS = 1000;
+
+    // Open addressing hash table (2 slots per entry)
+    private static final int TABLE_SIZE = MAX_ENTRIES * 2;
+    private static final int MASK = TABLE_SIZE - 1;
+
+    private EncodingPlan.ValueEncoder encoder;
+    private ColumnStats stats;
+
+    private int[] hashes;
+    private byte[][] keys;
+    private byte[][] values;
+
+    // Raw value of current record
+    private NdJsonEntity key = new NdJsonEntity(MAX_KEY_LENGTH);
+
+
+    /**
+     * Constructor
+     * @param encoder value encoder of the column
+     * @param fieldName field name
+     */
+    public ValueDictionary(EncodingPlan.ValueEncoder encoder, String fieldName)
+    {
+        this.encoder = encoder;
+        stats = new ColumnStats(fieldName);
+
+        hashes = new int[TABLE_SIZE];
+        keys = new byte[TABLE_SIZE][];
+        values = new byte[TABLE_SIZE][];
+    }
+
+
+    /**
+     * Get statistics of this column.
+     * @return column statistics
+     */
+    public ColumnStats getStats()
+    {
+        return stats;
+    }
+
+
+    @Override
+    public void encode(TableReader reader, int index, NdJsonEntity out) throws Exception
+    {
+        stats.rows++;
+
+        if(keys == null)
+        {
+            encoder.encode(reader, index, out);
+            return;
+        }
+
+        key.reset();
+        reader.appendRawValue(index, key);
+
+        // Long values are not cached
+        int len = key.length();
+        if(len > MAX_KEY_LENGTH)
+        {
+            encoder.encode(reader, index, out);
+            return;
+        }
+
+        byte[] buf = key.getBuffer();
+        int hash = hash(buf, len);
+        int slot = hash & MASK;
+
+        while(keys[slot] != null)
+        {
+            if(hashes[slot] == hash && Arrays.equals(keys[slot], 0, keys[slot].length, buf, 0, len))
+            {
+                stats.hits++;
+                out.append(values[slot]);
+                return;
+            }
+
+            slot = (slot + 1) & MASK;
+        }
+
+        // New value
+        int start = out.length();
+        encoder.encode(reader, index, out);
+
+        if(stats.distinct >= MAX_ENTRIES
+                || (stats.rows >= SAMPLE_ROWS && stats.distinct >= stats.rows / 4))
+        {
+            disable();
+            return;
+        }
+
+        hashes[slot] = hash;
+        keys[slot] = Arrays.copyOf(buf, len);
+        values[slot] = Arrays.copyOfRange(out.getBuffer(), start, out.length());
+        stats.distinct++;
+    }
+
+
+    private void disable()
+    {
+        stats.disabledAt = stats.rows;
+
+        hashes = null;
+        keys = null;
+        values = null;
+        key = null;
+    }
+
+
+    private static int hash(byte[] buf, int len)
+    {
+        int h = 0;
+        for(int i = 0; i < len; i++)
+        {
+            h = 31 * h + buf[i];
+        }
+
+        // Spread higher bits to the slot index
+        return h ^ (h >>> 16);
+    }
+}
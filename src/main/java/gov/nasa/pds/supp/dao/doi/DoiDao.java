@@ -1,7 +1,5 @@
 package gov.nasa.pds.supp.dao.doi;
 
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.util.Collection;
 import java.util.Map;
 import java.util.Set;
@@ -11,9 +9,9 @@ import org.elasticsearch.client.Response;
 import org.elasticsearch.client.RestClient;
 
 import gov.nasa.pds.registry.common.es.client.SearchResponseParser;
-import gov.nasa.pds.registry.common.es.dao.BulkResponseParser;
-import gov.nasa.pds.registry.common.util.CloseUtils;
+import gov.nasa.pds.supp.dao.BulkResultParser;
 import gov.nasa.pds.supp.dao.Dao;
+import gov.nasa.pds.supp.dao.NdJsonEntity;
 import gov.nasa.pds.supp.dao.RegistryRequestBuilder;
 
 /**
@@ -51,7 +49,7 @@ public class DoiDao extends Dao
         if(pretty) reqUrl += "?pretty";
         
         Request req = new Request("GET", reqUrl);
-        req.setJsonEntity(jsonReq);
+        setJsonEntity(req, jsonReq);
         Response resp = client.performRequest(req);
 
         //DebugUtils.dumpResponseBody(resp);
@@ -75,31 +73,25 @@ public class DoiDao extends Dao
         if(newIds == null || newIds.isEmpty()) return;
         
         RegistryRequestBuilder bld = new RegistryRequestBuilder();
-        String json = bld.createUpdateDoisRequest(newIds);
-        log.debug("Request:\n" + json);
+        NdJsonEntity entity = bld.createUpdateDoisRequest(newIds);
+        if(log.isDebugEnabled())
+        {
+            log.debug("Request:\n" + entity.getContentAsString());
+        }
         
         String reqUrl = "/" + indexName + "/_bulk?refresh=wait_for";
         Request req = new Request("POST", reqUrl);
-        req.setJsonEntity(json);
+        req.addParameter("filter_path", BulkResultParser.FILTER_PATH);
+        setBulkEntity(req, entity);
         
         Response resp = client.performRequest(req);
         
         // Check for Elasticsearch errors.
-        InputStream is = null;
-        InputStreamReader rd = null;
-        try
+        BulkResultParser parser = new BulkResultParser();
+        parser.parse(getContent(resp), err -> 
         {
-            is = resp.getEntity().getContent();
-            rd = new InputStreamReader(is);
-            
-            BulkResponseParser parser = new BulkResponseParser();
-            parser.parse(rd);
-        }
-        finally
-        {
-            CloseUtils.close(rd);
-            CloseUtils.close(is);
-        }
+            log.error("Could not update " + err.id + ": " + err.reason);
+        });
     }
 
 }
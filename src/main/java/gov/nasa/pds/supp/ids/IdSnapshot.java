@@ -0,0 +1,336 @@
+package gov.nasa.pds.supp.ids;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import gov.nasa.pds.supp.dao.IdLookup;
+import gov.nasa.pds.supp.dao.RegistryStamp;
+
+
+/**
+ * Memory-mapped ID snapshot file created by "snapshot-ids" command.
+ * Resolves LIDs and LIDVIDs locally, without registry queries.
+ * See IdSnapshotWriter for file layout.
+ *
+ * <p>This class is thread-safe. The file is read with absolute reads only.
+ */
+public class IdSnapshot implements IdLookup, Closeable
+{
+    private static final byte[] VERSION_SEPARATOR = { ':', ':' };
+
+    private FileChannel channel;
+    private ByteBuffer buf;
+
+    private long count;
+    private int numBlocks;
+    private int indexOffset;
+    private RegistryStamp stamp;
+
+
+    /**
+     * Position in the snapshot file. Decodes lidvids of a block.
+     */
+    private class Cursor
+    {
+        private int block;
+        private int pos;
+        private int end;
+
+        public byte[] key = new byte[256];
+        public int keyLength;
+
+        /**
+         * Position the cursor before the first lidvid of a block.
+         */
+        public void setBlock(int block)
+        {
+            this.block = block;
+            pos = getBlockOffset(block);
+            end = (block + 1 < numBlocks) ? getBlockOffset(block + 1) : indexOffset;
+            keyLength = 0;
+        }
+
+        /**
+         * Decode next lidvid.
+         * @return false if there are no more lidvids
+         */
+        public boolean next()
+        {
+            if(pos >= end)
+            {
+                if(block + 1 >= numBlocks) return false;
+                setBlock(block + 1);
+            }
+
+            int shared = readVarInt();
+            int length = readVarInt();
+
+            if(key.length < shared + length) key = Arrays.copyOf(key, (shared + length) * 2);
+            for(int i = 0; i < length; i++)
+            {
+                key[shared + i] = buf.get(pos + i);
+            }
+
+            pos += length;
+            keyLength = shared + length;
+            return true;
+        }
+
+        /**
+         * Position the cursor on the first lidvid which is greater than or equal to a key.
+         * @return false if there is no such lidvid
+         */
+        public boolean seek(byte[] target)
+        {
+            if(numBlocks == 0) return false;
+
+            // Last block with the first lidvid less than or equal to the key
+            int lo = 0;
+            int hi = numBlocks - 1;
+            while(lo < hi)
+            {
+                int mid = (lo + hi + 1) >>> 1;
+                setBlock(mid);
+                next();
+                if(compare(target) <= 0)
+                {
+                    lo = mid;
+                }
+                else
+                {
+                    hi = mid - 1;
+                }
+            }
+
+            setBlock(lo);
+            while(next())
+            {
+                if(compare(target) >= 0) return true;
+            }
+
+            return false;
+        }
+
+        /**
+         * Compare current lidvid with a key.
+         */
+        public int compare(byte[] target)
+        {
+            return Arrays.compareUnsigned(key, 0, keyLength, target, 0, target.length);
+        }
+
+        /**
+         * Check if current lidvid starts with a prefix.
+         */
+        public boolean startsWith(byte[] prefix)
+        {
+            return keyLength >= prefix.length 
+                    && Arrays.equals(key, 0, prefix.length, prefix, 0, prefix.length);
+        }
+
+        private int readVarInt()
+        {
+            int value = 0;
+            int shift = 0;
+            byte b;
+
+            do
+            {
+                b = buf.get(pos++);
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            }
+            while(b < 0);
+
+            return value;
+        }
+    }
+
+
+    private IdSnapshot()
+    {
+    }
+
+
+    /**
+     * Open ID snapshot file.
+     * @param file snapshot file
+     * @return ID snapshot
+     * @throws IOException if the file could not be read or is not an ID snapshot file
+     */
+    public static IdSnapshot open(File file) throws IOException
+    {
+        IdSnapshot snapshot = new IdSnapshot();
+        snapshot.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+
+        try
+        {
+            snapshot.init(file);
+        }
+        catch(IOException ex)
+        {
+            snapshot.close();
+            throw ex;
+        }
+
+        return snapshot;
+    }
+
+
+    private void init(File file) throws IOException
+    {
+        long size = channel.size();
+        if(size > Integer.MAX_VALUE) throw new IOException("ID snapshot file is too large: " + file);
+        if(size < 8 + IdSnapshotWriter.FOOTER_SIZE) throw new IOException("Invalid ID snapshot file: " + file);
+
+        buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+
+        int footer = (int)size - IdSnapshotWriter.FOOTER_SIZE;
+        if(buf.getLong(0) != IdSnapshotWriter.MAGIC || buf.getLong(footer + 40) != IdSnapshotWriter.MAGIC)
+        {
+            throw new IOException("Invalid ID snapshot file: " + file);
+        }
+
+        count = buf.getLong(footer);
+
+        stamp = new RegistryStamp();
+        stamp.docCount = buf.getLong(footer + 8);
+        stamp.maxHarvestTime = buf.getLong(footer + 16);
+
+        numBlocks = buf.getInt(footer + 24);
+        indexOffset = buf.getInt(footer + 28);
+
+        int nameOffset = buf.getInt(footer + 32);
+        int nameLength = buf.getInt(footer + 36);
+        byte[] name = new byte[nameLength];
+        for(int i = 0; i < nameLength; i++)
+        {
+            name[i] = buf.get(nameOffset + i);
+        }
+        stamp.indexName = new String(name, StandardCharsets.UTF_8);
+    }
+
+
+    /**
+     * Get state of the registry index when the snapshot was taken.
+     * @return registry stamp
+     */
+    public RegistryStamp getStamp()
+    {
+        return stamp;
+    }
+
+
+    /**
+     * Get number of lidvids in this snapshot.
+     * @return number of lidvids
+     */
+    public long size()
+    {
+        return count;
+    }
+
+
+    /**
+     * Check if a lidvid exists.
+     * @param lidvid lidvid
+     * @return true if the lidvid exists
+     */
+    public boolean contains(String lidvid)
+    {
+        byte[] key = lidvid.getBytes(StandardCharsets.UTF_8);
+
+        Cursor cursor = new Cursor();
+        return cursor.seek(key) && cursor.compare(key) == 0;
+    }
+
+
+    /**
+     * Get all versions of a lid.
+     * @param lid lid
+     * @return list of vids or null if there are no products with this lid
+     */
+    public List<String> getVids(String lid)
+    {
+        return getVids(new Cursor(), lid);
+    }
+
+
+    private List<String> getVids(Cursor cursor, String lid)
+    {
+        // All lidvids of a lid are stored together, because a lid can't contain "::"
+        byte[] lidBytes = lid.getBytes(StandardCharsets.UTF_8);
+        byte[] prefix = Arrays.copyOf(lidBytes, lidBytes.length + VERSION_SEPARATOR.length);
+        System.arraycopy(VERSION_SEPARATOR, 0, prefix, lidBytes.length, VERSION_SEPARATOR.length);
+
+        if(!cursor.seek(prefix)) return null;
+
+        List<String> vids = null;
+        while(cursor.startsWith(prefix))
+        {
+            if(vids == null) vids = new ArrayList<>();
+            vids.add(new String(cursor.key, prefix.length, cursor.keyLength - prefix.length, 
+                    StandardCharsets.UTF_8));
+
+            if(!cursor.next()) break;
+        }
+
+        return vids;
+    }
+
+
+    @Override
+    public void findVidsByLids(Collection<String> lids, Map<String, List<String>> map) throws Exception
+    {
+        if(lids == null || lids.isEmpty()) return;
+
+        Cursor cursor = new Cursor();
+        for(String lid: lids)
+        {
+            List<String> vids = getVids(cursor, lid);
+            if(vids != null) map.put(lid, vids);
+        }
+    }
+
+
+    @Override
+    public Set<String> findExistingLidVids(Collection<String> lidvids) throws Exception
+    {
+        if(lidvids == null || lidvids.isEmpty()) return null;
+
+        Set<String> existingIds = new TreeSet<>();
+        for(String lidvid: lidvids)
+        {
+            if(contains(lidvid)) existingIds.add(lidvid);
+        }
+
+        return existingIds;
+    }
+
+
+    @Override
+    public void close() throws IOException
+    {
+        // The mapped buffer is released by garbage collector
+        buf = null;
+        channel.close();
+    }
+
+
+    private int getBlockOffset(int block)
+    {
+        return buf.getInt(indexOffset + block * 4);
+    }
+}
@@ -0,0 +1,190 @@
+package gov.nasa.pds.supp.ids;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import gov.nasa.pds.supp.dao.RegistryStamp;
+
+
+/**
+ * Writes an ID snapshot file. Lidvids have to be added in sorted order
+ * (unsigned UTF-8 bytes).
+ *
+ * <p>File layout (all numbers are big-endian):
+ * <ul>
+ * <li>Magic number (8 bytes)</li>
+ * <li>Blocks of prefix-compressed lidvids. Each block has up to 32 lidvids.
+ * Each lidvid is stored as (varint) number of bytes shared with the previous
+ * lidvid, (varint) suffix length and suffix bytes. The first lidvid of a block
+ * doesn't share any bytes, so a block could be decoded without previous blocks.</li>
+ * <li>Block index: (int) offset of each block</li>
+ * <li>Registry index name (UTF-8)</li>
+ * <li>Footer (48 bytes): (long) number of lidvids, (long) number of registry documents,
+ * (long) latest harvest time, (int) number of blocks, (int) block index offset,
+ * (int) index name offset, (int) index name length, (long) magic number.</li>
+ * </ul>
+ */
+public class IdSnapshotWriter implements Closeable
+{
+    static final long MAGIC = 0x5044534944533031L;      // "PDSIDS01"
+    static final int FOOTER_SIZE = 48;
+    static final int BLOCK_SIZE = 32;
+
+    private DataOutputStream out;
+    private long pos;
+
+    private IntList blocks = new IntList();
+    private long count;
+
+    private byte[] prevKey = new byte[256];
+    private int prevKeyLength;
+
+
+    /**
+     * Growable list of ints
+     */
+    private static class IntList
+    {
+        public int[] values = new int[1024];
+        public int size;
+
+        public void add(int value)
+        {
+            if(size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+    }
+
+
+    /**
+     * Constructor. Creates a new file.
+     * @param file snapshot file
+     * @throws IOException an exception
+     */
+    public IdSnapshotWriter(File file) throws IOException
+    {
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+        out.writeLong(MAGIC);
+        pos = 8;
+    }
+
+
+    /**
+     * Add a lidvid.
+     * @param key UTF-8 encoded lidvid
+     * @throws IOException if the lidvid is not greater than the previous one 
+     * or if the file is too large.
+     */
+    public void add(byte[] key) throws IOException
+    {
+        int shared = 0;
+
+        if(count > 0)
+        {
+            int cmp = Arrays.compareUnsigned(key, 0, key.length, prevKey, 0, prevKeyLength);
+            if(cmp == 0) return;
+            if(cmp < 0) throw new IOException("Lidvids are not sorted: " + new String(key, "UTF-8"));
+        }
+
+        if(count % BLOCK_SIZE == 0)
+        {
+            checkSize();
+            blocks.add((int)pos);
+        }
+        else
+        {
+            int max = Math.min(key.length, prevKeyLength);
+            while(shared < max && key[shared] == prevKey[shared]) shared++;
+        }
+
+        writeVarInt(shared);
+        writeVarInt(key.length - shared);
+        out.write(key, shared, key.length - shared);
+        pos += key.length - shared;
+
+        if(prevKey.length < key.length) prevKey = new byte[key.length * 2];
+        System.arraycopy(key, 0, prevKey, 0, key.length);
+        prevKeyLength = key.length;
+        count++;
+    }
+
+
+    /**
+     * Get number of lidvids added so far.
+     * @return number of lidvids
+     */
+    public long getCount()
+    {
+        return count;
+    }
+
+
+    /**
+     * Write block index and footer.
+     * @param stamp state of the registry index when the snapshot was taken
+     * @throws IOException an exception
+     */
+    public void finish(RegistryStamp stamp) throws IOException
+    {
+        int indexOffset = (int)pos;
+        for(int i = 0; i < blocks.size; i++)
+        {
+            out.writeInt(blocks.values[i]);
+        }
+        pos += 4L * blocks.size;
+
+        byte[] name = stamp.indexName.getBytes("UTF-8");
+        int nameOffset = (int)pos;
+        out.write(name);
+        pos += name.length;
+        checkSize();
+
+        out.writeLong(count);
+        out.writeLong(stamp.docCount);
+        out.writeLong(stamp.maxHarvestTime);
+        out.writeInt(blocks.size);
+        out.writeInt(indexOffset);
+        out.writeInt(nameOffset);
+        out.writeInt(name.length);
+        out.writeLong(MAGIC);
+        out.flush();
+    }
+
+
+    @Override
+    public void close() throws IOException
+    {
+        out.close();
+    }
+
+
+    private void writeVarInt(int value) throws IOException
+    {
+        while((value & ~0x7F) != 0)
+        {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+            pos++;
+        }
+
+        out.write(value);
+        pos++;
+    }
+
+
+    /**
+     * Snapshot files are memory-mapped with one buffer.
+     */
+    private void checkSize() throws IOException
+    {
+        if(pos + 4L * blocks.size + FOOTER_SIZE + 1024 > Integer.MAX_VALUE)
+        {
+            throw new IOException("ID snapshot file is too large (max size is 2 GB)");
+        }
+    }
+}
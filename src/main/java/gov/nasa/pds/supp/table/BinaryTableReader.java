@@ -0,0 +1,324 @@
+package gov.nasa.pds.supp.table;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import gov.nasa.pds.supp.dao.NdJsonEntity;
+
+
+/**
+ * Reads binary tables (Table_Binary) directly from a memory-mapped data file.
+ *
+ * <p>Numeric fields are decoded with typed ByteBuffer reads using the byte order
+ * of the PDS4 data type (LSB / MSB) and written as JSON numbers without
+ * creating Strings or boxed values. Character fields (ASCII_* and UTF8_String)
+ * are read the same way as fields of fixed-width character tables.
+ */
+public class BinaryTableReader extends FixedWidthTableReader
+{
+    // Field types
+    private static final int TEXT = 0;
+    private static final int INT8 = 1;
+    private static final int UINT8 = 2;
+    private static final int INT16 = 3;
+    private static final int UINT16 = 4;
+    private static final int INT32 = 5;
+    private static final int UINT32 = 6;
+    private static final int INT64 = 7;
+    private static final int UINT64 = 8;
+    private static final int FLOAT = 9;
+    private static final int DOUBLE = 10;
+
+    private TableLayout layout;
+
+    // Field types, lengths and byte order by field index (index starts from 1)
+    private int[] fieldTypes;
+    private int[] fieldLengths;
+    private boolean[] littleEndian;
+
+    // Little-endian view of the current window
+    private ByteBuffer window;
+    private ByteBuffer leWindow;
+
+
+    /**
+     * Constructor. Opens the data file.
+     * @param layout binary table layout. Use TableReaderFactory to check
+     * that the layout is supported.
+     * @throws IOException an exception
+     */
+    public BinaryTableReader(TableLayout layout) throws IOException
+    {
+        super(layout);
+        this.layout = layout;
+
+        int numFields = layout.fields.size();
+        fieldTypes = new int[numFields + 1];
+        fieldLengths = new int[numFields + 1];
+        littleEndian = new boolean[numFields + 1];
+
+        for(int i = 0; i < numFields; i++)
+        {
+            TableLayout.FieldLayout field = layout.fields.get(i);
+            fieldTypes[i + 1] = getFieldType(field.dataType, field.length);
+            if(fieldTypes[i + 1] < 0) throw new IOException("Unsupported data type of field "
+                    + field.name + ": " + field.dataType);
+
+            fieldLengths[i + 1] = field.length;
+            littleEndian[i + 1] = field.dataType.contains("LSB");
+        }
+    }
+
+
+    /**
+     * Check if a PDS4 binary data type is supported.
+     * @param dataType PDS4 data type, such as "SignedMSB4"
+     * @param length field length in bytes
+     * @return true if the data type is supported
+     */
+    public static boolean isSupported(String dataType, int length)
+    {
+        return getFieldType(dataType, length) >= 0;
+    }
+
+
+    @Override
+    public SplittableTableReader copy() throws IOException
+    {
+        return new BinaryTableReader(layout);
+    }
+
+
+    @Override
+    public String getString(int index)
+    {
+        switch(fieldTypes[index])
+        {
+        case TEXT:
+            return super.getString(index);
+        case UINT64:
+            return Long.toUnsignedString(getLong(index));
+        case FLOAT:
+            return String.valueOf(getFloat(index));
+        case DOUBLE:
+            return String.valueOf(getDouble(index));
+        default:
+            return String.valueOf(getLong(index));
+        }
+    }
+
+
+    @Override
+    public void appendJsonString(int index, NdJsonEntity out)
+    {
+        if(fieldTypes[index] == TEXT)
+        {
+            super.appendJsonString(index, out);
+        }
+        else
+        {
+            out.appendJsonString(getString(index));
+        }
+    }
+
+
+    @Override
+    public void appendJsonValue(int index, NdJsonEntity out)
+    {
+        switch(fieldTypes[index])
+        {
+        case TEXT:
+            super.appendJsonString(index, out);
+            break;
+        case UINT64:
+            out.appendUnsignedLong(getLong(index));
+            break;
+        case FLOAT:
+            out.appendFloat(getFloat(index));
+            break;
+        case DOUBLE:
+            out.appendDouble(getDouble(index));
+            break;
+        default:
+            out.appendLong(getLong(index));
+            break;
+        }
+    }
+
+
+    /**
+     * Bytes of numeric fields are not trimmed.
+     */
+    @Override
+    public void appendRawValue(int index, NdJsonEntity out)
+    {
+        if(fieldTypes[index] == TEXT)
+        {
+            super.appendRawValue(index, out);
+        }
+        else
+        {
+            out.append(getBuffer(), getFieldPosition(index), fieldLengths[index]);
+        }
+    }
+
+
+    @Override
+    public void appendJsonNumber(int index, NdJsonEntity out)
+    {
+        if(fieldTypes[index] == TEXT)
+        {
+            super.appendJsonNumber(index, out);
+        }
+        else
+        {
+            appendJsonValue(index, out);
+        }
+    }
+
+
+    @Override
+    public void appendJsonBoolean(int index, NdJsonEntity out)
+    {
+        if(fieldTypes[index] == TEXT)
+        {
+            super.appendJsonBoolean(index, out);
+        }
+        else
+        {
+            out.appendJsonBoolean(getString(index));
+        }
+    }
+
+
+    /**
+     * Decode an integer field. Unsigned 64 bit values are returned as is (negative
+     * values are greater than Long.MAX_VALUE).
+     */
+    private long getLong(int index)
+    {
+        ByteBuffer buf = getBuffer(index);
+        int pos = getFieldPosition(index);
+
+        switch(fieldTypes[index])
+        {
+        case INT8:
+            return buf.get(pos);
+        case UINT8:
+            return buf.get(pos) & 0xFFL;
+        case INT16:
+            return buf.getShort(pos);
+        case UINT16:
+            return buf.getShort(pos) & 0xFFFFL;
+        case INT32:
+            return buf.getInt(pos);
+        case UINT32:
+            return buf.getInt(pos) & 0xFFFFFFFFL;
+        default:
+            return buf.getLong(pos);
+        }
+    }
+
+
+    private float getFloat(int index)
+    {
+        return getBuffer(index).getFloat(getFieldPosition(index));
+    }
+
+
+    private double getDouble(int index)
+    {
+        return getBuffer(index).getDouble(getFieldPosition(index));
+    }
+
+
+    /**
+     * Get current window with the byte order of a field.
+     */
+    private ByteBuffer getBuffer(int index)
+    {
+        ByteBuffer buf = getBuffer();
+        if(!littleEndian[index]) return buf;
+
+        // The window has been remapped
+        if(buf != window)
+        {
+            window = buf;
+            leWindow = buf.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        return leWindow;
+    }
+
+
+    /**
+     * Get field type by PDS4 data type.
+     * @return field type or -1 if the data type is not supported
+     */
+    private static int getFieldType(String dataType, int length)
+    {
+        if(dataType == null) return -1;
+        if(dataType.startsWith("ASCII_") || dataType.equals("UTF8_String")) return TEXT;
+
+        int type;
+        int typeLength;
+
+        switch(dataType)
+        {
+        case "SignedByte":
+            type = INT8;
+            typeLength = 1;
+            break;
+        case "UnsignedByte":
+            type = UINT8;
+            typeLength = 1;
+            break;
+        case "SignedLSB2":
+        case "SignedMSB2":
+            type = INT16;
+            typeLength = 2;
+            break;
+        case "UnsignedLSB2":
+        case "UnsignedMSB2":
+            type = UINT16;
+            typeLength = 2;
+            break;
+        case "SignedLSB4":
+        case "SignedMSB4":
+            type = INT32;
+            typeLength = 4;
+            break;
+        case "UnsignedLSB4":
+        case "UnsignedMSB4":
+            type = UINT32;
+            typeLength = 4;
+            break;
+        case "SignedLSB8":
+        case "SignedMSB8":
+            type = INT64;
+            typeLength = 8;
+            break;
+        case "UnsignedLSB8":
+        case "UnsignedMSB8":
+            type = UINT64;
+            typeLength = 8;
+            break;
+        case "IEEE754LSBSingle":
+        case "IEEE754MSBSingle":
+            type = FLOAT;
+            typeLength = 4;
+            break;
+        case "IEEE754LSBDouble":
+        case "IEEE754MSBDouble":
+            type = DOUBLE;
+            typeLength = 8;
+            break;
+        default:
+            // Complex numbers and bit strings
+            return -1;
+        }
+
+        return (length == typeLength) ? type : -1;
+    }
+}
@@ -0,0 +1,593 @@
+package gov.nasa.pds.supp.table;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import gov.nasa.pds.supp.dao.NdJsonEntity;
+
+
+/**
+ * Reads delimited tables (Table_Delimited) directly from a memory-mapped data file.
+ *
+ * <p>Field and record delimiters and quotes are found by scanning 8 bytes
+ * at a time (SWAR, "SIMD within a register"): each 8 byte word is compared
+ * with all 3 special bytes using a few long operations, and only words with
+ * special bytes are examined byte by byte. The scalar scanner is used for
+ * the tail of the data and when SWAR is disabled.
+ *
+ * <p>The reader gives out field offsets (see getFieldOffset()) instead of
+ * Strings. Fields are trimmed, quotes around a field are removed and doubled
+ * quotes ("") inside a quoted field are unescaped in getString() and
+ * appendJsonString().
+ *
+ * <p>Records are split at line feeds. Carriage returns are trimmed. PDS4 does not
+ * allow record delimiters inside fields, so the data file is split into byte
+ * ranges at line feeds without parsing previous records (see split()).
+ */
+public class DelimitedTableReader implements SplittableTableReader
+{
+    private static final long MAX_WINDOW_SIZE = 1L << 30;
+
+    private static final long LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+    private static final long QUOTES = pattern('"');
+    private static final long LINE_FEEDS = pattern('\n');
+
+    private TableLayout layout;
+    private boolean useSwar;
+    private FileChannel channel;
+
+    // Table data in the file
+    private long dataStart;
+    private long dataEnd;
+
+    private byte delimiter;
+    private long delimiters;
+
+    // Field bounds of the current record (window positions) by field index (index starts from 1)
+    private int numFields;
+    private int[] fieldStarts;
+    private int[] fieldEnds;
+
+    // Current window
+    private MappedByteBuffer window;
+    private long windowStart;
+    private int windowLimit;
+
+    // File position of the next record
+    private long nextRecord;
+    // Current range
+    private long rangeEnd;
+    private long rowsLeft;
+
+    // Scanner state
+    private int field;
+    private boolean inQuotes;
+
+    // Buffer to decode strings
+    private byte[] strBuf = new byte[256];
+
+
+    /**
+     * Constructor. Opens the data file. SWAR scanner is used.
+     * @param layout delimited table layout. Use TableReaderFactory to check
+     * that the layout is supported.
+     * @throws IOException an exception
+     */
+    public DelimitedTableReader(TableLayout layout) throws IOException
+    {
+        this(layout, true);
+    }
+
+
+    /**
+     * Constructor. Opens the data file.
+     * @param layout delimited table layout
+     * @param useSwar if false, the scalar (byte by byte) scanner is used
+     * @throws IOException an exception
+     */
+    public DelimitedTableReader(TableLayout layout, boolean useSwar) throws IOException
+    {
+        this.layout = layout;
+        this.useSwar = useSwar;
+
+        delimiter = getDelimiter(layout.fieldDelimiter);
+        if(delimiter == 0) throw new IOException("Unsupported field delimiter: " + layout.fieldDelimiter);
+        delimiters = pattern(delimiter);
+
+        numFields = layout.fields.size();
+        fieldStarts = new int[numFields + 1];
+        fieldEnds = new int[numFields + 1];
+
+        channel = FileChannel.open(layout.dataFile.toPath(), StandardOpenOption.READ);
+
+        dataStart = layout.offset;
+        dataEnd = channel.size();
+        if(layout.objectLength > 0) dataEnd = Math.min(dataEnd, dataStart + layout.objectLength);
+
+        nextRecord = dataStart;
+        rangeEnd = dataEnd;
+        rowsLeft = (layout.records < 0) ? Long.MAX_VALUE : layout.records;
+    }
+
+
+    /**
+     * Get field delimiter byte by PDS4 field_delimiter value.
+     * @param name PDS4 field delimiter, such as "Comma"
+     * @return delimiter byte or 0 if the delimiter is not supported
+     */
+    public static byte getDelimiter(String name)
+    {
+        if(name == null) return 0;
+
+        switch(name.toLowerCase())
+        {
+        case "comma":
+            return ',';
+        case "horizontal tab":
+            return '\t';
+        case "semicolon":
+            return ';';
+        case "vertical bar":
+            return '|';
+        default:
+            return 0;
+        }
+    }
+
+
+    @Override
+    public boolean next() throws IOException
+    {
+        while(nextRecord < rangeEnd && rowsLeft > 0)
+        {
+            if(window == null || nextRecord < windowStart || nextRecord >= windowStart + windowLimit)
+            {
+                map(nextRecord);
+            }
+
+            int start = (int)(nextRecord - windowStart);
+            int end = scanRecord(start);
+
+            if(end < 0)
+            {
+                // The record doesn't fit into the window
+                if(windowStart + windowLimit < dataEnd)
+                {
+                    if(start == 0) throw new IOException("Record at " + nextRecord + " is larger than "
+                            + MAX_WINDOW_SIZE + " bytes");
+                    map(nextRecord);
+                    continue;
+                }
+
+                // Last record without a delimiter
+                end = windowLimit;
+            }
+
+            nextRecord = windowStart + end + 1;
+
+            // Skip blank lines
+            if(isBlank(start, end)) continue;
+
+            rowsLeft--;
+            return true;
+        }
+
+        return false;
+    }
+
+
+    @Override
+    public void skip(long rows) throws IOException
+    {
+        for(long i = 0; i < rows; i++)
+        {
+            if(!next()) break;
+        }
+    }
+
+
+    @Override
+    public List<TableRange> split(long startRow, int rangeRows) throws IOException
+    {
+        // Rows could not be located without reading the table. The caller skips loaded rows.
+        long rangeBytes = Math.max(64 * 1024, (long)rangeRows * getAverageRecordLength());
+
+        // Lines after the declared number of records are not read (the same as next())
+        long splitEnd = (layout.records < 0) ? dataEnd : findRecordsEnd(layout.records);
+
+        List<TableRange> ranges = new ArrayList<>();
+        for(long start = dataStart; start < splitEnd; start += rangeBytes)
+        {
+            long end = Math.min(start + rangeBytes, splitEnd);
+            ranges.add(new TableRange(start, end, (start == dataStart) ? 0 : -1));
+        }
+
+        return ranges;
+    }
+
+
+    /**
+     * A range owns all records which start within the range.
+     */
+    @Override
+    public void setRange(TableRange range) throws IOException
+    {
+        nextRecord = (range.start <= dataStart) ? dataStart : findRecordStart(range.start);
+        rangeEnd = Math.min(range.end, dataEnd);
+        rowsLeft = Long.MAX_VALUE;
+    }
+
+
+    @Override
+    public SplittableTableReader copy() throws IOException
+    {
+        return new DelimitedTableReader(layout, useSwar);
+    }
+
+
+    /**
+     * Get buffer with the data of the current record.
+     * @return memory-mapped buffer
+     */
+    public MappedByteBuffer getBuffer()
+    {
+        return window;
+    }
+
+
+    /**
+     * Get position of a trimmed field in the buffer (see getBuffer()).
+     * Quotes around the field are not included.
+     * @param index field index. Note, index starts from 1.
+     * @return field position
+     */
+    public int getFieldOffset(int index)
+    {
+        int start = fieldStarts[index];
+        int end = fieldEnds[index];
+
+        while(start < end && (window.get(start) & 0xFF) <= ' ') start++;
+        while(end > start && (window.get(end - 1) & 0xFF) <= ' ') end--;
+
+        return isQuoted(start, end) ? start + 1 : start;
+    }
+
+
+    /**
+     * Get length of a trimmed field in bytes. Quotes around the field are not included.
+     * @param index field index. Note, index starts from 1.
+     * @return field length
+     */
+    public int getFieldLength(int index)
+    {
+        int start = fieldStarts[index];
+        int end = fieldEnds[index];
+
+        while(start < end && (window.get(start) & 0xFF) <= ' ') start++;
+        while(end > start && (window.get(end - 1) & 0xFF) <= ' ') end--;
+
+        return isQuoted(start, end) ? end - start - 2 : end - start;
+    }
+
+
+    @Override
+    public String getString(int index)
+    {
+        int start = getFieldOffset(index);
+        int len = getFieldLength(index);
+
+        if(strBuf.length < len) strBuf = new byte[Math.max(len, strBuf.length * 2)];
+
+        // Copy and unescape doubled quotes
+        int count = 0;
+        for(int i = 0; i < len; i++)
+        {
+            byte b = window.get(start + i);
+            strBuf[count++] = b;
+            if(b == '"' && i + 1 < len && window.get(start + i + 1) == '"') i++;
+        }
+
+        return new String(strBuf, 0, count, StandardCharsets.UTF_8);
+    }
+
+
+    @Override
+    public void appendJsonString(int index, NdJsonEntity out)
+    {
+        int start = getFieldOffset(index);
+        int len = getFieldLength(index);
+
+        // Doubled quotes have to be unescaped first
+        if(hasQuotes(start, len))
+        {
+            out.appendJsonString(getString(index));
+        }
+        else
+        {
+            out.appendJsonString(window, start, len);
+        }
+    }
+
+
+    /**
+     * Doubled quotes are not unescaped.
+     */
+    @Override
+    public void appendRawValue(int index, NdJsonEntity out)
+    {
+        out.append(window, getFieldOffset(index), getFieldLength(index));
+    }
+
+
+    @Override
+    public void appendJsonNumber(int index, NdJsonEntity out)
+    {
+        int start = getFieldOffset(index);
+        int len = getFieldLength(index);
+
+        if(hasQuotes(start, len))
+        {
+            out.appendJsonNumber(getString(index));
+        }
+        else
+        {
+            out.appendJsonNumber(window, start, len);
+        }
+    }
+
+
+    @Override
+    public void appendJsonBoolean(int index, NdJsonEntity out)
+    {
+        int start = getFieldOffset(index);
+        int len = getFieldLength(index);
+
+        if(hasQuotes(start, len))
+        {
+            out.appendJsonBoolean(getString(index));
+        }
+        else
+        {
+            out.appendJsonBoolean(window, start, len);
+        }
+    }
+
+
+    @Override
+    public void close() throws IOException
+    {
+        // The mapping is released when the buffer is garbage collected
+        window = null;
+        channel.close();
+    }
+
+
+    /**
+     * Find field bounds of a record.
+     * @param start record start in the window
+     * @return position of the line feed or -1 if the end of the window was reached
+     */
+    private int scanRecord(int start)
+    {
+        field = 1;
+        inQuotes = false;
+        fieldStarts[1] = start;
+
+        int i = start;
+
+        if(useSwar)
+        {
+            // 8 bytes at a time
+            for(; i + 8 <= windowLimit; i += 8)
+            {
+                long word = window.getLong(i);
+                long mask = match(word, delimiters) | match(word, QUOTES) | match(word, LINE_FEEDS);
+
+                while(mask != 0)
+                {
+                    int pos = i + (Long.numberOfTrailingZeros(mask) >>> 3);
+                    mask &= mask - 1;
+
+                    if(onSpecialByte(pos, window.get(pos))) return pos;
+                }
+            }
+        }
+
+        // Byte by byte
+        for(; i < windowLimit; i++)
+        {
+            byte b = window.get(i);
+            if(b == delimiter || b == '"' || b == '\n')
+            {
+                if(onSpecialByte(i, b)) return i;
+            }
+        }
+
+        endRecord(windowLimit);
+        return -1;
+    }
+
+
+    /**
+     * Process a delimiter, a quote or a line feed.
+     * @return true if this is the end of the record
+     */
+    private boolean onSpecialByte(int pos, byte b)
+    {
+        if(b == '"')
+        {
+            // Doubled quotes toggle twice
+            inQuotes = !inQuotes;
+        }
+        else if(!inQuotes)
+        {
+            if(b == '\n')
+            {
+                endRecord(pos);
+                return true;
+            }
+
+            // Field delimiter
+            if(field <= numFields) fieldEnds[field] = pos;
+            field++;
+            if(field <= numFields) fieldStarts[field] = pos + 1;
+        }
+
+        return false;
+    }
+
+
+    private void endRecord(int pos)
+    {
+        if(field <= numFields) fieldEnds[field] = pos;
+
+        // Missing fields are empty
+        for(int i = field + 1; i <= numFields; i++)
+        {
+            fieldStarts[i] = pos;
+            fieldEnds[i] = pos;
+        }
+    }
+
+
+    private boolean isQuoted(int start, int end)
+    {
+        return end - start >= 2 && window.get(start) == '"' && window.get(end - 1) == '"';
+    }
+
+
+    private boolean hasQuotes(int start, int len)
+    {
+        for(int i = start; i < start + len; i++)
+        {
+            if(window.get(i) == '"') return true;
+        }
+
+        return false;
+    }
+
+
+    private boolean isBlank(int start, int end)
+    {
+        for(int i = start; i < end; i++)
+        {
+            if((window.get(i) & 0xFF) > ' ') return false;
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Find the first record which starts at or after given file position.
+     */
+    private long findRecordStart(long pos) throws IOException
+    {
+        // A record starts after a line feed
+        for(long filePos = pos - 1; filePos < dataEnd; filePos++)
+        {
+            if(window == null || filePos < windowStart || filePos >= windowStart + windowLimit)
+            {
+                map(filePos);
+            }
+
+            if(window.get((int)(filePos - windowStart)) == '\n') return filePos + 1;
+        }
+
+        return dataEnd;
+    }
+
+
+    /**
+     * Find the end of the given number of records. Only line feeds are scanned,
+     * because PDS4 doesn't allow record delimiters inside fields. Blank lines
+     * are not counted.
+     * @return file position after the last record
+     */
+    private long findRecordsEnd(long records) throws IOException
+    {
+        if(records == 0) return dataStart;
+
+        long count = 0;
+        boolean blank = true;
+
+        for(long filePos = dataStart; filePos < dataEnd; filePos = windowStart + windowLimit)
+        {
+            map(filePos);
+
+            int i = 0;
+            while(i < windowLimit)
+            {
+                // Skip 8 bytes at a time to the end of a non-blank line
+                if(useSwar && !blank && i + 8 <= windowLimit && match(window.getLong(i), LINE_FEEDS) == 0)
+                {
+                    i += 8;
+                    continue;
+                }
+
+                byte b = window.get(i);
+                if(b == '\n')
+                {
+                    if(!blank && ++count == records) return windowStart + i + 1;
+                    blank = true;
+                }
+                else if((b & 0xFF) > ' ')
+                {
+                    blank = false;
+                }
+
+                i++;
+            }
+        }
+
+        return dataEnd;
+    }
+
+
+    private long getAverageRecordLength()
+    {
+        if(layout.records > 0) return Math.max(1, (dataEnd - dataStart) / layout.records);
+        // Half of max record length
+        return Math.max(1, layout.recordLength / 2);
+    }
+
+
+    /**
+     * Map a window of the data file starting from given position.
+     */
+    private void map(long filePos) throws IOException
+    {
+        windowStart = filePos;
+        windowLimit = (int)Math.min(MAX_WINDOW_SIZE, dataEnd - filePos);
+
+        window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowLimit);
+        window.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+
+    /**
+     * Create a word with given byte in every position.
+     */
+    private static long pattern(int b)
+    {
+        return 0x0101010101010101L * (b & 0xFF);
+    }
+
+
+    /**
+     * Find bytes of a word equal to the pattern byte.
+     * @return a word with the high bit set in every matching byte
+     */
+    private static long match(long word, long pattern)
+    {
+        long x = word ^ pattern;
+        long t = (x & LOW_BITS) + LOW_BITS;
+        return ~(t | x | LOW_BITS);
+    }
+}
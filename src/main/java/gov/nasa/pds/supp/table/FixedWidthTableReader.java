@@ -0,0 +1,273 @@
+package gov.nasa.pds.supp.table;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import gov.nasa.pds.supp.dao.NdJsonEntity;
+
+
+/**
+ * Reads fixed-width character tables (Table_Character) directly from
+ * a memory-mapped data file.
+ *
+ * <p>Field values are not copied into intermediate objects. Field bytes are
+ * trimmed in place and escaped directly into the bulk request buffer
+ * (see appendJsonString()). Strings are only created for IDs and dates.
+ *
+ * <p>Binary tables have the same geometry (see BinaryTableReader).
+ *
+ * <p>The data file is mapped in windows of whole records (up to 1 GB each),
+ * so files larger than 2 GB are supported. Since the position of each record
+ * is known, skip() moves to a row without reading previous rows, and the table
+ * is split into ranges of rows without scanning the data file.
+ */
+public class FixedWidthTableReader implements SplittableTableReader
+{
+    private static final long MAX_WINDOW_SIZE = 1L << 30;
+
+    private TableLayout layout;
+    private FileChannel channel;
+    private long offset;
+    private int recordLength;
+    private long numRecords;
+
+    // Field start (0-based) and length in bytes by field index (index starts from 1)
+    private int[] fieldStarts;
+    private int[] fieldLengths;
+
+    // Current window
+    private MappedByteBuffer window;
+    private long windowFirstRow;
+    private long windowRows;
+
+    // Current row (0-based) and its position in the window
+    private long row = -1;
+    private int recordPos;
+    // Last row of current range (exclusive)
+    private long endRow;
+
+    // Trimmed value of a field (see trim())
+    private int valueStart;
+    private int valueLength;
+
+    // Buffer to decode strings
+    private byte[] strBuf;
+
+
+    /**
+     * Constructor. Opens the data file.
+     * @param layout fixed-width table layout. Use TableReaderFactory to check
+     * that the layout is supported.
+     * @throws IOException an exception
+     */
+    public FixedWidthTableReader(TableLayout layout) throws IOException
+    {
+        this.layout = layout;
+        this.offset = layout.offset;
+        this.recordLength = layout.recordLength;
+
+        int numFields = layout.fields.size();
+        fieldStarts = new int[numFields + 1];
+        fieldLengths = new int[numFields + 1];
+
+        int maxLength = 0;
+        for(int i = 0; i < numFields; i++)
+        {
+            TableLayout.FieldLayout field = layout.fields.get(i);
+            fieldStarts[i + 1] = field.location - 1;
+            fieldLengths[i + 1] = field.length;
+            maxLength = Math.max(maxLength, field.length);
+        }
+
+        strBuf = new byte[maxLength];
+
+        channel = FileChannel.open(layout.dataFile.toPath(), StandardOpenOption.READ);
+
+        // Ignore incomplete last record
+        long fileRecords = Math.max(0, (channel.size() - offset) / recordLength);
+        numRecords = (layout.records < 0) ? fileRecords : Math.min(layout.records, fileRecords);
+        endRow = numRecords;
+    }
+
+
+    /**
+     * Get number of records in the data file.
+     * @return number of records
+     */
+    public long getRecordCount()
+    {
+        return numRecords;
+    }
+
+
+    @Override
+    public boolean next() throws IOException
+    {
+        if(row + 1 >= endRow)
+        {
+            row = endRow;
+            return false;
+        }
+
+        row++;
+
+        if(window == null || row < windowFirstRow || row >= windowFirstRow + windowRows)
+        {
+            map(row);
+        }
+
+        recordPos = (int)((row - windowFirstRow) * recordLength);
+        return true;
+    }
+
+
+    @Override
+    public void skip(long rows) throws IOException
+    {
+        // The next record will be read from the new position
+        row = Math.min(row + rows, endRow - 1);
+    }
+
+
+    @Override
+    public List<TableRange> split(long startRow, int rangeRows)
+    {
+        List<TableRange> ranges = new ArrayList<>();
+        for(long first = startRow; first < numRecords; first += rangeRows)
+        {
+            long end = Math.min(first + rangeRows, numRecords);
+            ranges.add(new TableRange(first, end, first));
+        }
+
+        return ranges;
+    }
+
+
+    @Override
+    public void setRange(TableRange range)
+    {
+        row = range.start - 1;
+        endRow = Math.min(range.end, numRecords);
+    }
+
+
+    @Override
+    public SplittableTableReader copy() throws IOException
+    {
+        return new FixedWidthTableReader(layout);
+    }
+
+
+    @Override
+    public String getString(int index)
+    {
+        trim(index);
+
+        for(int i = 0; i < valueLength; i++)
+        {
+            strBuf[i] = window.get(valueStart + i);
+        }
+
+        return new String(strBuf, 0, valueLength, StandardCharsets.UTF_8);
+    }
+
+
+    @Override
+    public void appendJsonString(int index, NdJsonEntity out)
+    {
+        trim(index);
+        out.appendJsonString(window, valueStart, valueLength);
+    }
+
+
+    @Override
+    public void appendRawValue(int index, NdJsonEntity out)
+    {
+        trim(index);
+        out.append(window, valueStart, valueLength);
+    }
+
+
+    @Override
+    public void appendJsonNumber(int index, NdJsonEntity out)
+    {
+        trim(index);
+        out.appendJsonNumber(window, valueStart, valueLength);
+    }
+
+
+    @Override
+    public void appendJsonBoolean(int index, NdJsonEntity out)
+    {
+        trim(index);
+        out.appendJsonBoolean(window, valueStart, valueLength);
+    }
+
+
+    /**
+     * Find trimmed value of a field of the current record.
+     * Sets valueStart and valueLength.
+     */
+    private void trim(int index)
+    {
+        int start = recordPos + fieldStarts[index];
+        int end = start + fieldLengths[index];
+
+        while(start < end && (window.get(start) & 0xFF) <= ' ') start++;
+        while(end > start && (window.get(end - 1) & 0xFF) <= ' ') end--;
+
+        valueStart = start;
+        valueLength = end - start;
+    }
+
+
+    /**
+     * Get buffer with the data of the current record.
+     * @return memory-mapped buffer (big-endian)
+     */
+    protected ByteBuffer getBuffer()
+    {
+        return window;
+    }
+
+
+    /**
+     * Get position of a field of the current record in the buffer (see getBuffer()).
+     * @param index field index. Note, index starts from 1.
+     * @return field position
+     */
+    protected int getFieldPosition(int index)
+    {
+        return recordPos + fieldStarts[index];
+    }
+
+
+    /**
+     * Map a window of records starting from given row.
+     */
+    private void map(long firstRow) throws IOException
+    {
+        long rowsPerWindow = Math.max(1, MAX_WINDOW_SIZE / recordLength);
+        windowFirstRow = firstRow;
+        windowRows = Math.min(rowsPerWindow, numRecords - firstRow);
+
+        window = channel.map(FileChannel.MapMode.READ_ONLY,
+                offset + firstRow * recordLength, windowRows * recordLength);
+    }
+
+
+    @Override
+    public void close() throws IOException
+    {
+        // The mapping is released when the buffer is garbage collected
+        window = null;
+        channel.close();
+    }
+
+}
@@ -0,0 +1,36 @@
+package gov.nasa.pds.supp.table;
+
+import java.util.List;
+
+
+/**
+ * A table reader which could split a data file into ranges of records.
+ * Each range could be read by a different thread with its own reader (see copy()).
+ */
+public interface SplittableTableReader extends TableReader
+{
+    /**
+     * Split the table into ranges.
+     * @param startRow first row to read (rows loaded by previous runs are not read).
+     * If the table could not be positioned by row, ranges start from the first row
+     * and the caller has to skip the rows.
+     * @param rangeRows approximate number of records in a range
+     * @return ranges in table order
+     * @throws Exception an exception
+     */
+    public List<TableRange> split(long startRow, int rangeRows) throws Exception;
+
+    /**
+     * Position this reader on a range. next() returns false after the last record of the range.
+     * @param range a range created by split()
+     * @throws Exception an exception
+     */
+    public void setRange(TableRange range) throws Exception;
+
+    /**
+     * Open another reader of the same data file.
+     * @return new reader. The caller should close it.
+     * @throws Exception an exception
+     */
+    public SplittableTableReader copy() throws Exception;
+}
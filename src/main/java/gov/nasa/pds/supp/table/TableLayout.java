@@ -0,0 +1,259 @@
+package gov.nasa.pds.supp.table;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+
+
+/**
+ * Geometry of the first table of a PDS4 label: table type, data file, offset,
+ * number of records, record length and field locations.
+ *
+ * <p>The label is parsed with StAX. Only elements needed to read the data file
+ * directly are extracted. Use TableReaderFactory to check if a table is supported.
+ */
+public class TableLayout
+{
+    /**
+     * PDS4 table type
+     */
+    public static enum TableType { CHARACTER, DELIMITED, BINARY };
+
+    /**
+     * Field geometry and data type
+     */
+    public static class FieldLayout
+    {
+        /**
+         * Field name
+         */
+        public String name;
+
+        /**
+         * PDS data type, such as "ASCII_Real"
+         */
+        public String dataType;
+
+        /**
+         * Field location in a record in bytes (starts from 1) or 0 if not set.
+         * Not set for delimited tables.
+         */
+        public int location;
+
+        /**
+         * Field length in bytes or max field length for delimited tables, 0 if not set.
+         */
+        public int length;
+    }
+
+    /**
+     * Table type
+     */
+    public TableType type;
+
+    /**
+     * Data file
+     */
+    public File dataFile;
+
+    /**
+     * Offset of the table in the data file in bytes.
+     */
+    public long offset;
+
+    /**
+     * Size of the table in bytes or -1 if not set.
+     */
+    public long objectLength = -1;
+
+    /**
+     * Number of records or -1 if not set.
+     */
+    public long records = -1;
+
+    /**
+     * Record length in bytes (including record delimiter) or max record length
+     * for delimited tables, 0 if not set.
+     */
+    public int recordLength;
+
+    /**
+     * Record delimiter, such as "Carriage-Return Line-Feed"
+     */
+    public String recordDelimiter;
+
+    /**
+     * Field delimiter of delimited tables, such as "Comma"
+     */
+    public String fieldDelimiter;
+
+    /**
+     * True if the table has groups of fields or packed (bit) fields.
+     */
+    public boolean hasGroups;
+
+    /**
+     * Fields in the order they are defined in the label.
+     */
+    public List<FieldLayout> fields = new ArrayList<>();
+
+
+    /**
+     * Parse geometry of the first table of a label.
+     * @param labelFile PDS4 label
+     * @return table layout or null if the label doesn't have a table
+     * @throws Exception an exception
+     */
+    public static TableLayout parse(File labelFile) throws Exception
+    {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+
+        try(InputStream is = new FileInputStream(labelFile))
+        {
+            XMLStreamReader reader = factory.createXMLStreamReader(is);
+            try
+            {
+                return parse(reader, labelFile.getAbsoluteFile().getParentFile());
+            }
+            finally
+            {
+                reader.close();
+            }
+        }
+    }
+
+
+    private static TableLayout parse(XMLStreamReader reader, File labelDir) throws Exception
+    {
+        TableLayout layout = null;
+        String fileName = null;
+        FieldLayout field = null;
+
+        while(reader.hasNext())
+        {
+            int event = reader.next();
+
+            if(event == XMLStreamConstants.END_ELEMENT)
+            {
+                String name = reader.getLocalName();
+                if(name.startsWith("Table_") && layout != null) break;
+                if(isField(name)) field = null;
+                continue;
+            }
+
+            if(event != XMLStreamConstants.START_ELEMENT) continue;
+
+            String name = reader.getLocalName();
+
+            if(layout == null)
+            {
+                if(name.equals("file_name") && fileName == null)
+                {
+                    fileName = reader.getElementText().trim();
+                }
+                else if(name.equals("Table_Character"))
+                {
+                    layout = new TableLayout();
+                    layout.type = TableType.CHARACTER;
+                }
+                else if(name.equals("Table_Delimited"))
+                {
+                    layout = new TableLayout();
+                    layout.type = TableType.DELIMITED;
+                }
+                else if(name.equals("Table_Binary"))
+                {
+                    layout = new TableLayout();
+                    layout.type = TableType.BINARY;
+                }
+
+                continue;
+            }
+
+            // Inside the table
+            if(name.startsWith("Group_Field_") || name.equals("Packed_Data_Fields"))
+            {
+                layout.hasGroups = true;
+            }
+            else if(isField(name))
+            {
+                field = new FieldLayout();
+                layout.fields.add(field);
+            }
+            else if(field != null)
+            {
+                parseField(reader, name, field);
+            }
+            else if(name.equals("offset"))
+            {
+                layout.offset = Long.parseLong(reader.getElementText().trim());
+            }
+            else if(name.equals("object_length"))
+            {
+                layout.objectLength = Long.parseLong(reader.getElementText().trim());
+            }
+            else if(name.equals("records"))
+            {
+                layout.records = Long.parseLong(reader.getElementText().trim());
+            }
+            else if(name.equals("record_length") || name.equals("maximum_record_length"))
+            {
+                layout.recordLength = Integer.parseInt(reader.getElementText().trim());
+            }
+            else if(name.equals("record_delimiter"))
+            {
+                layout.recordDelimiter = reader.getElementText().trim();
+            }
+            else if(name.equals("field_delimiter"))
+            {
+                layout.fieldDelimiter = reader.getElementText().trim();
+            }
+        }
+
+        if(layout == null) return null;
+        if(fileName != null) layout.dataFile = new File(labelDir, fileName);
+
+        return layout;
+    }
+
+
+    /**
+     * Field elements. Note: other elements, such as "Field_Statistics" (a child of
+     * a field element), also start with "Field_".
+     */
+    private static boolean isField(String name)
+    {
+        return name.equals("Field_Character") || name.equals("Field_Binary") 
+                || name.equals("Field_Delimited");
+    }
+
+
+    private static void parseField(XMLStreamReader reader, String name, FieldLayout field) throws Exception
+    {
+        switch(name)
+        {
+        case "name":
+            field.name = reader.getElementText().trim();
+            break;
+        case "data_type":
+            field.dataType = reader.getElementText().trim();
+            break;
+        case "field_location":
+            field.location = Integer.parseInt(reader.getElementText().trim());
+            break;
+        case "field_length":
+        case "maximum_field_length":
+            field.length = Integer.parseInt(reader.getElementText().trim());
+            break;
+        default:
+            break;
+        }
+    }
+}
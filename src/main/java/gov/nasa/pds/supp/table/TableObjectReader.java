@@ -0,0 +1,68 @@
+package gov.nasa.pds.supp.table;
+
+import gov.nasa.pds.label.object.TableObject;
+import gov.nasa.pds.label.object.TableRecord;
+import gov.nasa.pds.supp.dao.NdJsonEntity;
+
+
+/**
+ * Table reader backed by PDS4 parser (TableObject). Supports all table types
+ * which the parser supports. Used when a table could not be read directly
+ * from a memory-mapped data file.
+ */
+public class TableObjectReader implements TableReader
+{
+    private TableObject table;
+    private TableRecord rec;
+
+
+    /**
+     * Constructor
+     * @param table PDS4 table
+     */
+    public TableObjectReader(TableObject table)
+    {
+        this.table = table;
+    }
+
+
+    @Override
+    public boolean next() throws Exception
+    {
+        rec = table.readNext();
+        return rec != null;
+    }
+
+
+    @Override
+    public void skip(long rows) throws Exception
+    {
+        for(long i = 0; i < rows; i++)
+        {
+            if(!next()) break;
+        }
+    }
+
+
+    @Override
+    public String getString(int index)
+    {
+        return rec.getString(index).trim();
+    }
+
+
+    @Override
+    public void appendJsonString(int index, NdJsonEntity out)
+    {
+        out.appendJsonString(getString(index));
+    }
+
+
+    /**
+     * The table is owned (and closed) by the label.
+     */
+    @Override
+    public void close()
+    {
+    }
+}
@@ -0,0 +1,39 @@
+package gov.nasa.pds.supp.table;
+
+
+/**
+ * A range of table records which could be read independently of other ranges.
+ * Depending on the table type, start and end are row numbers or byte offsets.
+ */
+public class TableRange
+{
+    /**
+     * Start of the range (inclusive)
+     */
+    public long start;
+
+    /**
+     * End of the range (exclusive)
+     */
+    public long end;
+
+    /**
+     * Row number (0-based) of the first record of the range or -1 if it is not known
+     * before the table is read, e.g., ranges of delimited tables are split by bytes.
+     */
+    public long firstRow = -1;
+
+
+    /**
+     * Constructor
+     * @param start start of the range (inclusive)
+     * @param end end of the range (exclusive)
+     * @param firstRow row number of the first record or -1 if not known
+     */
+    public TableRange(long start, long end, long firstRow)
+    {
+        this.start = start;
+        this.end = end;
+        this.firstRow = firstRow;
+    }
+}
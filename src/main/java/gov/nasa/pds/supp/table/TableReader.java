@@ -0,0 +1,87 @@
+package gov.nasa.pds.supp.table;
+
+import java.io.Closeable;
+
+import gov.nasa.pds.supp.dao.NdJsonEntity;
+
+
+/**
+ * Sequential reader of supplemental table records.
+ *
+ * <p>Field values of the current record are only valid until the next call
+ * of next() or skip(). Implementations are not thread-safe.
+ */
+public interface TableReader extends Closeable
+{
+    /**
+     * Move to the next record.
+     * @return false if there are no more records
+     * @throws Exception an exception
+     */
+    public boolean next() throws Exception;
+
+    /**
+     * Skip records, e.g., rows loaded by previous runs.
+     * @param rows number of records to skip
+     * @throws Exception an exception
+     */
+    public void skip(long rows) throws Exception;
+
+    /**
+     * Get trimmed field value of the current record.
+     * @param index field index. Note, index starts from 1.
+     * @return field value
+     */
+    public String getString(int index);
+
+    /**
+     * Append trimmed field value of the current record as a quoted JSON string.
+     * @param index field index. Note, index starts from 1.
+     * @param out output buffer
+     */
+    public void appendJsonString(int index, NdJsonEntity out);
+
+    /**
+     * Append trimmed UTF-8 bytes of a field value of the current record
+     * as is (not quoted or escaped), e.g., to use as a key.
+     * @param index field index. Note, index starts from 1.
+     * @param out output buffer
+     */
+    public default void appendRawValue(int index, NdJsonEntity out)
+    {
+        out.appendUtf8(getString(index));
+    }
+
+    /**
+     * Append field value of the current record as a JSON value. Binary numbers
+     * are written as JSON numbers, other values as quoted JSON strings.
+     * @param index field index. Note, index starts from 1.
+     * @param out output buffer
+     */
+    public default void appendJsonValue(int index, NdJsonEntity out)
+    {
+        appendJsonString(index, out);
+    }
+
+    /**
+     * Append field value of the current record as a JSON number. Values which are
+     * not valid JSON numbers are appended as strings, empty values as null.
+     * @param index field index. Note, index starts from 1.
+     * @param out output buffer
+     */
+    public default void appendJsonNumber(int index, NdJsonEntity out)
+    {
+        out.appendJsonNumber(getString(index));
+    }
+
+    /**
+     * Append field value of the current record as a JSON boolean. Values which are
+     * not booleans are appended as strings, empty values as null.
+     * @param index field index. Note, index starts from 1.
+     * @param out output buffer
+     */
+    public default void appendJsonBoolean(int index, NdJsonEntity out)
+    {
+        out.appendJsonBoolean(getString(index));
+    }
+}
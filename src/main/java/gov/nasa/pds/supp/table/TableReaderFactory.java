@@ -0,0 +1,113 @@
+package gov.nasa.pds.supp.table;
+
+import java.io.File;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import gov.nasa.pds.label.object.TableObject;
+
+
+/**
+ * Creates table readers. Fixed-width character, delimited and binary tables
+ * are read directly from memory-mapped data files. Tables with groups, bit
+ * fields or complex numbers are read by PDS4 parser (TableObject).
+ */
+public class TableReaderFactory
+{
+    private Logger log;
+
+
+    /**
+     * Constructor
+     */
+    public TableReaderFactory()
+    {
+        log = LogManager.getLogger(this.getClass());
+    }
+
+
+    /**
+     * Create a table reader for the first table of a label.
+     * @param labelFile PDS4 label
+     * @param table the first table of the label parsed by PDS4 parser
+     * @return table reader
+     * @throws Exception an exception
+     */
+    public TableReader create(File labelFile, TableObject table) throws Exception
+    {
+        TableLayout layout = TableLayout.parse(labelFile);
+
+        String reason = getUnsupportedReason(layout, table);
+        if(reason == null)
+        {
+            switch(layout.type)
+            {
+            case DELIMITED:
+                return new DelimitedTableReader(layout);
+            case BINARY:
+                return new BinaryTableReader(layout);
+            default:
+                return new FixedWidthTableReader(layout);
+            }
+        }
+
+        log.debug("Using PDS4 parser to read the table: " + reason);
+        return new TableObjectReader(table);
+    }
+
+
+    /**
+     * Check if a table could be read from a memory-mapped data file.
+     * @return null if the table is supported, otherwise a reason why it is not supported
+     */
+    private String getUnsupportedReason(TableLayout layout, TableObject table) throws Exception
+    {
+        if(layout == null) return "Could not find table definition.";
+        if(layout.hasGroups) return "Groups of fields are not supported.";
+        if(layout.dataFile == null || !layout.dataFile.isFile()) return "Could not find data file.";
+
+        if(layout.fields.size() != table.getFields().length)
+        {
+            return "Number of fields is different from PDS4 parser.";
+        }
+
+        switch(layout.type)
+        {
+        case CHARACTER:
+            return getFixedWidthUnsupportedReason(layout);
+        case DELIMITED:
+            if(DelimitedTableReader.getDelimiter(layout.fieldDelimiter) == 0)
+            {
+                return "Unsupported field delimiter: " + layout.fieldDelimiter;
+            }
+            return null;
+        default:
+            for(TableLayout.FieldLayout field: layout.fields)
+            {
+                if(!BinaryTableReader.isSupported(field.dataType, field.length))
+                {
+                    return "Unsupported data type of field " + field.name + ": " + field.dataType;
+                }
+            }
+            return getFixedWidthUnsupportedReason(layout);
+        }
+    }
+
+
+    private String getFixedWidthUnsupportedReason(TableLayout layout)
+    {
+        if(layout.recordLength <= 0) return "Invalid record length.";
+
+        for(TableLayout.FieldLayout field: layout.fields)
+        {
+            if(field.location <= 0 || field.length <= 0
+                    || field.location - 1 + field.length > layout.recordLength)
+            {
+                return "Invalid location or length of field " + field.name;
+            }
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,56 @@
+package gov.nasa.pds.supp.util;
+
+import org.apache.commons.cli.CommandLine;
+
+
+/**
+ * Helper methods to read command line parameters.
+ */
+public class CmdLineUtils
+{
+    /**
+     * Get positive integer command line option value.
+     * @param cmdLine command line
+     * @param name option name
+     * @param defValue default value
+     * @return option value
+     * @throws Exception if the value is not a positive integer
+     */
+    public static int getIntOption(CommandLine cmdLine, String name, int defValue) throws Exception
+    {
+        return getIntOption(cmdLine, name, defValue, 1);
+    }
+
+
+    /**
+     * Get integer command line option value.
+     * @param cmdLine command line
+     * @param name option name
+     * @param defValue default value
+     * @param minValue min allowed value
+     * @return option value
+     * @throws Exception if the value is not an integer or is less than min value
+     */
+    public static int getIntOption(CommandLine cmdLine, String name, int defValue, int minValue) throws Exception
+    {
+        String str = cmdLine.getOptionValue(name);
+        if(str == null) return defValue;
+
+        int value;
+        try
+        {
+            value = Integer.parseInt(str);
+        }
+        catch(NumberFormatException ex)
+        {
+            throw new Exception("Invalid '-" + name + "' parameter value: " + str);
+        }
+
+        if(value < minValue)
+        {
+            throw new Exception("'-" + name + "' parameter value must be greater than or equal to " + minValue);
+        }
+
+        return value;
+    }
+}
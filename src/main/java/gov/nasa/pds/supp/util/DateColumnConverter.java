@@ -0,0 +1,361 @@
+package gov.nasa.pds.supp.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import gov.nasa.pds.registry.common.util.date.PdsDateConverter;
+
+
+/**
+ * Converts dates of one table column to "ISO instant" format, such as
+ * "2013-10-24T00:00:00.123Z".
+ *
+ * <p>Values of a column usually have the same format. The format ("shape")
+ * of the column is detected from the first values: year-month-day or
+ * year-day-of-year date, optional time, number of fraction digits and
+ * optional 'Z'. The first values are converted by both PdsDateConverter and
+ * the hand-written parser. If the results are the same, other values with the
+ * detected shape are converted by the hand-written parser. All other values are
+ * converted by PdsDateConverter.
+ *
+ * <p>Recent conversions are cached (LRU), because timestamps often repeat.
+ *
+ * <p>This class is not thread-safe.
+ */
+public class DateColumnConverter
+{
+    private static final int DETECT_VALUES = 16;
+    private static final int CACHE_SIZE = 64;
+
+    // Cached null value
+    private static final String NULL = new String("null");
+
+    private PdsDateConverter dateConv;
+    private String fieldName;
+
+    // Detected shape
+    private int detectCount;
+    private boolean fastEnabled;
+    private boolean mismatch;
+    private Shape shape;
+
+    // Shape of the last parsed value
+    private Shape tmpShape = new Shape();
+
+    private StringBuilder sb = new StringBuilder(32);
+    private Map<String, String> cache;
+
+
+    /**
+     * Date / time format of a value
+     */
+    private static class Shape
+    {
+        public boolean dayOfYear;
+        public boolean hasTime;
+        public int fractionDigits;
+        public boolean hasZ;
+
+        public boolean equals(Shape other)
+        {
+            return dayOfYear == other.dayOfYear && hasTime == other.hasTime
+                    && fractionDigits == other.fractionDigits && hasZ == other.hasZ;
+        }
+
+        public void copyFrom(Shape other)
+        {
+            dayOfYear = other.dayOfYear;
+            hasTime = other.hasTime;
+            fractionDigits = other.fractionDigits;
+            hasZ = other.hasZ;
+        }
+    }
+
+
+    /**
+     * Constructor
+     * @param dateConv general date converter
+     * @param fieldName field name (used in error messages)
+     */
+    @SuppressWarnings("serial")
+    public DateColumnConverter(PdsDateConverter dateConv, String fieldName)
+    {
+        this.dateConv = dateConv;
+        this.fieldName = fieldName;
+
+        cache = new LinkedHashMap<String, String>(CACHE_SIZE * 2, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, String> eldest)
+            {
+                return size() > CACHE_SIZE;
+            }
+        };
+    }
+
+
+    /**
+     * Convert a date to "ISO instant" format.
+     * @param value trimmed date value
+     * @return converted value or null
+     * @throws Exception if the value could not be converted
+     */
+    public String toIsoInstantString(String value) throws Exception
+    {
+        String result = cache.get(value);
+        if(result != null) return (result == NULL) ? null : result;
+
+        result = convert(value);
+        cache.put(value, (result == null) ? NULL : result);
+
+        return result;
+    }
+
+
+    /**
+     * Check if the hand-written parser is used for this column.
+     * @return true if a supported format has been detected
+     */
+    public boolean isFastPathEnabled()
+    {
+        return fastEnabled;
+    }
+
+
+    private String convert(String value) throws Exception
+    {
+        // Detect column format
+        if(detectCount < DETECT_VALUES)
+        {
+            detectCount++;
+
+            String result = dateConv.toIsoInstantString(fieldName, value);
+            String fastResult = parse(value);
+
+            // Values which don't fit are ignored
+            if(fastResult == null) return result;
+
+            if(!fastResult.equals(result))
+            {
+                // The parser gives a different result. Don't use it for this column.
+                fastEnabled = false;
+                mismatch = true;
+            }
+            else if(shape == null && !mismatch)
+            {
+                // The first value which fits
+                shape = new Shape();
+                shape.copyFrom(tmpShape);
+                fastEnabled = true;
+            }
+
+            return result;
+        }
+
+        if(fastEnabled)
+        {
+            String result = parse(value);
+            if(result != null && shape.equals(tmpShape)) return result;
+        }
+
+        return dateConv.toIsoInstantString(fieldName, value);
+    }
+
+
+    /**
+     * Parse dates, such as "2013-10-24", "2013-297", "2013-10-24T01:02:03.123Z"
+     * or "2013-297T01:02:03".
+     * @return ISO instant string or null if the value is not supported
+     */
+    private String parse(String str)
+    {
+        int len = str.length();
+        if(len < 8 || str.charAt(4) != '-') return null;
+
+        int year = digits(str, 0, 4);
+        if(year < 0) return null;
+
+        int month;
+        int day;
+        int pos;
+
+        if(len >= 10 && str.charAt(7) == '-')
+        {
+            // yyyy-MM-dd
+            tmpShape.dayOfYear = false;
+            month = digits(str, 5, 2);
+            day = digits(str, 8, 2);
+            if(month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)) return null;
+            pos = 10;
+        }
+        else
+        {
+            // yyyy-DDD
+            tmpShape.dayOfYear = true;
+            int doy = digits(str, 5, 3);
+            if(doy < 1 || doy > (isLeapYear(year) ? 366 : 365)) return null;
+
+            month = 1;
+            while(doy > daysInMonth(year, month))
+            {
+                doy -= daysInMonth(year, month);
+                month++;
+            }
+
+            day = doy;
+            pos = 8;
+        }
+
+        int hour = 0;
+        int minute = 0;
+        int second = 0;
+        int nano = 0;
+
+        tmpShape.hasTime = false;
+        tmpShape.fractionDigits = 0;
+        tmpShape.hasZ = false;
+
+        if(pos < len)
+        {
+            // THH:mm:ss
+            if(len < pos + 9 || str.charAt(pos) != 'T' || str.charAt(pos + 3) != ':'
+                    || str.charAt(pos + 6) != ':') return null;
+
+            tmpShape.hasTime = true;
+            hour = digits(str, pos + 1, 2);
+            minute = digits(str, pos + 4, 2);
+            second = digits(str, pos + 7, 2);
+            if(hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59) return null;
+            pos += 9;
+
+            // Fraction of a second
+            if(pos < len && str.charAt(pos) == '.')
+            {
+                pos++;
+                int start = pos;
+                while(pos < len && pos - start < 9
+                        && str.charAt(pos) >= '0' && str.charAt(pos) <= '9')
+                {
+                    nano = nano * 10 + (str.charAt(pos) - '0');
+                    pos++;
+                }
+
+                tmpShape.fractionDigits = pos - start;
+                if(tmpShape.fractionDigits == 0) return null;
+
+                for(int i = tmpShape.fractionDigits; i < 9; i++)
+                {
+                    nano *= 10;
+                }
+            }
+
+            if(pos < len && str.charAt(pos) == 'Z')
+            {
+                tmpShape.hasZ = true;
+                pos++;
+            }
+
+            if(pos != len) return null;
+        }
+
+        return format(year, month, day, hour, minute, second, nano);
+    }
+
+
+    /**
+     * Format a date the same way as DateTimeFormatter.ISO_INSTANT.
+     */
+    private String format(int year, int month, int day, int hour, int minute, int second, int nano)
+    {
+        sb.setLength(0);
+        appendDigits(year, 4);
+        sb.append('-');
+        appendDigits(month, 2);
+        sb.append('-');
+        appendDigits(day, 2);
+        sb.append('T');
+        appendDigits(hour, 2);
+        sb.append(':');
+        appendDigits(minute, 2);
+        sb.append(':');
+        appendDigits(second, 2);
+
+        // Milli, micro or nano seconds
+        if(nano != 0)
+        {
+            sb.append('.');
+            if(nano % 1000000 == 0)
+            {
+                appendDigits(nano / 1000000, 3);
+            }
+            else if(nano % 1000 == 0)
+            {
+                appendDigits(nano / 1000, 6);
+            }
+            else
+            {
+                appendDigits(nano, 9);
+            }
+        }
+
+        sb.append('Z');
+        return sb.toString();
+    }
+
+
+    private void appendDigits(int value, int width)
+    {
+        int start = sb.length();
+        for(int i = 0; i < width; i++)
+        {
+            sb.append('0');
+        }
+
+        for(int i = start + width - 1; i >= start; i--)
+        {
+            sb.setCharAt(i, (char)('0' + value % 10));
+            value /= 10;
+        }
+    }
+
+
+    /**
+     * Parse fixed number of digits.
+     * @return a number or -1 if there are non-digit characters
+     */
+    private static int digits(String str, int start, int count)
+    {
+        int value = 0;
+        for(int i = start; i < start + count; i++)
+        {
+            char ch = str.charAt(i);
+            if(ch < '0' || ch > '9') return -1;
+            value = value * 10 + (ch - '0');
+        }
+
+        return value;
+    }
+
+
+    private static boolean isLeapYear(int year)
+    {
+        return (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+    }
+
+
+    private static int daysInMonth(int year, int month)
+    {
+        switch(month)
+        {
+        case 2:
+            return isLeapYear(year) ? 29 : 28;
+        case 4:
+        case 6:
+        case 9:
+        case 11:
+            return 30;
+        default:
+            return 31;
+        }
+    }
+}
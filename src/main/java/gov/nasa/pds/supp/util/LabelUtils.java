@@ -0,0 +1,138 @@
+package gov.nasa.pds.supp.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+
+
+/**
+ * Helper methods to read basic information from PDS4 labels
+ * without parsing the whole label.
+ */
+public class LabelUtils
+{
+    /**
+     * Check if a file is a Product_Metadata_Supplemental label.
+     * Only the root element is parsed.
+     * @param file XML file
+     * @return true if the root element is Product_Metadata_Supplemental
+     */
+    public static boolean isSupplementalLabel(File file)
+    {
+        try
+        {
+            return "Product_Metadata_Supplemental".equals(getRootElement(file));
+        }
+        catch(Exception ex)
+        {
+            // Not an XML file
+            return false;
+        }
+    }
+
+
+    /**
+     * Get root element name of an XML file.
+     * @param file XML file
+     * @return local name of the root element or null if there is no root element.
+     * @throws Exception an exception
+     */
+    public static String getRootElement(File file) throws Exception
+    {
+        XMLInputFactory factory = createFactory();
+
+        try(InputStream is = new FileInputStream(file))
+        {
+            XMLStreamReader reader = factory.createXMLStreamReader(is);
+            try
+            {
+                while(reader.hasNext())
+                {
+                    if(reader.next() == XMLStreamConstants.START_ELEMENT) return reader.getLocalName();
+                }
+            }
+            finally
+            {
+                reader.close();
+            }
+        }
+
+        return null;
+    }
+
+
+    /**
+     * Get size of the data file of a label.
+     * @param labelFile PDS4 label (XML file)
+     * @return data file size in bytes or 0 if the data file doesn't exist
+     */
+    public static long getDataFileSize(File labelFile)
+    {
+        try
+        {
+            File dataFile = getDataFile(labelFile);
+            return (dataFile == null) ? 0 : dataFile.length();
+        }
+        catch(Exception ex)
+        {
+            return 0;
+        }
+    }
+
+
+    /**
+     * Get data file of the first file area (e.g., File_Area_Metadata) of a label.
+     * @param labelFile PDS4 label (XML file)
+     * @return data file (absolute path resolved relative to the label directory)
+     * or null if the label doesn't have a file area.
+     * @throws Exception an exception
+     */
+    public static File getDataFile(File labelFile) throws Exception
+    {
+        XMLInputFactory factory = createFactory();
+
+        try(InputStream is = new FileInputStream(labelFile))
+        {
+            XMLStreamReader reader = factory.createXMLStreamReader(is);
+            try
+            {
+                boolean inFileArea = false;
+                while(reader.hasNext())
+                {
+                    int event = reader.next();
+                    if(event != XMLStreamConstants.START_ELEMENT) continue;
+
+                    String name = reader.getLocalName();
+                    if(name.startsWith("File_Area_"))
+                    {
+                        inFileArea = true;
+                    }
+                    else if(inFileArea && name.equals("file_name"))
+                    {
+                        String fileName = reader.getElementText().trim();
+                        File parent = labelFile.getAbsoluteFile().getParentFile();
+                        return new File(parent, fileName);
+                    }
+                }
+            }
+            finally
+            {
+                reader.close();
+            }
+        }
+
+        return null;
+    }
+
+
+    private static XMLInputFactory createFactory()
+    {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        return factory;
+    }
+}
@@ -0,0 +1,144 @@
+package tt;
+
+import java.io.File;
+import java.util.List;
+
+import gov.nasa.pds.label.Label;
+import gov.nasa.pds.label.object.TableObject;
+import gov.nasa.pds.label.object.TableRecord;
+import gov.nasa.pds.supp.dao.NdJsonEntity;
+import gov.nasa.pds.supp.table.DelimitedTableReader;
+import gov.nasa.pds.supp.table.TableLayout;
+
+
+/**
+ * Verifies DelimitedTableReader against PDS4 parser (TableObject) and
+ * compares parsing speed of PDS4 parser, scalar and SWAR scanners.
+ */
+public class TestDelimitedTableReader
+{
+    private static final int RUNS = 5;
+
+
+    public static void main(String[] args) throws Exception
+    {
+        File labelFile = new File(args.length > 0 ? args[0] : "/ws3/Supplemental/test_delimited.xml");
+
+        TableLayout layout = TableLayout.parse(labelFile);
+
+        verify(labelFile, layout, true);
+        verify(labelFile, layout, false);
+
+        long parserTime = Long.MAX_VALUE;
+        long scalarTime = Long.MAX_VALUE;
+        long swarTime = Long.MAX_VALUE;
+
+        // Best of N runs
+        for(int i = 0; i < RUNS; i++)
+        {
+            parserTime = Math.min(parserTime, benchmarkParser(labelFile));
+            scalarTime = Math.min(scalarTime, benchmarkReader(layout, false));
+            swarTime = Math.min(swarTime, benchmarkReader(layout, true));
+        }
+
+        System.out.format("PDS4 parser: %d ms\n", parserTime / 1000000);
+        System.out.format("Scalar:      %d ms (%.1fx)\n", scalarTime / 1000000, (double)parserTime / scalarTime);
+        System.out.format("SWAR:        %d ms (%.1fx)\n", swarTime / 1000000, (double)parserTime / swarTime);
+    }
+
+
+    private static void verify(File labelFile, TableLayout layout, boolean useSwar) throws Exception
+    {
+        Label label = Label.open(labelFile);
+        List<TableObject> tables = label.getObjects(TableObject.class);
+        TableObject table = tables.get(0);
+        int numFields = table.getFields().length;
+
+        DelimitedTableReader reader = new DelimitedTableReader(layout, useSwar);
+
+        long rows = 0;
+        int errors = 0;
+
+        TableRecord rec = null;
+        while((rec = table.readNext()) != null)
+        {
+            rows++;
+            if(!reader.next())
+            {
+                System.out.println("Missing record " + rows);
+                errors++;
+                break;
+            }
+
+            for(int i = 1; i <= numFields; i++)
+            {
+                String expected = rec.getString(i).trim();
+                String actual = reader.getString(i);
+                if(!expected.equals(actual) && errors++ < 10)
+                {
+                    System.out.format("Record %d, field %d: '%s' != '%s'\n", rows, i, actual, expected);
+                }
+            }
+        }
+
+        if(reader.next())
+        {
+            System.out.println("Extra records after record " + rows);
+            errors++;
+        }
+
+        reader.close();
+        label.close();
+
+        System.out.println((useSwar ? "SWAR" : "Scalar") + ": verified " + rows + " records, "
+                + errors + " error(s)");
+    }
+
+
+    private static long benchmarkParser(File labelFile) throws Exception
+    {
+        long t0 = System.nanoTime();
+
+        Label label = Label.open(labelFile);
+        TableObject table = label.getObjects(TableObject.class).get(0);
+        int numFields = table.getFields().length;
+
+        NdJsonEntity buf = new NdJsonEntity(4096);
+
+        TableRecord rec = null;
+        while((rec = table.readNext()) != null)
+        {
+            buf.reset();
+            for(int i = 1; i <= numFields; i++)
+            {
+                buf.appendJsonString(rec.getString(i).trim());
+            }
+        }
+
+        label.close();
+        return System.nanoTime() - t0;
+    }
+
+
+    private static long benchmarkReader(TableLayout layout, boolean useSwar) throws Exception
+    {
+        long t0 = System.nanoTime();
+
+        DelimitedTableReader reader = new DelimitedTableReader(layout, useSwar);
+        int numFields = layout.fields.size();
+
+        NdJsonEntity buf = new NdJsonEntity(4096);
+
+        while(reader.next())
+        {
+            buf.reset();
+            for(int i = 1; i <= numFields; i++)
+            {
+                reader.appendJsonString(i, buf);
+            }
+        }
+
+        reader.close();
+        return System.nanoTime() - t0;
+    }
+}
@@ -3,7 +3,6 @@ package tt;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 import org.elasticsearch.client.RestClient;
 
@@ -54,11 +53,11 @@ public class TestRegistryDao
         {
             client = EsClientFactory.createRestClient("localhost", null);
             SchemaDao dao = new SchemaDao(client, "registry");
-            Set<String> fields = dao.getSupplementalFieldNames();
+            Map<String, String> fields = dao.getSupplementalFields();
             
-            for(String field: fields)
+            for(Map.Entry<String, String> field: fields.entrySet())
             {
-                System.out.println(field);
+                System.out.println(field.getKey() + " = " + field.getValue());
             }
         }
         finally